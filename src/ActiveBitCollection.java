@@ -1,7 +1,3 @@
-
-
-import java.util.Iterator;
-
 public interface ActiveBitCollection {
 	/***
 	 * Appends a fill word representing n runs, with a fillbit
@@ -50,11 +46,18 @@ public interface ActiveBitCollection {
 
     /**
      * Retrieves the total number of words needed
-     * to represent this bit collection. This method is used in method
-     * finding best compression or findBestGCD
+     * to represent this bit collection once stored, as in a column file:
+     * 32 bit words packing WORD_LEN/(seglen+1) of the segments handed out
+     * by the cursor, or 64 bit words of one segment each for WAH64 (see
+     * VLCConstants.storedWords()).  VAL words built from VAL blocks are
+     * counted as they are.  The count does not depend on where the words
+     * are held (heap, off heap or mapped file).  This method is used in
+     * method finding best compression or findBestGCD, and by the cost
+     * models of the planner and of the range caches.
      *
      * @return Number of words used to represent this ActiveBitCollection.
      */
+
     public int getNumberOfWords();
 
 
@@ -66,12 +69,38 @@ public interface ActiveBitCollection {
 	public boolean isEmpty();
 
 	/**
-	 * Returns a Iterator for words in the bit vector.  right now it returns integer
-	 * in the future when we want a 64 bit word with will have to be long
-	 * @return iterator for the words stored in this column
+	 * Releases any spare capacity held by the word storage. This should be
+	 * called once the column is sealed, i.e. after it has been completely
+	 * read from disk or completely computed by a query.
+	 */
+	public void trimToSize();
+
+	/**
+	 * Returns a cursor over the words in the bit vector.  The cursor hands
+	 * out primitive longs so scanning a column does not allocate per word.
+	 * @return cursor positioned at the first word stored in this column
+	 */
+	public WordCursor getWordCursor();
+
+
+	/**
+	 * Counts the set bits in this collection without decompressing it
+	 * (fills contribute their length, literals their bit count).
+	 *
+	 * @return number of bits set to 1
 	 */
-	public Iterator<Long> getSegmentIterator();
+	public long cardinality();
 
+	/**
+	 * Returns the number of rows held by this collection, when it is known
+	 * (e.g. from the header of the column file it was read from).  The last
+	 * word of a column may hold padding segments past that many rows.
+	 *
+	 * @return number of rows, or -1 if unknown
+	 */
+	default long getNumberOfRows() {
+		return -1;
+	}
 
 	/**
 	 * @return The name assigned to this bit collection typically the column number
@@ -83,5 +112,23 @@ public interface ActiveBitCollection {
 	 */
 	public int getSize();
 
+	/**
+	 * @return The bytes of memory taken by the words of this collection
+	 * (for columns loaded from disk, what a cache holding them is charged)
+	 */
+	public long getMemoryBytes();
+
+	/**
+	 * @return the run index of this collection (see ColumnRunIndex), or null if it has none
+	 */
+	public ColumnRunIndex getRunIndex();
+
+	/**
+	 * Gives this collection a run index, kept for as long as the collection lives
+	 *
+	 * @param index the run index of this collection
+	 */
+	public void setRunIndex(ColumnRunIndex index);
+
 	public String getId();
 }
@@ -0,0 +1,185 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark of the batch executor against running the queries one by one.
+ *
+ * A bitmap index is built in memory: for each attribute, every row falls in
+ * one of its bins, picked with a Zipf skew (so a few bins are dense and
+ * most are sparse) and kept for a random run of rows.  A workload is
+ * written with QueryGenerator (point and range queries, Zipf-skewed over
+ * the attributes and bins, as in the experiments), and is then run with
+ * executeCount() and execute() on every query, and with the same calls of a
+ * BatchQueryExecutor.  Both must give the same counts.  The workload is
+ * random on each run (QueryGenerator is not seeded); pass a query file to
+ * measure the same queries again.
+ *
+ * Usage: java BatchBenchmark [numRows] [numQueries] [repetitions] [queryFile]
+ */
+public class BatchBenchmark {
+
+	/** Segment length of the generated columns */
+	private static final int SEGLEN = 31;
+	/** Number of untimed runs before measuring */
+	private static final int WARMUP = 5;
+	/** Mean number of consecutive rows falling in the same bin */
+	private static final int MEAN_RUN = 64;
+
+	public static void main(String[] args) throws IOException {
+		int numRows = (args.length > 0) ? Integer.parseInt(args[0]) : RunConfig.DATAGEN_NUM_ROWS;
+		int numQueries = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		int reps = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+		Query.columns.clear();
+		BatchBenchmark.generate(numRows, RunConfig.NUM_ATTRIBUTES, RunConfig.BIN_CARDINALITY,
+				RunConfig.DATAGEN_BIN_SKEW, new Random(42));
+		List<Query> queries;
+		if (args.length > 3) {
+			queries = QueryFile.read(args[3], numQueries);
+		} else {
+			File file = File.createTempFile("batch", ".txt");
+			file.deleteOnExit();
+			new QueryGenerator(RunConfig.NUM_ATTRIBUTES, RunConfig.BIN_CARDINALITY, numQueries,
+					RunConfig.QUERYGEN_ATTR_SKEW, RunConfig.QUERYGEN_BIN_SKEW)
+					.writeFile(QueryGenerator.Mode.MIXED, 0.5, QueryGenerator.DEFAULT_AND_LOAD_FACTOR, file.getPath());
+			queries = QueryFile.read(file.getPath());
+		}
+
+		BatchQueryExecutor batch = new BatchQueryExecutor();
+		long[] expected = new long[queries.size()];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = queries.get(i).executeCount();
+		}
+		long[] counts = batch.executeCount(queries);
+		for (int i = 0; i < expected.length; i++) {
+			if (counts[i] != expected[i]) {
+				throw new RuntimeException("Batch count of " + queries.get(i) + " is " + counts[i] + ", not " +
+						expected[i]);
+			}
+		}
+		System.out.println("rows=" + numRows + " columns=" + Query.columns.size() + " queries=" + queries.size() +
+				" window=" + RunConfig.BATCH_WINDOW + " decoded=" + batch.getColumnsDecoded() + " repeats=" +
+				batch.getRepeats() + " reps=" + reps);
+		System.out.printf("%-8s %16s %12s %9s%n", "call", "per-query(ms)", "batch(ms)", "speedup");
+
+		long single = BatchBenchmark.time(reps, () -> {
+			long sum = 0;
+			for (Query q : queries) {
+				sum += q.executeCount();
+			}
+			return sum;
+		});
+		long batched = BatchBenchmark.time(reps, () -> {
+			long sum = 0;
+			for (long count : new BatchQueryExecutor().executeCount(queries)) {
+				sum += count;
+			}
+			return sum;
+		});
+		BatchBenchmark.print("count", single, batched);
+
+		single = BatchBenchmark.time(reps, () -> {
+			// the results are all kept, as the batch does
+			ActiveBitCollection[] results = new ActiveBitCollection[queries.size()];
+			for (int i = 0; i < results.length; i++) {
+				results[i] = queries.get(i).execute();
+			}
+			long sum = 0;
+			for (ActiveBitCollection result : results) {
+				sum += result.getNumberOfWords();
+			}
+			return sum;
+		});
+		batched = BatchBenchmark.time(reps, () -> {
+			long sum = 0;
+			for (ActiveBitCollection result : new BatchQueryExecutor().execute(queries)) {
+				sum += result.getNumberOfWords();
+			}
+			return sum;
+		});
+		BatchBenchmark.print("vector", single, batched);
+		Query.columns.clear();
+	}
+
+	/**
+	 * A timed run, returning a value that keeps its results alive
+	 */
+	private interface Run {
+		long run();
+	}
+
+	/**
+	 * @return the best time in nanoseconds of reps runs (after warming up)
+	 */
+	private static long time(int reps, Run run) {
+		long sum = 0;
+		for (int i = 0; i < WARMUP; i++) {
+			sum += run.run();
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < reps; i++) {
+			long start = System.nanoTime();
+			sum += run.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		if (sum == 42) {
+			// keeps the results alive
+			System.out.println(sum);
+		}
+		return best;
+	}
+
+	private static void print(String call, long single, long batched) {
+		System.out.printf("%-8s %16.1f %12.1f %8.2fx%n", call, single / 1e6, batched / 1e6,
+				(double) single / Math.max(1, batched));
+	}
+
+	/**
+	 * Builds the columns of the index and puts them in the column cache, the
+	 * bins of attribute a being the columns a * cardinality .. (a + 1) * cardinality - 1
+	 *
+	 * @param numRows number of rows
+	 * @param numAttributes number of attributes
+	 * @param cardinality number of bins per attribute
+	 * @param skew skew of the Zipf distribution of the bins
+	 * @param rand random source
+	 */
+	private static void generate(int numRows, int numAttributes, int cardinality, int skew, Random rand) {
+		// cumulative Zipf probabilities of the bins
+		double[] cdf = new double[cardinality];
+		double total = 0;
+		for (int b = 0; b < cardinality; b++) {
+			total += 1 / Math.pow(b + 1, skew);
+			cdf[b] = total;
+		}
+		for (int a = 0; a < numAttributes; a++) {
+			VLCActiveBitCol[] cols = new VLCActiveBitCol[cardinality];
+			for (int b = 0; b < cardinality; b++) {
+				cols[b] = new VLCActiveBitCol(SEGLEN, "col_" + (a * cardinality + b));
+			}
+			long[] lits = new long[cardinality];
+			int bin = 0;
+			int runLeft = 0;
+			for (int row = 0; row < numRows; row += SEGLEN) {
+				for (int r = 0; r < SEGLEN && row + r < numRows; r++) {
+					if (runLeft-- == 0) {
+						int i = java.util.Arrays.binarySearch(cdf, rand.nextDouble() * total);
+						bin = (i < 0) ? Math.min(cardinality - 1, -i - 1) : i;
+						runLeft = (int) (-Math.log(1 - rand.nextDouble()) * MEAN_RUN);
+					}
+					lits[bin] |= 1L << (SEGLEN - 1 - r);
+				}
+				for (int b = 0; b < cardinality; b++) {
+					cols[b].appendLiteral(lits[b]);
+					lits[b] = 0;
+				}
+			}
+			for (int b = 0; b < cardinality; b++) {
+				cols[b].trimToSize();
+				Query.columns.put(a * cardinality + b, cols[b]);
+			}
+		}
+	}
+}
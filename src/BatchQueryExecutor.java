@@ -0,0 +1,516 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Executes queries in batches, sharing the decoding of their columns.
+ *
+ * The queries are taken a window at a time.  A query repeated within a
+ * window is only run once, and every copy gets its result.  Every column
+ * read by two or more queries of the window is decoded once into a shared
+ * buffer (see DecodedColumn): its runs and literals in flat arrays, each
+ * with the segment at which it ends.  Each query then runs on its own over
+ * the buffers of its columns, advancing each column independently: a run
+ * that decides the result (ones for OR, zeros for AND, zeros of the left or
+ * ones of the right operand for ANDNOT) moves the query to the end of the
+ * run at once, and the other columns gallop to that segment without looking
+ * at the words in between.  Hot columns are thus decoded once per window
+ * instead of once per query, and no query is slowed down by the columns of
+ * the other queries.
+ *
+ * A buffer is dropped once the last query of the window reading its column
+ * is done, and at most BATCH_DECODE_BUDGET_BYTES of buffers are kept at
+ * once (a column decoded past that is used by its query, then dropped).
+ * The queries that share no column with another query of the window are
+ * run on their own, as are queries over columns of different segment lengths.
+ *
+ * The operands of a query are combined left to right with its operator,
+ * which gives the same result as execute().  The range result cache is
+ * not consulted.
+ */
+public class BatchQueryExecutor {
+
+	/** Number of queries grouped together at most */
+	private final int window;
+	/** Bytes of decoded columns held at once at most */
+	private final long budgetBytes;
+	/** Words decoded (by the batch or by the queries run on their own) so far */
+	private long wordsScanned = 0;
+	/** Number of columns decoded into shared buffers so far */
+	private long columnsDecoded = 0;
+	/** Number of queries answered with the result of an identical query of their window so far */
+	private long repeats = 0;
+
+	/**
+	 * Creates an executor using RunConfig.BATCH_WINDOW and RunConfig.BATCH_DECODE_BUDGET_BYTES
+	 */
+	public BatchQueryExecutor() {
+		this(RunConfig.BATCH_WINDOW, RunConfig.BATCH_DECODE_BUDGET_BYTES);
+	}
+
+	/**
+	 * @param window number of queries grouped together at most
+	 */
+	public BatchQueryExecutor(int window) {
+		this(window, RunConfig.BATCH_DECODE_BUDGET_BYTES);
+	}
+
+	/**
+	 * @param window number of queries grouped together at most
+	 * @param budgetBytes bytes of decoded columns held at once at most
+	 */
+	public BatchQueryExecutor(int window, long budgetBytes) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("Invalid window: " + window);
+		}
+		if (budgetBytes < 0) {
+			throw new IllegalArgumentException("Invalid decode budget: " + budgetBytes);
+		}
+		this.window = window;
+		this.budgetBytes = budgetBytes;
+	}
+
+	/**
+	 * Executes every query.  Identical queries of a window share the same
+	 * result vector.
+	 *
+	 * @param queries the queries
+	 * @return the result vector of each query, in the same order
+	 */
+	public ActiveBitCollection[] execute(List<? extends Query> queries) {
+		ActiveBitCollection[] results = new ActiveBitCollection[queries.size()];
+		for (int from = 0; from < queries.size(); from += this.window) {
+			this.runWindow(queries, from, Math.min(queries.size(), from + this.window), results, null);
+		}
+		return results;
+	}
+
+	/**
+	 * Executes every query, only counting the matching rows
+	 *
+	 * @param queries the queries
+	 * @return the number of set bits in the result of each query, in the same order
+	 */
+	public long[] executeCount(List<? extends Query> queries) {
+		long[] counts = new long[queries.size()];
+		for (int from = 0; from < queries.size(); from += this.window) {
+			this.runWindow(queries, from, Math.min(queries.size(), from + this.window), null, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * @return number of compressed words decoded so far
+	 */
+	public long getWordsScanned() {
+		return this.wordsScanned;
+	}
+
+	/**
+	 * @return number of columns decoded into shared buffers so far
+	 */
+	public long getColumnsDecoded() {
+		return this.columnsDecoded;
+	}
+
+	/**
+	 * @return number of queries answered with the result of an identical query of their window so far
+	 */
+	public long getRepeats() {
+		return this.repeats;
+	}
+
+	/**
+	 * Runs the queries [from, to): each distinct query once, over the shared
+	 * buffers of its columns when it has a column in common with another one
+	 *
+	 * @param queries all the queries
+	 * @param from first query of the window
+	 * @param to end of the window (exclusive)
+	 * @param results where the result vectors go, or null to count
+	 * @param counts where the counts go when results is null
+	 */
+	private void runWindow(List<? extends Query> queries, int from, int to,
+			ActiveBitCollection[] results, long[] counts) {
+		// the first copy of each query, and how many distinct queries read each column
+		HashMap<String, Integer> distinct = new HashMap<>();
+		int[] original = new int[to - from];
+		HashMap<Integer, Integer> readers = new HashMap<>();
+		int[] order = new int[0];
+		int numCols = 0;
+		for (int q = from; q < to; q++) {
+			Integer first = distinct.putIfAbsent(queries.get(q).toString(), q);
+			original[q - from] = (first == null) ? q : first;
+			if (first != null) {
+				continue;
+			}
+			for (int colID : BatchQueryExecutor.distinctColumns(queries.get(q))) {
+				if (readers.merge(colID, 1, Integer::sum) == 1) {
+					if (numCols == order.length) {
+						order = Arrays.copyOf(order, Math.max(16, numCols * 2));
+					}
+					order[numCols++] = colID;
+				}
+			}
+		}
+
+		// load the columns in the order the queries take them, the next ones in the background
+		try (ColumnPrefetcher.Pipeline columns = queries.get(from).prefetch(Arrays.copyOf(order, numCols))) {
+			HashMap<Integer, DecodedColumn> decoded = new HashMap<>();
+			long[] held = new long[1];
+			for (int q = from; q < to; q++) {
+				int first = original[q - from];
+				if (first != q) {
+					this.repeats++;
+					if (results != null) {
+						results[q] = results[first];
+					} else {
+						counts[q] = counts[first];
+					}
+					continue;
+				}
+				Query query = queries.get(q);
+				int[] colIDs = query.getColumnIDs();
+				int[] distinctIDs = BatchQueryExecutor.distinctColumns(query);
+				boolean shared = false;
+				for (int colID : distinctIDs) {
+					shared |= readers.get(colID) > 1;
+				}
+				DecodedColumn[] operands = shared
+						? this.decode(colIDs, columns, decoded, readers, held) : null;
+				if (operands == null) {
+					// nothing to share, the query runs as usual
+					for (int colID : colIDs) {
+						columns.get(colID);
+					}
+					long before = query.getWordsScanned();
+					if (results != null) {
+						results[q] = query.execute();
+					} else {
+						counts[q] = query.executeCount();
+					}
+					this.wordsScanned += query.getWordsScanned() - before;
+				} else {
+					ActiveBitCollection ret = (results != null)
+							? WAHPointQuery.createResult(operands[0].seglen, "Res_" + query.toString()) : null;
+					long count = BatchQueryExecutor.merge(operands, query.getOperator(), ret);
+					if (ret != null) {
+						ret.trimToSize();
+						results[q] = ret;
+					} else {
+						counts[q] = count;
+					}
+				}
+				// drop the buffers (and unpin the columns) no query of the window reads anymore
+				for (int colID : distinctIDs) {
+					if (readers.merge(colID, -1, Integer::sum) == 0) {
+						readers.remove(colID);
+						DecodedColumn col = decoded.remove(colID);
+						if (col != null) {
+							held[0] -= col.bytes();
+						}
+						columns.release(colID);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the shared buffers of the columns of a query, decoding the ones
+	 * missing
+	 *
+	 * @param colIDs the columns of the query, in operand order
+	 * @param columns hands out the columns of the window
+	 * @param decoded the buffers of the window, by column ID
+	 * @param readers number of queries of the window still to read each column
+	 * @param held bytes of the buffers kept for the window (updated)
+	 * @return the buffer of each column, or null if they do not share a segment length
+	 */
+	private DecodedColumn[] decode(int[] colIDs, ColumnPrefetcher.Pipeline columns,
+			HashMap<Integer, DecodedColumn> decoded, HashMap<Integer, Integer> readers, long[] held) {
+		DecodedColumn[] operands = new DecodedColumn[colIDs.length];
+		for (int i = 0; i < colIDs.length; i++) {
+			DecodedColumn col = decoded.get(colIDs[i]);
+			if (col == null) {
+				col = DecodedColumn.of(columns.get(colIDs[i]));
+				this.columnsDecoded++;
+				this.wordsScanned += col.words;
+				if (readers.get(colIDs[i]) > 1 && held[0] + col.bytes() <= this.budgetBytes) {
+					// kept for the next queries reading the column
+					decoded.put(colIDs[i], col);
+					held[0] += col.bytes();
+				}
+			}
+			if (i > 0 && col.seglen != operands[0].seglen) {
+				return null;
+			}
+			operands[i] = col;
+		}
+		return operands;
+	}
+
+	/**
+	 * @return the IDs of the columns of a query, each once
+	 */
+	private static int[] distinctColumns(Query query) {
+		int[] ids = query.getColumnIDs();
+		if (ids.length == 2 && ids[0] == ids[1]) {
+			return new int[] {ids[0]};
+		}
+		// range columns are already distinct
+		return ids;
+	}
+
+	/**
+	 * Combines decoded columns with an operator, left to right.  Each column
+	 * keeps its own position: at each step, a column whose current run
+	 * decides the result on its own moves every column to the end of the
+	 * longest such run; otherwise the values of the columns are combined for
+	 * as many segments as they all keep them (a single segment if one of
+	 * them holds a literal).
+	 *
+	 * @param cols the operands, with the same segment length
+	 * @param op the operator (AND, OR or ANDNOT)
+	 * @param ret where the result is appended, or null to only count it
+	 * @return the number of set bits in the result when counting, 0 otherwise
+	 */
+	static long merge(DecodedColumn[] cols, Query.Operator op, ActiveBitCollection ret) {
+		int n = cols.length;
+		int seglen = cols[0].seglen;
+		long ones = (1L << seglen) - 1;
+		// the run value of each operand that decides the result, and that result
+		long[] dominant = new long[n];
+		long dominantResult;
+		switch (op) {
+			case OR:
+				Arrays.fill(dominant, ones);
+				dominantResult = ones;
+				break;
+			case AND:
+				Arrays.fill(dominant, 0);
+				dominantResult = 0;
+				break;
+			case ANDNOT:
+				if (n != 2) {
+					throw new IllegalArgumentException("ANDNOT takes two operands, not " + n);
+				}
+				dominant[0] = 0;
+				dominant[1] = ones;
+				dominantResult = 0;
+				break;
+			default:
+				throw new RuntimeException("Unsupported operator: " + op.toString());
+		}
+
+		// the result stops where the shortest operand does
+		long end = Long.MAX_VALUE;
+		for (DecodedColumn col : cols) {
+			end = Math.min(end, col.segments());
+		}
+		int[] at = new int[n];
+		long pos = 0;
+		long count = 0;
+		while (pos < end) {
+			long jump = -1;
+			long step = Long.MAX_VALUE;
+			long value = 0;
+			for (int c = 0; c < n; c++) {
+				DecodedColumn col = cols[c];
+				long v = col.values[at[c]];
+				long runEnd = col.ends[at[c]];
+				if (v == dominant[c]) {
+					jump = Math.max(jump, runEnd);
+				}
+				// a literal ends at the next segment
+				step = Math.min(step, runEnd - pos);
+				value = (c == 0) ? v : BatchQueryExecutor.combine(op, value, v, ones);
+			}
+			if (jump > pos + 1) {
+				// the others are not looked at under the run, they jump past it
+				long runs = Math.min(jump, end) - pos;
+				count += BatchQueryExecutor.emit(ret, dominantResult, runs, seglen, ones);
+				pos += runs;
+				for (int c = 0; c < n; c++) {
+					if (cols[c].ends[at[c]] <= pos) {
+						at[c] = cols[c].seek(at[c], pos);
+					}
+				}
+				continue;
+			}
+			step = Math.min(step, end - pos);
+			count += BatchQueryExecutor.emit(ret, value, step, seglen, ones);
+			pos += step;
+			for (int c = 0; c < n; c++) {
+				if (cols[c].ends[at[c]] <= pos) {
+					at[c]++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Appends segments of a value to the result, or counts their set bits
+	 *
+	 * @return the number of set bits appended when counting, 0 otherwise
+	 */
+	private static long emit(ActiveBitCollection ret, long value, long segments, int seglen, long ones) {
+		if (segments == 1) {
+			if (ret != null) {
+				ret.appendLiteral(value);
+				return 0;
+			}
+			return Long.bitCount(value);
+		}
+		// more than one segment only for runs
+		if (ret != null) {
+			ret.appendFill(segments, (byte) ((value == ones) ? 1 : 0));
+			return 0;
+		}
+		return (value == ones) ? segments * seglen : 0;
+	}
+
+	/**
+	 * @return a op b over the bits of a segment
+	 */
+	private static long combine(Query.Operator op, long a, long b, long ones) {
+		switch (op) {
+			case AND:
+				return a & b;
+			case OR:
+				return a | b;
+			case ANDNOT:
+				return a & ~b & ones;
+			default:
+				throw new RuntimeException("Unsupported operator: " + op.toString());
+		}
+	}
+
+	/**
+	 * A column decoded for the queries of a window: its literals and runs in
+	 * order (adjacent runs of the same value are merged), each with the
+	 * segment at which it ends, up to the last segment holding rows.
+	 */
+	static final class DecodedColumn {
+		/** The literal of each entry, or 0 or all ones for a run */
+		final long[] values;
+		/** Segment at which each entry ends (exclusive) */
+		final long[] ends;
+		/** Number of entries */
+		final int size;
+		/** Segment length of the column */
+		final int seglen;
+		/** Words of the column decoded */
+		final long words;
+
+		private DecodedColumn(long[] values, long[] ends, int size, int seglen, long words) {
+			this.values = values;
+			this.ends = ends;
+			this.size = size;
+			this.seglen = seglen;
+			this.words = words;
+		}
+
+		/**
+		 * Decodes a column
+		 *
+		 * @param col a compressed column
+		 * @return its decoded form
+		 */
+		static DecodedColumn of(ActiveBitCollection col) {
+			int seglen = col.getSeglen();
+			long fillFlag = 1L << seglen;
+			long fillValueBit = 1L << (seglen - 1);
+			long runLenMask = fillValueBit - 1;
+			long literalMask = fillFlag - 1;
+			long limit = WAHActiveSegment.segmentsOf(col);
+
+			long[] values = new long[1024];
+			long[] ends = new long[values.length];
+			int size = 0;
+			long words = 0;
+			long pos = 0;
+			WordCursor it = col.getWordCursor();
+			while (pos < limit && it.hasNext()) {
+				long word = it.nextWord();
+				words++;
+				long value;
+				long segments;
+				if ((word & fillFlag) != 0) {
+					value = ((word & fillValueBit) != 0) ? literalMask : 0;
+					segments = word & runLenMask;
+				} else {
+					value = word & literalMask;
+					segments = 1;
+				}
+				segments = Math.min(segments, limit - pos);
+				if (segments == 0) {
+					continue;
+				}
+				pos += segments;
+				if (size > 0 && values[size - 1] == value && (value == 0 || value == literalMask)) {
+					ends[size - 1] = pos;
+					continue;
+				}
+				if (size == values.length) {
+					values = Arrays.copyOf(values, size + (size >> 1));
+					ends = Arrays.copyOf(ends, values.length);
+				}
+				values[size] = value;
+				ends[size] = pos;
+				size++;
+			}
+			return new DecodedColumn(values, ends, size, seglen, words);
+		}
+
+		/**
+		 * @return bytes taken by the arrays
+		 */
+		long bytes() {
+			return 2L * Long.BYTES * this.values.length;
+		}
+
+		/**
+		 * @return number of segments of the column
+		 */
+		long segments() {
+			return (this.size == 0) ? 0 : this.ends[this.size - 1];
+		}
+
+		/**
+		 * Finds the entry holding a segment, galloping forward from an entry
+		 * at or before it, so that a long jump costs the logarithm of the
+		 * entries jumped over
+		 *
+		 * @param from an entry ending at or before the segment, or holding it
+		 * @param segment a segment of the column
+		 * @return the first entry ending after the segment (size if there is none)
+		 */
+		int seek(int from, long segment) {
+			if (from >= this.size || this.ends[from] > segment) {
+				return from;
+			}
+			// ends[lo] <= segment, find a hi with ends[hi] > segment
+			int lo = from;
+			int stride = 1;
+			int hi = from + 1;
+			while (hi < this.size && this.ends[hi] <= segment) {
+				lo = hi;
+				stride <<= 1;
+				hi = from + stride;
+			}
+			hi = Math.min(hi, this.size);
+			// ends[lo] <= segment < ends[hi]
+			while (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				if (this.ends[mid] <= segment) {
+					lo = mid;
+				} else {
+					hi = mid;
+				}
+			}
+			return hi;
+		}
+	}
+}
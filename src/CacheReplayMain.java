@@ -0,0 +1,92 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Replays a query file once under every cache policy (NO_CACHE,
+ * FIND_AND_SPLIT, JARVIS and TAKE_ALL) and writes, for each policy, the
+ * range-result hit rate, the number of compressed words scanned and the
+ * query latency percentiles to its own experiment file
+ * (expr_out_[policy].txt under RunConfig.PATH, the name EXPR_OUT_FILE takes
+ * for that policy).
+ *
+ * Both caches are emptied before each policy runs, so every policy starts
+ * cold and sees the same sequence of queries.
+ *
+ * Usage: java CacheReplayMain [queryFile] [maxQueries]
+ */
+public class CacheReplayMain {
+
+	public static void main(String[] args) {
+		String queryFile = (args.length > 0) ? args[0] : RunConfig.QUERY_FULLPATH_TO_FILE;
+		int maxQueries = (args.length > 1) ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+
+		ArrayList<Query> queries;
+		try {
+			queries = QueryFile.read(queryFile, maxQueries);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		System.out.println("Replaying " + queries.size() + " queries from " + queryFile);
+
+		for (RunConfig.CachePolicy policy : RunConfig.CachePolicy.values()) {
+			CacheReplayMain.replay(policy, queries, queryFile);
+		}
+	}
+
+	/**
+	 * Runs every query under one cache policy and writes its experiment file
+	 *
+	 * @param policy the cache policy
+	 * @param queries the queries to run, in order
+	 * @param queryFile name of the query file (for the log)
+	 */
+	private static void replay(RunConfig.CachePolicy policy, ArrayList<Query> queries, String queryFile) {
+		// start cold
+		Query.columns.clear();
+		Query.columns.resetStats();
+		RangeQuery.results = new RangeResultCache(RunConfig.CACHE_BUDGET_BYTES,
+				ColumnCache.createPolicy(RunConfig.CACHE_EVICTION));
+		RangeQuery.strategy = RangeCacheStrategy.create(policy);
+
+		LatencyHistogram latency = new LatencyHistogram();
+		long wordsScanned = 0;
+		for (Query q : queries) {
+			long wordsBefore = q.getWordsScanned();
+			long start = System.nanoTime();
+			q.execute();
+			latency.record(System.nanoTime() - start);
+			wordsScanned += q.getWordsScanned() - wordsBefore;
+		}
+
+		RangeResultCache results = RangeQuery.results;
+		StringBuilder s = new StringBuilder();
+		s.append("# cache policy replay of " + queryFile + "\n");
+		s.append("policy=" + policy + "\n");
+		s.append("queries=" + queries.size() + "\n");
+		s.append("hit_rate=" + results.getHitRate() + "\n");
+		s.append("range_lookups=" + results.getLookups() + "\n");
+		s.append("range_hits=" + results.getHits() + "\n");
+		s.append("range_exact_hits=" + results.getExactHits() + "\n");
+		s.append("range_evictions=" + results.getEvictions() + "\n");
+		s.append("range_cached_results=" + results.getNumberOfEntries() + "\n");
+		s.append("range_cached_bytes=" + results.getBytes() + "\n");
+		s.append("words_scanned=" + wordsScanned + "\n");
+		s.append("words_per_query=" + ((queries.isEmpty()) ? 0 : (double) wordsScanned / queries.size()) + "\n");
+		s.append("latency_mean_us=" + latency.getMeanNanos() / 1000.0 + "\n");
+		s.append("latency_p50_us=" + latency.getPercentileNanos(50) / 1000.0 + "\n");
+		s.append("latency_p99_us=" + latency.getPercentileNanos(99) / 1000.0 + "\n");
+		s.append("total_ms=" + latency.getTotalNanos() / 1000000.0 + "\n");
+		s.append("column_cache=" + Query.columns + "\n");
+		System.out.print(s);
+
+		String outFile = RunConfig.PATH + "expr_out_" + policy + ".txt";
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(outFile))) {
+			out.write(s.toString());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,379 @@
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Thread-safe cache of the columns loaded in memory, shared by every query
+ * running in the JVM.
+ *
+ * Every column put in the cache is given a run index (see ColumnRunIndex),
+ * read from the column the first time a merge skips through it.
+ *
+ * Loads are single-flight: when several threads miss on the same column at
+ * once, only the first one reads it from disk and the others wait for (and
+ * share) its result.  Loads of different columns run in parallel.
+ *
+ * The cache holds at most budgetBytes of columns (as reported by getMemoryBytes()).
+ * When a load puts it over budget, columns chosen by the eviction policy are
+ * dropped until it fits again; the column just loaded is always kept, even if
+ * it is larger than the budget by itself.  Queries that are still scanning an
+ * evicted column keep their reference to it.  Off-heap columns that leave the
+ * cache (evicted, replaced or cleared) are handed back to their arena right
+ * away, unless a query or a prefetch has them pinned, in which case the last
+ * unpin hands them back (see release()).
+ */
+public class ColumnCache {
+
+	/** The columns, each behind the future of its (possibly still running) load */
+	private final ConcurrentHashMap<Integer, CompletableFuture<ActiveBitCollection>> columns =
+			new ConcurrentHashMap<>();
+	/** Bytes accounted for each column held, guarded by this */
+	private final HashMap<Integer, Long> sizes = new HashMap<>();
+	/** Chooses the columns to evict, guarded by this */
+	private final ColumnEvictionPolicy policy;
+	/** Most bytes of columns held at once */
+	private final long budgetBytes;
+
+	/** Bytes of columns held, guarded by this */
+	private long usedBytes = 0;
+	/** Statistics, guarded by this */
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a cache without a memory budget
+	 */
+	public ColumnCache() {
+		this(Long.MAX_VALUE, new LRUEvictionPolicy());
+	}
+
+	/**
+	 * Creates a cache holding at most budgetBytes of columns
+	 *
+	 * @param budgetBytes most bytes of columns held at once
+	 * @param policy chooses the columns to evict
+	 */
+	public ColumnCache(long budgetBytes, ColumnEvictionPolicy policy) {
+		if (budgetBytes <= 0) {
+			throw new IllegalArgumentException("Invalid cache budget: " + budgetBytes);
+		}
+		this.budgetBytes = budgetBytes;
+		this.policy = policy;
+	}
+
+	/**
+	 * @param eviction an eviction policy from the run configuration
+	 * @return a new instance of that policy
+	 */
+	public static ColumnEvictionPolicy createPolicy(RunConfig.ColumnEviction eviction) {
+		switch (eviction) {
+			case LFU:
+				return new LFUEvictionPolicy();
+			case COST_AWARE:
+				return new CostAwareEvictionPolicy();
+			case LRU:
+			default:
+				return new LRUEvictionPolicy();
+		}
+	}
+
+	/**
+	 * Returns a column, loading it with the given loader if it is not in memory.
+	 * If another thread is already loading the column, waits for that load instead.
+	 *
+	 * @param colID the column
+	 * @param loader reads the column from disk (returns null on failure)
+	 * @return the column, or null if it could not be loaded
+	 */
+	public ActiveBitCollection get(int colID, IntFunction<ActiveBitCollection> loader) {
+		CompletableFuture<ActiveBitCollection> entry = this.columns.get(colID);
+		if (entry == null) {
+			CompletableFuture<ActiveBitCollection> load = new CompletableFuture<>();
+			entry = this.columns.putIfAbsent(colID, load);
+			if (entry == null) {
+				// this thread won the race, do the load
+				return this.load(colID, load, loader);
+			}
+		}
+		this.hit(colID);
+		return ColumnCache.await(entry);
+	}
+
+	/**
+	 * @param colID the column
+	 * @return the column if it is in memory (waiting for it if it is being loaded), null otherwise
+	 */
+	public ActiveBitCollection get(int colID) {
+		CompletableFuture<ActiveBitCollection> entry = this.columns.get(colID);
+		return (entry == null) ? null : ColumnCache.await(entry);
+	}
+
+	/**
+	 * Puts an already built column in the cache, replacing any previous one.
+	 * It counts against the budget like a loaded column.
+	 *
+	 * @param colID the column
+	 * @param column the column
+	 */
+	public void put(int colID, ActiveBitCollection column) {
+		ColumnRunIndex.attach(column);
+		CompletableFuture<ActiveBitCollection> entry = CompletableFuture.completedFuture(column);
+		synchronized (this) {
+			CompletableFuture<ActiveBitCollection> previous = this.columns.put(colID, entry);
+			if (previous != null) {
+				previous.thenAccept(col -> {
+					if (col != column) {
+						ColumnCache.release(col);
+					}
+				});
+			}
+			this.admit(colID, entry, column, 0);
+		}
+	}
+
+	/**
+	 * Removes a column from the cache.  If the column is still being loaded,
+	 * waits for the load so that the caller gets the column to release (see
+	 * release()).
+	 *
+	 * @param colID the column
+	 * @return the removed column, or null if it was not in memory
+	 */
+	public ActiveBitCollection remove(int colID) {
+		CompletableFuture<ActiveBitCollection> entry;
+		synchronized (this) {
+			entry = this.columns.remove(colID);
+			if (entry == null) {
+				return null;
+			}
+			this.forget(colID);
+		}
+		try {
+			return ColumnCache.await(entry);
+		} catch (RuntimeException e) {
+			// the load failed, nothing to release
+			return null;
+		}
+	}
+
+	/**
+	 * @param colID the column
+	 * @return True if the column is loaded (or being loaded)
+	 */
+	public boolean contains(int colID) {
+		return this.columns.containsKey(colID);
+	}
+
+	/**
+	 * @return number of columns loaded (or being loaded)
+	 */
+	public int size() {
+		return this.columns.size();
+	}
+
+	/**
+	 * Drops every column (the statistics are kept)
+	 */
+	public synchronized void clear() {
+		for (CompletableFuture<ActiveBitCollection> entry : this.columns.values()) {
+			entry.thenAccept(ColumnCache::release);
+		}
+		this.columns.clear();
+		this.sizes.clear();
+		this.policy.clear();
+		this.usedBytes = 0;
+	}
+
+	/**
+	 * @return the memory budget in bytes
+	 */
+	public long getBudgetBytes() {
+		return this.budgetBytes;
+	}
+
+	/**
+	 * @return bytes of columns currently held
+	 */
+	public synchronized long getUsedBytes() {
+		return this.usedBytes;
+	}
+
+	/**
+	 * @return number of requests served without a load (including waits on another thread's load)
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return number of requests that loaded the column
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return number of columns evicted to stay within the budget
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * @return fraction of requests served without a load
+	 */
+	public synchronized double getHitRate() {
+		long total = this.hits + this.misses;
+		return (total == 0) ? 0 : (double) this.hits / total;
+	}
+
+	/**
+	 * Zeroes the hit, miss and eviction counters
+	 */
+	public synchronized void resetStats() {
+		this.hits = 0;
+		this.misses = 0;
+		this.evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "hits=" + this.hits + " misses=" + this.misses + " evictions=" + this.evictions +
+				" usedBytes=" + this.usedBytes + " budgetBytes=" + this.budgetBytes;
+	}
+
+	/**
+	 * @param col a column
+	 * @return the bytes the column is accounted for: its backing array on
+	 * the heap, its region off-heap, or its mapped file
+	 */
+	public static long sizeOf(ActiveBitCollection col) {
+		return Math.max(1, col.getMemoryBytes());
+	}
+
+	/**
+	 * Lets go of a column that has left the cache.  An off-heap column is
+	 * handed back to its arena now if no query or prefetch has it pinned,
+	 * and by the last unpin otherwise (see OffHeapActiveBitCol.pin()).
+	 * Other columns are left to the garbage collector.
+	 *
+	 * @param col the column, or null
+	 */
+	static void release(ActiveBitCollection col) {
+		if (col instanceof OffHeapActiveBitCol) {
+			OffHeapActiveBitCol off = (OffHeapActiveBitCol) col;
+			if (off.evict()) {
+				off.getArena().free(off);
+			}
+		}
+	}
+
+	/**
+	 * Runs the load this thread is responsible for and publishes its result
+	 * to the threads waiting on it.
+	 */
+	private ActiveBitCollection load(int colID, CompletableFuture<ActiveBitCollection> load,
+			IntFunction<ActiveBitCollection> loader) {
+		synchronized (this) {
+			this.misses++;
+		}
+		ActiveBitCollection col;
+		long start = System.nanoTime();
+		try {
+			col = loader.apply(colID);
+		} catch (RuntimeException | Error e) {
+			// let the next caller retry instead of caching the failure
+			this.columns.remove(colID, load);
+			load.completeExceptionally(e);
+			throw e;
+		}
+		if (col == null) {
+			this.columns.remove(colID, load);
+		} else {
+			ColumnRunIndex.attach(col);
+			this.admit(colID, load, col, System.nanoTime() - start);
+		}
+		load.complete(col);
+		return col;
+	}
+
+	/**
+	 * Accounts for a column that has just been put in the cache, and evicts
+	 * other columns until the cache is back within budget.
+	 */
+	private synchronized void admit(int colID, CompletableFuture<ActiveBitCollection> entry,
+			ActiveBitCollection col, long loadNanos) {
+		if (this.columns.get(colID) != entry) {
+			// removed (or replaced) while it was loading
+			return;
+		}
+		long bytes = ColumnCache.sizeOf(col);
+		Long previous = this.sizes.put(colID, bytes);
+		if (previous != null) {
+			this.usedBytes -= previous;
+		}
+		this.usedBytes += bytes;
+		this.policy.admitted(colID, bytes, loadNanos);
+
+		while (this.usedBytes > this.budgetBytes) {
+			int victim = this.policy.victim(colID);
+			if (victim < 0) {
+				break;
+			}
+			CompletableFuture<ActiveBitCollection> evicted = this.columns.remove(victim);
+			if (evicted != null) {
+				// once its load is published, if it is still running
+				evicted.thenAccept(ColumnCache::release);
+			}
+			this.forget(victim);
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * Records a hit on a column
+	 */
+	private synchronized void hit(int colID) {
+		this.hits++;
+		this.policy.accessed(colID);
+	}
+
+	/**
+	 * Stops accounting for a column
+	 */
+	private synchronized void forget(int colID) {
+		Long bytes = this.sizes.remove(colID);
+		if (bytes != null) {
+			this.usedBytes -= bytes;
+		}
+		this.policy.removed(colID);
+	}
+
+	/**
+	 * Waits for a load to finish
+	 *
+	 * @param entry the load
+	 * @return the loaded column
+	 */
+	private static ActiveBitCollection await(CompletableFuture<ActiveBitCollection> entry) {
+		try {
+			return entry.join();
+		} catch (CompletionException e) {
+			// rethrow what the loading thread hit
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		} catch (CancellationException e) {
+			return null;
+		}
+	}
+}
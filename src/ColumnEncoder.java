@@ -0,0 +1,347 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Compresses a column as its rows come in, and writes it to its column file
+ * without ever holding the whole column.
+ *
+ * Rows are appended as bits, most significant first, and cut into segments
+ * of seglen bits.  Each segment becomes a WAH word (a literal, or part of a
+ * fill when it is all zeros or all ones), and the words go to a buffer of
+ * CMP_BUFFER_BYTES that is appended to the column file whenever it fills up:
+ * packed WORD_LEN/(seglen+1) to a 32 bit word like VLCCompressedWriter
+ * does, or as 64 bit words for WAH64.  The ColumnHeader goes first in the
+ * file; its counts and checksum are only known at the end, so it is written
+ * over a placeholder once the column is finished (columns that fit in the
+ * buffer are written once, header first).  The file is opened by the first
+ * flush and stays open until finish(), so each column being written holds a
+ * file descriptor; an encoder given up on an error must be closed.
+ *
+ * An encoder without a file keeps its words in memory instead: it encodes a
+ * chunk of the rows of a column (see CompressionMain.compressParallel), to
+ * be appended to the encoder of the whole column once the rows before the
+ * chunk are in.  Appending merges the fills that meet at the boundary, so
+ * the column comes out as if its rows had been encoded in one go.
+ */
+public class ColumnEncoder implements Closeable {
+
+	private final File file;
+	private final int seglen;
+	private final long fillFlag;
+	private final long oneFill;
+	private final long maxRun;
+	private final long literalOnes;
+	/** Bits of a word: the segment and its flag */
+	private final long wordMask;
+	/** Segments packed in a 32 bit word, 0 for 64 bit WAH64 words */
+	private final int segsPerWord;
+	private final int segLenPlusFlag;
+	private final int throwAway;
+
+	/** Rows of the segment being filled, in its low segmentBits bits */
+	private long segment = 0;
+	private int segmentBits = 0;
+	/** The last word, held back while it can still grow into (or as) a fill */
+	private long last = 0;
+	private boolean hasLast = false;
+	/** The 32 bit word being packed, and the segments in it */
+	private int packed = 0;
+	private int slots = 0;
+
+	/** The words, for an encoder without a file */
+	private final WordBuffer words;
+	private final ByteBuffer buffer;
+	private final CRC32C crc = new CRC32C();
+	/** The column file, once it holds the placeholder header and the first words (null before, and once closed) */
+	private FileChannel out = null;
+	/** True once finished or closed: the file must not be started again */
+	private boolean closed = false;
+	private long numWords = 0;
+	private long numRows = 0;
+	private long cardinality = 0;
+
+	/**
+	 * @param file the column file to write (replaced)
+	 * @param seglen segment length (at most 31, or 63 for WAH64)
+	 * @param bufferBytes bytes of words held before they are appended to the file
+	 */
+	public ColumnEncoder(File file, int seglen, int bufferBytes) {
+		this(seglen, file, bufferBytes);
+	}
+
+	/**
+	 * Encodes rows in memory, to append them to another encoder
+	 *
+	 * @param seglen segment length (at most 31, or 63 for WAH64)
+	 */
+	public ColumnEncoder(int seglen) {
+		this(seglen, null, 0);
+	}
+
+	private ColumnEncoder(int seglen, File file, int bufferBytes) {
+		if (seglen < 2 || (seglen >= VLCConstants.WORD_LEN && seglen != WAH64ActiveBitCol.SEGLEN)) {
+			throw new IllegalArgumentException("Invalid segment length: " + seglen);
+		}
+		this.file = file;
+		this.seglen = seglen;
+		this.fillFlag = 1L << seglen;
+		this.oneFill = this.fillFlag | (1L << (seglen - 1));
+		this.maxRun = (1L << (seglen - 1)) - 1;
+		this.literalOnes = (1L << seglen) - 1;
+		this.wordMask = (this.fillFlag << 1) - 1;
+		this.segLenPlusFlag = seglen + 1;
+		this.segsPerWord = (seglen == WAH64ActiveBitCol.SEGLEN) ? 0 : VLCConstants.WORD_LEN / this.segLenPlusFlag;
+		this.throwAway = VLCConstants.WORD_LEN % this.segLenPlusFlag;
+		this.words = (file == null) ? WordBuffer.forSeglen(seglen) : null;
+		this.buffer = (file == null) ? null
+				: ByteBuffer.allocate(Math.max(Long.BYTES, bufferBytes - bufferBytes % Long.BYTES));
+	}
+
+	/**
+	 * Appends rows to the column
+	 *
+	 * @param bits the rows, the first one in the most significant bit
+	 * @param n number of rows in bits (at most 64)
+	 * @throws IOException if the column file cannot be written
+	 */
+	public void appendBits(long bits, int n) throws IOException {
+		this.numRows += n;
+		while (n > 0) {
+			int k = Math.min(n, this.seglen - this.segmentBits);
+			this.segment = (k == 64) ? bits : (this.segment << k) | (bits >>> (64 - k));
+			this.segmentBits += k;
+			bits = (k == 64) ? 0 : bits << k;
+			n -= k;
+			if (this.segmentBits == this.seglen) {
+				this.appendWord(this.segment);
+				this.segment = 0;
+				this.segmentBits = 0;
+			}
+		}
+	}
+
+	/**
+	 * Appends a word: a full segment of rows (a literal), or a fill.  Fills
+	 * and literals of all zeros or all ones grow the last word when it is a
+	 * fill (or literal) of the same value, up to the longest fill.
+	 *
+	 * @param word the word
+	 * @throws IOException if the column file cannot be written
+	 */
+	private void appendWord(long word) throws IOException {
+		boolean isFill = (word & this.fillFlag) != 0;
+		long runs = isFill ? word & this.maxRun : 1;
+		long fill = isFill ? word & ~this.maxRun
+				: (word == 0) ? this.fillFlag : (word == this.literalOnes) ? this.oneFill : -1;
+		this.cardinality += !isFill ? Long.bitCount(word) : (fill == this.oneFill) ? runs * this.seglen : 0;
+		if (fill != -1 && this.hasLast) {
+			long literal = (fill == this.oneFill) ? this.literalOnes : 0;
+			long lastRuns = (this.last == literal) ? 1
+					: ((this.last & ~this.maxRun) == fill) ? this.last & this.maxRun : 0;
+			if (lastRuns > 0 && lastRuns < this.maxRun) {
+				long total = lastRuns + runs;
+				if (total <= this.maxRun) {
+					this.last = fill | total;
+					return;
+				}
+				// fill the last word, what is left starts the next one
+				this.emit(fill | this.maxRun);
+				runs = total - this.maxRun;
+				this.last = (runs == 1) ? literal : fill | runs;
+				return;
+			}
+		}
+		if (this.hasLast) {
+			this.emit(this.last);
+		}
+		this.last = word;
+		this.hasLast = true;
+	}
+
+	/**
+	 * Appends the rows of an encoder without a file, which start where the
+	 * rows appended so far end
+	 *
+	 * @param chunk the encoder of the next rows of the column
+	 * @throws IOException if the column file cannot be written
+	 * @throws IllegalStateException if the rows so far do not end on a segment
+	 */
+	public void append(ColumnEncoder chunk) throws IOException {
+		if (this.segmentBits != 0) {
+			throw new IllegalStateException("Rows of a chunk must start on a segment, not after " + this.numRows +
+					" rows");
+		}
+		for (int i = 0; i < chunk.words.size(); i++) {
+			this.appendWord(chunk.words.get(i));
+		}
+		if (chunk.hasLast) {
+			this.appendWord(chunk.last);
+		}
+		this.segment = chunk.segment;
+		this.segmentBits = chunk.segmentBits;
+		this.numRows += chunk.numRows;
+	}
+
+	/**
+	 * Writes a word to the buffer, packing it with the ones before it
+	 */
+	private void emit(long word) throws IOException {
+		if (this.words != null) {
+			this.words.add(word);
+			return;
+		}
+		if (this.buffer.remaining() < Long.BYTES) {
+			this.flush();
+		}
+		this.numWords++;
+		if (this.segsPerWord == 0) {
+			this.buffer.putLong(word);
+			return;
+		}
+		int shift = this.segLenPlusFlag * (this.segsPerWord - 1 - this.slots) + this.throwAway;
+		this.packed |= (int) ((word & this.wordMask) << shift);
+		if (++this.slots == this.segsPerWord) {
+			this.buffer.putInt(this.packed);
+			this.packed = 0;
+			this.slots = 0;
+		}
+	}
+
+	/**
+	 * Appends the buffer to the column file
+	 */
+	private void flush() throws IOException {
+		this.checkOpen();
+		this.buffer.flip();
+		this.crc.update(this.buffer.duplicate());
+		try {
+			if (this.out == null) {
+				this.out = this.open();
+				ColumnEncoder.writeFully(this.out, ByteBuffer.allocate(ColumnHeader.BYTES));
+			}
+			ColumnEncoder.writeFully(this.out, this.buffer);
+		} catch (IOException | RuntimeException e) {
+			this.close();
+			throw e;
+		}
+		this.buffer.clear();
+	}
+
+	/**
+	 * Writes the last segment (padded with zero rows), the last words and
+	 * the header, and closes the column file (even if writing fails).
+	 * Nothing can be appended afterwards.
+	 *
+	 * @return the header written
+	 * @throws IOException if the column file cannot be written
+	 */
+	public ColumnHeader finish() throws IOException {
+		if (this.file == null) {
+			throw new IllegalStateException("Chunks are appended to another encoder, not finished");
+		}
+		this.checkOpen();
+		try {
+			return this.writeLast();
+		} finally {
+			this.close();
+		}
+	}
+
+	/**
+	 * Writes the last words and the header (see finish())
+	 */
+	private ColumnHeader writeLast() throws IOException {
+		if (this.segmentBits > 0) {
+			this.appendWord(this.segment << (this.seglen - this.segmentBits));
+			this.segmentBits = 0;
+		}
+		if (this.hasLast) {
+			this.emit(this.last);
+			this.hasLast = false;
+		}
+		if (this.slots > 0) {
+			this.buffer.putInt(this.packed);
+			this.slots = 0;
+		}
+		long fileWords = (this.segsPerWord == 0) ? this.numWords
+				: (this.numWords + this.segsPerWord - 1) / this.segsPerWord;
+		this.buffer.flip();
+		this.crc.update(this.buffer.duplicate());
+		ColumnHeader header = new ColumnHeader(ColumnHeader.encodingOf(this.seglen), this.seglen, fileWords,
+				this.numRows, this.cardinality, (int) this.crc.getValue());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(ColumnHeader.BYTES);
+		header.write(new DataOutputStream(bytes));
+
+		if (this.out != null) {
+			// append the last words, then overwrite the placeholder
+			ColumnEncoder.writeFully(this.out, this.buffer);
+			ByteBuffer head = ByteBuffer.wrap(bytes.toByteArray());
+			while (head.hasRemaining()) {
+				this.out.write(head, head.position());
+			}
+		} else {
+			this.out = this.open();
+			ColumnEncoder.writeFully(this.out, ByteBuffer.wrap(bytes.toByteArray()));
+			ColumnEncoder.writeFully(this.out, this.buffer);
+		}
+		this.buffer.clear();
+		return header;
+	}
+
+	/**
+	 * Closes the column file if it is open.  The column is left unfinished
+	 * unless finish() was called; closing again does nothing.
+	 *
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		FileChannel out = this.out;
+		this.out = null;
+		this.closed = true;
+		if (out != null) {
+			out.close();
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException if the column has been finished or closed
+	 */
+	private void checkOpen() {
+		if (this.closed) {
+			throw new IllegalStateException("Column file " + this.file + " has been finished or closed");
+		}
+	}
+
+	/**
+	 * Opens the column file for writing, replacing it (not in append mode,
+	 * which would also append the header written over the placeholder)
+	 */
+	private FileChannel open() throws IOException {
+		return FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Writes the rest of a buffer at the position of a channel
+	 */
+	private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+
+	/**
+	 * @return rows appended so far
+	 */
+	public long getNumberOfRows() {
+		return this.numRows;
+	}
+}
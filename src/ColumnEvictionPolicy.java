@@ -0,0 +1,44 @@
+/**
+ * Decides which column the ColumnCache evicts when it is over its memory
+ * budget.  The cache tells the policy about every column it admits, hits on,
+ * and removes, and asks it for a victim while it is over budget.
+ *
+ * Implementations need not be thread-safe: the cache calls them while
+ * holding its own lock.
+ */
+public interface ColumnEvictionPolicy {
+
+	/**
+	 * A column was loaded and is now held by the cache
+	 *
+	 * @param colID the column
+	 * @param bytes memory held by the column
+	 * @param loadNanos time it took to load the column
+	 */
+	public void admitted(int colID, long bytes, long loadNanos);
+
+	/**
+	 * A query used a column that was already held by the cache
+	 *
+	 * @param colID the column
+	 */
+	public void accessed(int colID);
+
+	/**
+	 * A column is no longer held by the cache (evicted or removed)
+	 *
+	 * @param colID the column
+	 */
+	public void removed(int colID);
+
+	/**
+	 * @param exclude a column that must not be chosen (the one just admitted)
+	 * @return the column to evict next, or -1 if there is none other than exclude
+	 */
+	public int victim(int exclude);
+
+	/**
+	 * Forgets every column
+	 */
+	public void clear();
+}
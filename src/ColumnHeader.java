@@ -0,0 +1,218 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * The header at the start of a column file.
+ *
+ * Column files used to start with a single byte holding the segment length,
+ * followed by the words.  A file with a header starts with MAGIC instead,
+ * whose first byte (66) is larger than any segment length (at most 63), so
+ * readers can tell both layouts apart from the first byte and still read
+ * headerless files.  The header is BYTES long and big-endian, like the
+ * words after it:
+ *
+ *   offset  size  field
+ *        0     4  MAGIC ("BMCF")
+ *        4     2  VERSION
+ *        6     2  header length in bytes
+ *        8     1  encoding (ordinal of RunConfig.BitmapEncoding)
+ *        9     1  segment length
+ *       10     2  reserved (0)
+ *       12     4  CRC32C of the words
+ *       16     8  number of words in the file
+ *       24     8  number of rows held by the column
+ *       32     8  number of set bits
+ *
+ * With it a reader allocates the column once, checks the words it read, and
+ * knows how many rows the column holds: the last word of a column file may
+ * carry padding segments past the last row, which the query kernels drop
+ * instead of counting on both operands having the same padding.
+ */
+public class ColumnHeader {
+
+	/** First four bytes of a column file with a header */
+	public static final int MAGIC = 0x424D4346;
+	/** Version of the header layout */
+	public static final short VERSION = 1;
+	/** Length of the header */
+	public static final int BYTES = 40;
+
+	private final RunConfig.BitmapEncoding encoding;
+	private final int seglen;
+	private final long numWords;
+	private final long numRows;
+	private final long cardinality;
+	private final int checksum;
+
+	/**
+	 * @param encoding encoding of the words
+	 * @param seglen segment length of the column
+	 * @param numWords number of words in the file (ints, or longs for WAH64)
+	 * @param numRows number of rows held by the column
+	 * @param cardinality number of set bits
+	 * @param checksum CRC32C of the words, as written in the file
+	 */
+	public ColumnHeader(RunConfig.BitmapEncoding encoding, int seglen, long numWords, long numRows,
+			long cardinality, int checksum) {
+		this.encoding = encoding;
+		this.seglen = seglen;
+		this.numWords = numWords;
+		this.numRows = numRows;
+		this.cardinality = cardinality;
+		this.checksum = checksum;
+	}
+
+	/**
+	 * @param firstByte the first byte of a column file
+	 * @return true if the file starts with a header, false if it starts with its segment length
+	 */
+	public static boolean isHeader(int firstByte) {
+		return (byte) firstByte == (byte) (MAGIC >>> 24);
+	}
+
+	/**
+	 * Reads the rest of a header, once its first byte has been read (to tell
+	 * it from a segment length)
+	 *
+	 * @param in the column file, positioned after the first byte
+	 * @return the header
+	 * @throws IOException if the header cannot be read or is not valid
+	 */
+	public static ColumnHeader read(DataInput in) throws IOException {
+		byte[] bytes = new byte[BYTES];
+		bytes[0] = (byte) (MAGIC >>> 24);
+		in.readFully(bytes, 1, BYTES - 1);
+		return ColumnHeader.read(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads a header from the start of a buffer
+	 *
+	 * @param buffer the column file (or at least its first BYTES bytes), header first
+	 * @return the header, or null if the buffer starts with a segment length instead
+	 * @throws IOException if the header is not valid
+	 */
+	public static ColumnHeader read(ByteBuffer buffer) throws IOException {
+		if (!ColumnHeader.isHeader(buffer.get(0))) {
+			return null;
+		}
+		if (buffer.limit() < BYTES || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a column file header");
+		}
+		short version = buffer.getShort(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported column file version: " + version);
+		}
+		if (buffer.getShort(6) != BYTES) {
+			throw new IOException("Unexpected column file header length: " + buffer.getShort(6));
+		}
+		int encoding = buffer.get(8);
+		if (encoding < 0 || encoding >= RunConfig.BitmapEncoding.values().length) {
+			throw new IOException("Unknown column encoding: " + encoding);
+		}
+		return new ColumnHeader(RunConfig.BitmapEncoding.values()[encoding], buffer.get(9),
+				buffer.getLong(16), buffer.getLong(24), buffer.getLong(32), buffer.getInt(12));
+	}
+
+	/**
+	 * Writes this header
+	 *
+	 * @param out the column file, at its start
+	 * @throws IOException if the header cannot be written
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeShort(BYTES);
+		out.writeByte(this.encoding.ordinal());
+		out.writeByte(this.seglen);
+		out.writeShort(0);
+		out.writeInt(this.checksum);
+		out.writeLong(this.numWords);
+		out.writeLong(this.numRows);
+		out.writeLong(this.cardinality);
+	}
+
+	/**
+	 * @param seglen a segment length
+	 * @return the encoding of columns with that segment length
+	 */
+	public static RunConfig.BitmapEncoding encodingOf(int seglen) {
+		if (seglen == WAH64ActiveBitCol.SEGLEN) {
+			return RunConfig.BitmapEncoding.WAH64;
+		}
+		return (seglen == 31) ? RunConfig.BitmapEncoding.WAH32 : RunConfig.BitmapEncoding.VLC;
+	}
+
+	/**
+	 * Checks words read from a column file against this header
+	 *
+	 * @param crc the CRC32C of the words read
+	 * @param name name of the column file (for the message)
+	 * @throws IOException if the checksum does not match
+	 */
+	public void verify(CRC32C crc, String name) throws IOException {
+		if ((int) crc.getValue() != this.checksum) {
+			throw new IOException("Checksum mismatch in column file " + name + ": expected " +
+					Integer.toHexString(this.checksum) + ", read " + Integer.toHexString((int) crc.getValue()));
+		}
+	}
+
+	/**
+	 * @return encoding of the words
+	 */
+	public RunConfig.BitmapEncoding getEncoding() {
+		return this.encoding;
+	}
+
+	/**
+	 * @return segment length of the column
+	 */
+	public int getSeglen() {
+		return this.seglen;
+	}
+
+	/**
+	 * @return number of words in the file
+	 */
+	public long getNumberOfWords() {
+		return this.numWords;
+	}
+
+	/**
+	 * @return number of bytes taken by each word in the file
+	 */
+	public int getWordBytes() {
+		return this.encoding.getWordLen() / Byte.SIZE;
+	}
+
+	/**
+	 * @return number of rows held by the column
+	 */
+	public long getNumberOfRows() {
+		return this.numRows;
+	}
+
+	/**
+	 * @return number of set bits
+	 */
+	public long getCardinality() {
+		return this.cardinality;
+	}
+
+	/**
+	 * @return CRC32C of the words
+	 */
+	public int getChecksum() {
+		return this.checksum;
+	}
+
+	@Override
+	public String toString() {
+		return "encoding=" + this.encoding + " seglen=" + this.seglen + " words=" + this.numWords + " rows=" +
+				this.numRows + " cardinality=" + this.cardinality + " crc32c=" + Integer.toHexString(this.checksum);
+	}
+}
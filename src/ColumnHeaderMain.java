@@ -0,0 +1,132 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Adds a ColumnHeader to the column files of the compressed index
+ * (RunConfig.CMP_FULLPATH_TO_COMPRESSED_INDEX) written without one, and
+ * checks the files that already have one.
+ *
+ * The words of a file are kept as they are, only the segment length byte
+ * is replaced by the header.  The rows set are counted from the words, the
+ * way ColumnEncoder counts them as it writes them, and a file whose header
+ * gives another count is rejected (queries that only count rows trust it).  Without a row count, every segment of a
+ * column is taken to hold rows; given the number of rows of the raw data
+ * (e.g. RunConfig.DATAGEN_NUM_ROWS), the padding segments at the end of the
+ * columns are left out of query results from then on.
+ *
+ * Usage: java ColumnHeaderMain [numRows] [indexDir]
+ */
+public class ColumnHeaderMain {
+
+	public static void main(String[] args) {
+		long numRows = (args.length > 0) ? Long.parseLong(args[0]) : -1;
+		String dir = (args.length > 1) ? args[1] : RunConfig.CMP_FULLPATH_TO_COMPRESSED_INDEX;
+
+		File[] files = new File(dir).listFiles((d, name) ->
+				name.startsWith(RunConfig.CMP_COMPRESSED_INDEX_FILE_PREFIX) &&
+				name.endsWith(RunConfig.CMP_COMPRESSED_INDEX_FILE_EXTENSION));
+		if (files == null) {
+			System.err.println("No compressed index in " + dir);
+			return;
+		}
+		int added = 0;
+		int checked = 0;
+		for (File file : files) {
+			try {
+				if (ColumnHeaderMain.addHeader(file, numRows)) {
+					added++;
+				} else {
+					checked++;
+				}
+			} catch (IOException | RuntimeException e) {
+				System.err.println(file + ": " + e.getMessage());
+			}
+		}
+		System.out.println("headers added=" + added + " checked=" + checked + " files=" + files.length);
+	}
+
+	/**
+	 * Adds a header to a column file, or checks the header it has
+	 *
+	 * @param file a column file
+	 * @param numRows rows held by the column, or -1 to take every segment as rows
+	 * @return true if a header was added, false if the file already had one
+	 * @throws IOException if the file cannot be read or written, or does not match its header
+	 */
+	private static boolean addHeader(File file, long numRows) throws IOException {
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		if (bytes.length == 0) {
+			throw new IOException("Empty column file");
+		}
+		int seglen = bytes[0];
+		CompressedBitmapReader reader = (seglen == WAH64ActiveBitCol.SEGLEN || ColumnHeader.isHeader(seglen)
+				&& ColumnHeader.read(ByteBuffer.wrap(bytes)).getSeglen() == WAH64ActiveBitCol.SEGLEN)
+				? new WAH64CompressedReader() : new VLCCompressedReader();
+		// reading the file checks its header and checksum, if it has one
+		ActiveBitCollection column = reader.readColumn(file);
+		long cardinality = ColumnHeaderMain.countRows(column);
+		if (ColumnHeader.isHeader(seglen)) {
+			ColumnHeader header = ColumnHeader.read(ByteBuffer.wrap(bytes));
+			if (header.getCardinality() != cardinality) {
+				throw new IOException("Header counts " + header.getCardinality() + " rows set, the words hold " +
+						cardinality);
+			}
+			return false;
+		}
+
+		RunConfig.BitmapEncoding encoding = ColumnHeader.encodingOf(seglen);
+		int wordBytes = encoding.getWordLen() / Byte.SIZE;
+		int numWords = (bytes.length - 1) / wordBytes;
+		long segmentRows = ColumnStats.of(column).getNumberOfRows();
+		if (numRows > segmentRows) {
+			throw new IllegalArgumentException(numRows + " rows do not fit in " + segmentRows / seglen +
+					" segments");
+		}
+		CRC32C crc = new CRC32C();
+		crc.update(bytes, 1, numWords * wordBytes);
+		ColumnHeader header = new ColumnHeader(encoding, seglen, numWords, (numRows >= 0) ? numRows : segmentRows,
+				cardinality, (int) crc.getValue());
+
+		// write next to the file and move it over, so a failure leaves the old file
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			header.write(out);
+			out.write(bytes, 1, numWords * wordBytes);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return true;
+	}
+
+	/**
+	 * Counts the rows set in a column from its WAH words, as ColumnEncoder
+	 * does: a literal counts its bits, a fill of ones its length in rows
+	 *
+	 * @param column a column
+	 * @return number of rows set
+	 */
+	static long countRows(ActiveBitCollection column) {
+		int seglen = column.getSeglen();
+		long fillFlag = 1L << seglen;
+		long oneFill = fillFlag | (1L << (seglen - 1));
+		long maxRun = (1L << (seglen - 1)) - 1;
+		long literalMask = fillFlag - 1;
+		long count = 0;
+		WordCursor it = column.getWordCursor();
+		while (it.hasNext()) {
+			long word = it.nextWord();
+			if ((word & fillFlag) == 0) {
+				count += Long.bitCount(word & literalMask);
+			} else if ((word & ~maxRun) == oneFill) {
+				count += (word & maxRun) * seglen;
+			}
+		}
+		return count;
+	}
+}
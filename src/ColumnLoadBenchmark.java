@@ -0,0 +1,131 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Benchmark for loading column files.
+ *
+ * A column file of random words is written to a temporary file for each
+ * encoding (VLC with a few segment lengths, and WAH64), and loaded again
+ * and again, once with the stream reader (readColumn(DataInputStream), one
+ * word at a time) and once with the bulk reader (readColumn(File)).  Both
+ * loads must give the same words.  The file stays in the page cache after
+ * the first load, so the throughput is that of decoding, the bound on how
+ * close to disk bandwidth a load can get.
+ *
+ * Usage: java ColumnLoadBenchmark [sizeMB] [repetitions]
+ */
+public class ColumnLoadBenchmark {
+
+	/** Segment lengths of the VLC columns */
+	private static final int[] SEGLENS = {31, 15, 7};
+	/** Number of untimed loads before measuring */
+	private static final int WARMUP = 3;
+
+	public static void main(String[] args) throws IOException {
+		int sizeMB = (args.length > 0) ? Integer.parseInt(args[0]) : 64;
+		int reps = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+		Random rand = new Random(42);
+
+		System.out.println("size=" + sizeMB + "MB reps=" + reps);
+		System.out.printf("%-8s %12s %14s %14s %12s %12s %9s%n",
+				"column", "words", "stream(ms)", "bulk(ms)", "stream(MB/s)", "bulk(MB/s)", "speedup");
+		for (int seglen : SEGLENS) {
+			File file = ColumnLoadBenchmark.writeVLC(seglen, sizeMB, rand);
+			ColumnLoadBenchmark.run("VLC" + seglen, new VLCCompressedReader(), file, reps);
+			file.delete();
+		}
+		File file = ColumnLoadBenchmark.writeWAH64(sizeMB, rand);
+		ColumnLoadBenchmark.run("WAH64", new WAH64CompressedReader(), file, reps);
+		file.delete();
+	}
+
+	/**
+	 * Times both readers on one file
+	 */
+	private static void run(String name, CompressedBitmapReader reader, File file, int reps) throws IOException {
+		ActiveBitCollection streamed = null;
+		ActiveBitCollection bulk = null;
+		for (int i = 0; i < WARMUP; i++) {
+			streamed = ColumnLoadBenchmark.readStream(reader, file);
+			bulk = reader.readColumn(file);
+		}
+		long words = ColumnLoadBenchmark.sameWords(streamed, bulk);
+		if (words < 0) {
+			throw new RuntimeException("The readers disagree on " + name);
+		}
+
+		long streamNanos = Long.MAX_VALUE;
+		long bulkNanos = Long.MAX_VALUE;
+		for (int i = 0; i < reps; i++) {
+			long start = System.nanoTime();
+			ColumnLoadBenchmark.readStream(reader, file);
+			streamNanos = Math.min(streamNanos, System.nanoTime() - start);
+			start = System.nanoTime();
+			reader.readColumn(file);
+			bulkNanos = Math.min(bulkNanos, System.nanoTime() - start);
+		}
+		double mb = file.length() / (1024.0 * 1024.0);
+		System.out.printf("%-8s %12d %14.1f %14.1f %12.0f %12.0f %8.1fx%n", name, words,
+				streamNanos / 1e6, bulkNanos / 1e6, mb / (streamNanos / 1e9), mb / (bulkNanos / 1e9),
+				(double) streamNanos / bulkNanos);
+	}
+
+	/**
+	 * Loads a column with the word at a time reader
+	 */
+	private static ActiveBitCollection readStream(CompressedBitmapReader reader, File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return reader.readColumn(in);
+		}
+	}
+
+	/**
+	 * @return the number of words of both columns if they hand out the same words, -1 otherwise
+	 */
+	private static long sameWords(ActiveBitCollection a, ActiveBitCollection b) {
+		WordCursor itA = a.getWordCursor();
+		WordCursor itB = b.getWordCursor();
+		long words = 0;
+		while (itA.hasNext() && itB.hasNext()) {
+			if (itA.nextWord() != itB.nextWord()) {
+				return -1;
+			}
+			words++;
+		}
+		return (itA.hasNext() == itB.hasNext()) ? words : -1;
+	}
+
+	/**
+	 * Writes a VLC column file of random ints (any int is a valid packing of segments)
+	 */
+	private static File writeVLC(int seglen, int sizeMB, Random rand) throws IOException {
+		File file = File.createTempFile("vlc" + seglen + "_", ".dat");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeByte(seglen);
+			for (long i = 0; i < sizeMB * 1024L * 1024L / Integer.BYTES; i++) {
+				out.writeInt(rand.nextInt());
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Writes a WAH64 column file of random words
+	 */
+	private static File writeWAH64(int sizeMB, Random rand) throws IOException {
+		File file = File.createTempFile("wah64_", ".dat");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeByte(WAH64ActiveBitCol.SEGLEN);
+			for (long i = 0; i < sizeMB * 1024L * 1024L / Long.BYTES; i++) {
+				out.writeLong(rand.nextLong());
+			}
+		}
+		return file;
+	}
+}
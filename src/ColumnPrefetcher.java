@@ -0,0 +1,273 @@
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Loads columns into a ColumnCache in the background, ahead of the query
+ * that is going to use them.
+ *
+ * A query that knows the columns it will read (a range, or a batch of
+ * queries) opens a Pipeline over them, in the order it will use them.
+ * Taking column i from the pipeline starts background loads of columns
+ * i+1 .. i+window that are not in the cache yet, so reading and decoding
+ * those overlaps with whatever the query does with column i.  The loads go
+ * through the cache, which is single-flight: when the query gets to a
+ * column that is still loading, it waits for that load instead of starting
+ * its own.
+ *
+ * The loads run on window daemon threads shared by every pipeline, so at
+ * most window columns are loaded in the background at once, whatever the
+ * number of queries running.
+ *
+ * A pipeline pins the off-heap columns it loads or hands out (see
+ * OffHeapActiveBitCol.pin()), so that the cache evicting one of them does
+ * not free it under the query, and unpins them when it is closed.
+ */
+public class ColumnPrefetcher {
+
+	/** Columns loaded ahead of the one in use, by each pipeline */
+	private final int window;
+	/** Runs the background loads, null if prefetching is off */
+	private final ExecutorService pool;
+	/** Background loads started */
+	private final AtomicLong prefetches = new AtomicLong();
+
+	/**
+	 * @param window columns loaded ahead of the one in use (0 to turn prefetching off)
+	 */
+	public ColumnPrefetcher(int window) {
+		if (window < 0) {
+			throw new IllegalArgumentException("Invalid prefetch window: " + window);
+		}
+		this.window = window;
+		this.pool = (window == 0) ? null : Executors.newFixedThreadPool(window, r -> {
+			Thread t = new Thread(r, "column-prefetch");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Starts using columns in a known order
+	 *
+	 * @param cache the cache the columns are loaded into
+	 * @param loader reads a column from disk (returns null on failure)
+	 * @param colIDs the columns, in the order they are going to be taken
+	 * @return the pipeline
+	 */
+	public Pipeline pipeline(ColumnCache cache, IntFunction<ActiveBitCollection> loader, int[] colIDs) {
+		return new Pipeline(cache, loader, colIDs);
+	}
+
+	/**
+	 * Starts loading a column of a pipeline in the background, unless it is
+	 * in the cache already.  The loaded column is pinned on behalf of the
+	 * pipeline until the pipeline is closed.
+	 *
+	 * @param pipeline the pipeline that is going to take the column
+	 * @param colID the column
+	 */
+	private void prefetch(Pipeline pipeline, int colID) {
+		if (this.pool == null || pipeline.cache.contains(colID)) {
+			return;
+		}
+		this.prefetches.incrementAndGet();
+		this.pool.execute(() -> {
+			try {
+				ActiveBitCollection col = pipeline.cache.get(colID, pipeline.loader);
+				if (col != null && ColumnPrefetcher.pin(col)) {
+					pipeline.hold(colID, col);
+				}
+			} catch (RuntimeException e) {
+				// the query taking the column gets the failure from the cache
+			}
+		});
+	}
+
+	/**
+	 * Pins a column that is about to be scanned
+	 *
+	 * @param col the column
+	 * @return False if it is an off-heap column that has been (or is being) freed
+	 */
+	static boolean pin(ActiveBitCollection col) {
+		return !(col instanceof OffHeapActiveBitCol) || ((OffHeapActiveBitCol) col).pin();
+	}
+
+	/**
+	 * Drops a pin taken with pin()
+	 *
+	 * @param col the column
+	 */
+	static void unpin(ActiveBitCollection col) {
+		if (col instanceof OffHeapActiveBitCol) {
+			((OffHeapActiveBitCol) col).unpin();
+		}
+	}
+
+	/**
+	 * @return columns loaded ahead of the one in use, by each pipeline
+	 */
+	public int getWindow() {
+		return this.window;
+	}
+
+	/**
+	 * @return number of background loads started so far
+	 */
+	public long getPrefetches() {
+		return this.prefetches.get();
+	}
+
+	/**
+	 * Zeroes the count of background loads
+	 */
+	public void resetStats() {
+		this.prefetches.set(0);
+	}
+
+	/**
+	 * Hands out the columns of a query in a planned order, keeping the next
+	 * window of them loading.  Used by one thread (the background loads only
+	 * hand it the columns they pinned).
+	 *
+	 * The columns handed out stay pinned, and so safe to scan, until they are
+	 * released or the pipeline is closed.
+	 */
+	public class Pipeline implements AutoCloseable {
+		private final ColumnCache cache;
+		private final IntFunction<ActiveBitCollection> loader;
+		private final int[] colIDs;
+		/** Position of each column in the planned order (its first one) */
+		private final HashMap<Integer, Integer> positions = new HashMap<>();
+		/** Columns pinned on behalf of the pipeline, guarded by this */
+		private final HashMap<Integer, ActiveBitCollection> pinned = new HashMap<>();
+		/** Set once the pipeline is closed, guarded by this */
+		private boolean closed = false;
+		/** Columns before this one in the planned order have been prefetched (or taken) */
+		private int issued = 0;
+
+		private Pipeline(ColumnCache cache, IntFunction<ActiveBitCollection> loader, int[] colIDs) {
+			this.cache = cache;
+			this.loader = loader;
+			this.colIDs = colIDs;
+			for (int i = colIDs.length - 1; i >= 0; i--) {
+				this.positions.put(colIDs[i], i);
+			}
+			this.advance(-1);
+		}
+
+		/**
+		 * Takes a column, waiting for it if it is still loading (or loading it
+		 * if it was not prefetched), and prefetches the columns following it
+		 * in the planned order
+		 *
+		 * @param colID the column
+		 * @return the column, or null if it could not be loaded
+		 */
+		public ActiveBitCollection get(int colID) {
+			Integer position = this.positions.get(colID);
+			if (position != null) {
+				this.advance(position);
+			}
+			synchronized (this) {
+				ActiveBitCollection col = this.pinned.get(colID);
+				if (col != null) {
+					return col;
+				}
+			}
+			while (true) {
+				ActiveBitCollection col = this.cache.get(colID, this.loader);
+				if (col == null) {
+					return null;
+				}
+				if (ColumnPrefetcher.pin(col)) {
+					return this.hold(colID, col);
+				}
+				// evicted and freed since the cache handed it out, the next get loads it again
+			}
+		}
+
+		/**
+		 * Takes every column, in the planned order
+		 *
+		 * @return the columns
+		 */
+		public ActiveBitCollection[] getAll() {
+			ActiveBitCollection[] cols = new ActiveBitCollection[this.colIDs.length];
+			for (int i = 0; i < cols.length; i++) {
+				cols[i] = this.get(this.colIDs[i]);
+			}
+			return cols;
+		}
+
+		/**
+		 * Unpins a column the query is done with.  It is taken again (and
+		 * pinned again) if get() is called for it later.
+		 *
+		 * @param colID the column
+		 */
+		public void release(int colID) {
+			ActiveBitCollection col;
+			synchronized (this) {
+				col = this.pinned.remove(colID);
+			}
+			if (col != null) {
+				ColumnPrefetcher.unpin(col);
+			}
+		}
+
+		/**
+		 * Unpins every column the pipeline holds.  The columns loading in the
+		 * background are unpinned as soon as they are loaded.
+		 */
+		@Override
+		public void close() {
+			ActiveBitCollection[] cols;
+			synchronized (this) {
+				this.closed = true;
+				cols = this.pinned.values().toArray(new ActiveBitCollection[0]);
+				this.pinned.clear();
+			}
+			for (ActiveBitCollection col : cols) {
+				ColumnPrefetcher.unpin(col);
+			}
+		}
+
+		/**
+		 * Keeps a column pinned on behalf of the pipeline, holding a single
+		 * pin per column
+		 *
+		 * @param colID the column
+		 * @param col the column, already pinned by the caller
+		 * @return the column held for colID
+		 */
+		private ActiveBitCollection hold(int colID, ActiveBitCollection col) {
+			ActiveBitCollection held;
+			synchronized (this) {
+				held = this.closed ? null : this.pinned.putIfAbsent(colID, col);
+				if (!this.closed && held == null) {
+					return col;
+				}
+			}
+			// closed already, or held under an earlier pin
+			ColumnPrefetcher.unpin(col);
+			return (held != null) ? held : col;
+		}
+
+		/**
+		 * Prefetches up to window columns past the one at position
+		 */
+		private void advance(int position) {
+			int end = (int) Math.min(this.colIDs.length, (long) position + 1 + ColumnPrefetcher.this.window);
+			// the column taken now is not prefetched, the caller loads it if it is not loading yet
+			this.issued = Math.max(this.issued, position + 1);
+			for (; this.issued < end; this.issued++) {
+				ColumnPrefetcher.this.prefetch(this, this.colIDs[this.issued]);
+
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+import java.util.Arrays;
+
+/**
+ * Sparse index of where the runs of a compressed column start, so that a
+ * merge can jump a column forward by any number of segments without
+ * decoding every word in between.
+ *
+ * Every RUN_INDEX_STRIDE words, the index records the segment at which that
+ * word starts.  Seeking to a segment is a binary search for the last
+ * checkpoint at or before it, a jump of the cursor to that word, and a walk
+ * of at most RUN_INDEX_STRIDE words.  The index also records whether the
+ * whole column is a single value (all zeros or all ones), so that a merge
+ * that such a column decides can end at once.
+ *
+ * The columns loaded from disk and the range results put in the cache (the
+ * vectors that are merged again and again) are given an index, which they
+ * keep for as long as they live.  The index is only read from its column
+ * the first time a merge uses it to skip through the column, so loading a
+ * column costs no extra pass over it, and a column that is never skipped
+ * through is never scanned.
+ */
+public class ColumnRunIndex {
+
+	/** Value of getSaturation() for a column holding both zeros and ones */
+	public static final byte NOT_SATURATED = -1;
+
+	/** The column indexed */
+	private final ActiveBitCollection col;
+	/** Words between two checkpoints */
+	private final int stride;
+	/** Segment at which word i * stride starts, null until the column is scanned */
+	private volatile long[] starts;
+	/** Segments held by the column (set before starts) */
+	private long numSegments;
+	/** 0 or 1 if every bit of the column has that value, NOT_SATURATED otherwise (set before starts) */
+	private byte saturation;
+
+	private ColumnRunIndex(ActiveBitCollection col, int stride) {
+		this.col = col;
+		this.stride = stride;
+	}
+
+	/**
+	 * Gives a column an index, unless it has one or run indexes are turned
+	 * off (RUN_INDEX_STRIDE is 0).  The column is not read until the index
+	 * is first used.
+	 *
+	 * @param col a compressed column
+	 * @return the index of the column, or null if run indexes are turned off
+	 */
+	public static ColumnRunIndex attach(ActiveBitCollection col) {
+		if (RunConfig.RUN_INDEX_STRIDE <= 0) {
+			return null;
+		}
+		ColumnRunIndex index = col.getRunIndex();
+		if (index == null) {
+			index = new ColumnRunIndex(col, RunConfig.RUN_INDEX_STRIDE);
+			col.setRunIndex(index);
+		}
+		return index;
+	}
+
+	/**
+	 * @param col a compressed column
+	 * @return the index of the column, or null if it has none
+	 */
+	public static ColumnRunIndex get(ActiveBitCollection col) {
+		return (col == null) ? null : col.getRunIndex();
+	}
+
+	/**
+	 * Tells whether a vector holds a single value.  The index answers for
+	 * indexed vectors; other vectors are only looked at if they are a couple
+	 * of words long (a saturated vector is a single fill), so the check never
+	 * scans a long vector.
+	 *
+	 * @param col a compressed vector
+	 * @return 0 or 1 if every bit of the vector has that value, NOT_SATURATED otherwise (or if unknown)
+	 */
+	public static byte getSaturation(ActiveBitCollection col) {
+		ColumnRunIndex index = ColumnRunIndex.get(col);
+		if (index != null) {
+			return index.getSaturation();
+		}
+		int seglen = col.getSeglen();
+		WordCursor it = col.getWordCursor();
+		long literalMask = (1L << seglen) - 1;
+		byte value = NOT_SATURATED;
+		for (int i = 0; i < 2 && it.hasNext(); i++) {
+			long word = it.nextWord();
+			byte v;
+			if ((word & (1L << seglen)) != 0) {
+				v = (byte) (((word & (1L << (seglen - 1))) != 0) ? 1 : 0);
+			} else if ((word & literalMask) == 0) {
+				v = 0;
+			} else if ((word & literalMask) == literalMask) {
+				v = 1;
+			} else {
+				return NOT_SATURATED;
+			}
+			if (value != NOT_SATURATED && v != value) {
+				return NOT_SATURATED;
+			}
+			value = v;
+		}
+		return it.hasNext() ? NOT_SATURATED : value;
+	}
+
+	/**
+	 * @return number of segments held by the column
+	 */
+	public long getNumberOfSegments() {
+		this.scanned();
+		return this.numSegments;
+	}
+
+	/**
+	 * @return 0 or 1 if every bit of the column has that value, NOT_SATURATED otherwise
+	 */
+	public byte getSaturation() {
+		this.scanned();
+		return this.saturation;
+	}
+
+	/**
+	 * @param segment a segment of the column
+	 * @return the last checkpoint starting at or before that segment
+	 */
+	public int checkpoint(long segment) {
+		long[] starts = this.scanned();
+		int i = Arrays.binarySearch(starts, segment);
+		if (i < 0) {
+			return Math.max(0, -i - 2);
+		}
+		// several words may start at the same segment (empty fills), take the last one
+		while (i + 1 < starts.length && starts[i + 1] == segment) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @param checkpoint a checkpoint
+	 * @return index (as counted by the column's cursor) of the word at that checkpoint
+	 */
+	public int getWord(int checkpoint) {
+		return checkpoint * this.stride;
+	}
+
+	/**
+	 * @param checkpoint a checkpoint
+	 * @return the segment at which the word at that checkpoint starts
+	 */
+	public long getStart(int checkpoint) {
+		return this.scanned()[checkpoint];
+	}
+
+	/**
+	 * Scans the column the first time the index is used (once, even when
+	 * several merges use it at once)
+	 *
+	 * @return the checkpoints
+	 */
+	private long[] scanned() {
+		long[] starts = this.starts;
+		if (starts == null) {
+			synchronized (this) {
+				if (this.starts == null) {
+					this.scan();
+				}
+				starts = this.starts;
+			}
+		}
+		return starts;
+	}
+
+	/**
+	 * Reads the column and records its checkpoints
+	 */
+	private void scan() {
+		ActiveBitCollection col = this.col;
+		int stride = this.stride;
+		int seglen = col.getSeglen();
+		long fillFlag = 1L << seglen;
+		long fillValueBit = 1L << (seglen - 1);
+		long runLenMask = fillValueBit - 1;
+		long literalMask = fillFlag - 1;
+
+		long[] starts = new long[16];
+		int numStarts = 0;
+		long segment = 0;
+		long words = 0;
+		boolean zeros = true;
+		boolean ones = true;
+		WordCursor it = col.getWordCursor();
+		while (it.hasNext()) {
+			long word = it.nextWord();
+			if (words % stride == 0) {
+				if (numStarts == starts.length) {
+					starts = Arrays.copyOf(starts, numStarts * 2);
+				}
+				starts[numStarts++] = segment;
+			}
+			words++;
+			if ((word & fillFlag) != 0) {
+				long run = word & runLenMask;
+				if (run > 0) {
+					boolean one = (word & fillValueBit) != 0;
+					zeros &= !one;
+					ones &= one;
+				}
+				segment += run;
+			} else {
+				long literal = word & literalMask;
+				zeros &= literal == 0;
+				ones &= literal == literalMask;
+				segment++;
+			}
+		}
+		this.numSegments = segment;
+		this.saturation = (segment == 0) ? NOT_SATURATED
+				: zeros ? 0 : ones ? (byte) 1 : NOT_SATURATED;
+		this.starts = Arrays.copyOf(starts, numStarts);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Statistics of a compressed column, as used by the QueryPlanner to order
+ * the operands of a query and to pick its merge kernel.
+ *
+ * They are gathered in one pass over the words of the column, without
+ * decompressing it.  The number of rows is that of the column file header
+ * when the column has one, and the number of segments times the segment
+ * length (padding included) otherwise.
+ */
+public class ColumnStats {
+	/** Segment length of the column */
+	private final int seglen;
+	/** Words handed out by the column's cursor (one segment each) */
+	private final long numWords;
+	/** How many of those words are fills */
+	private final long numFills;
+	/** Number of rows (bits) held by the column */
+	private final long numRows;
+	/** Number of set bits */
+	private final long cardinality;
+
+	/**
+	 * @param seglen segment length of the column
+	 * @param numWords words of the column
+	 * @param numFills fill words among them
+	 * @param numRows rows held by the column
+	 * @param cardinality set bits of the column
+	 */
+	public ColumnStats(int seglen, long numWords, long numFills, long numRows, long cardinality) {
+		this.seglen = seglen;
+		this.numWords = numWords;
+		this.numFills = numFills;
+		this.numRows = numRows;
+		this.cardinality = cardinality;
+	}
+
+	/**
+	 * Scans a column for its statistics
+	 *
+	 * @param col a compressed column
+	 * @return the statistics of the column
+	 */
+	public static ColumnStats of(ActiveBitCollection col) {
+		int seglen = col.getSeglen();
+		long fillFlag = 1L << seglen;
+		long fillValueBit = 1L << (seglen - 1);
+		long runLenMask = fillValueBit - 1;
+		long literalMask = fillFlag - 1;
+
+		long words = 0;
+		long fills = 0;
+		long segments = 0;
+		long count = 0;
+		WordCursor it = col.getWordCursor();
+		while (it.hasNext()) {
+			long word = it.nextWord();
+			words++;
+			if ((word & fillFlag) != 0) {
+				long run = word & runLenMask;
+				fills++;
+				segments += run;
+				if ((word & fillValueBit) != 0) {
+					count += run * seglen;
+				}
+			} else {
+				segments++;
+				count += Long.bitCount(word & literalMask);
+			}
+		}
+		long rows = (col.getNumberOfRows() >= 0) ? col.getNumberOfRows() : segments * seglen;
+		return new ColumnStats(seglen, words, fills, rows, count);
+	}
+
+	/**
+	 * @return segment length of the column
+	 */
+	public int getSeglen() {
+		return this.seglen;
+	}
+
+	/**
+	 * @return number of compressed words a merge reads to scan the column
+	 */
+	public long getNumberOfWords() {
+		return this.numWords;
+	}
+
+	/**
+	 * @return fraction of the words that are fills
+	 */
+	public double getFillRatio() {
+		return (this.numWords == 0) ? 0 : (double) this.numFills / this.numWords;
+	}
+
+	/**
+	 * @return number of rows held by the column
+	 */
+	public long getNumberOfRows() {
+		return this.numRows;
+	}
+
+	/**
+	 * @return number of set bits
+	 */
+	public long getCardinality() {
+		return this.cardinality;
+	}
+
+	/**
+	 * @return fraction of the rows that are set
+	 */
+	public double getDensity() {
+		return (this.numRows == 0) ? 0 : (double) this.cardinality / this.numRows;
+	}
+
+	@Override
+	public String toString() {
+		return "words=" + this.numWords + " fillRatio=" + String.format("%.3f", this.getFillRatio()) +
+				" rows=" + this.numRows + " cardinality=" + this.cardinality;
+	}
+}
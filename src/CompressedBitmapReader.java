@@ -1,4 +1,9 @@
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface CompressedBitmapReader {
 	/**
@@ -10,4 +15,36 @@ public interface CompressedBitmapReader {
 	 * */
 	ActiveBitCollection readColumn(DataInputStream columnIn);
 
+	/**
+	 * Reads in one column file.  Readers that can decode a whole file in
+	 * bulk (knowing its length up front) override this; by default the
+	 * file is streamed through readColumn(DataInputStream).
+	 *
+	 * @param file the compressed column file
+	 * @return The ActiveBitCollection representation of the compressed column
+	 * @throws IOException if the file cannot be read
+	 */
+	default ActiveBitCollection readColumn(File file) throws IOException {
+		try (DataInputStream columnIn = new DataInputStream(new FileInputStream(file))) {
+			return this.readColumn(columnIn);
+		}
+	}
+
+	/**
+	 * Reads in one column from memory, e.g. from a mapped PackedIndex.  The
+	 * buffer holds what a column file holds, from its first byte to its
+	 * last.  By default the bytes are streamed through
+	 * readColumn(DataInputStream).
+	 *
+	 * @param column the column, from position 0 to the limit of the buffer
+	 * @param name name of the column
+	 * @return The ActiveBitCollection representation of the compressed column
+	 * @throws IOException if the column is not valid
+	 */
+	default ActiveBitCollection readColumn(ByteBuffer column, String name) throws IOException {
+		byte[] bytes = new byte[column.limit()];
+		column.duplicate().position(0).get(bytes);
+		return this.readColumn(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
 }
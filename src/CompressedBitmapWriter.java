@@ -0,0 +1,15 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public interface CompressedBitmapWriter {
+	/**
+	 * Writes one compressed column (usually to a .dat file) in the layout
+	 * expected by the matching CompressedBitmapReader
+	 *
+	 * @param column The column to write
+	 * @param columnOut The output stream to the compressed file on hard disk
+	 * @throws IOException if the column could not be written
+	 * */
+	void writeColumn(ActiveBitCollection column, DataOutputStream columnOut) throws IOException;
+
+}
@@ -0,0 +1,485 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses the raw bitmap (RunConfig.CMP_FULLPATH_TO_RAW_FILE) into the
+ * column files of the compressed index (RunConfig.CMP_FULLPATH_TO_COMPRESSED_INDEX),
+ * with the encoding of RunConfig.ENCODING.
+ *
+ * The raw file holds one row per line, a '0' or '1' per column (after an
+ * optional row id and comma).  It is read LOAD_BUFFER_BYTES at a time and
+ * never held whole: the rows of a block are turned into bits 8 characters
+ * at a time, and every 64 rows the 64x64 bit tiles they make are transposed,
+ * so each column gets its next 64 rows as a single long.  Those go straight
+ * to a ColumnEncoder per column, which compresses them and appends them to
+ * the column file as its buffer fills, so the memory used is
+ * O(columns x CMP_BUFFER_BYTES) whatever the number of rows.
+ *
+ * With CMP_PARALLELISM threads, the rows are cut into chunks of
+ * CMP_CHUNK_ROWS (see compressParallel) that are compressed at the same
+ * time, then appended to the columns in order, the columns shared out
+ * between the threads.
+ *
+ * Usage: java CompressionMain [rawFile] [indexDir] [threads]
+ */
+public class CompressionMain {
+
+	/** Rows (and columns) of a tile transposed at once */
+	private static final int TILE = 64;
+	/** The low bit of each of 8 bytes */
+	private static final long LOW_BITS = 0x0101010101010101L;
+	/** 8 characters, all '0' */
+	private static final long ZEROS = 0x3030303030303030L;
+	/** Gathers the low bits of 8 bytes into the top byte, the first byte in the most significant bit */
+	private static final long GATHER = 0x0102040810204080L;
+
+	public static void main(String[] args) {
+		File raw = new File((args.length > 0) ? args[0] : RunConfig.CMP_FULLPATH_TO_RAW_FILE);
+		File dir = new File((args.length > 1) ? args[1] : RunConfig.CMP_FULLPATH_TO_COMPRESSED_INDEX);
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : RunConfig.CMP_PARALLELISM;
+		try {
+			int seglen = CompressionMain.segmentLength(RunConfig.ENCODING);
+			long start = System.nanoTime();
+			ColumnHeader[] headers = (threads > 1) ? CompressionMain.compressParallel(raw, dir, seglen, threads)
+					: CompressionMain.compress(raw, dir, seglen);
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			long bytes = 0;
+			for (ColumnHeader header : headers) {
+				bytes += ColumnHeader.BYTES + header.getNumberOfWords() * header.getWordBytes();
+			}
+			long rows = (headers.length == 0) ? 0 : headers[0].getNumberOfRows();
+			System.out.printf("compressed %d rows x %d columns (%s, seglen %d) into %s: %d bytes in %.2f s " +
+					"(%.1f MB/s raw, %d threads)%n", rows, headers.length, RunConfig.ENCODING, seglen, dir, bytes, seconds,
+					raw.length() / 1e6 / Math.max(seconds, 1e-9), Math.max(1, threads));
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param encoding an encoding
+	 * @return the segment length columns with that encoding are compressed with
+	 * @throws IllegalArgumentException if columns cannot be written with that encoding
+	 */
+	public static int segmentLength(RunConfig.BitmapEncoding encoding) {
+		switch (encoding) {
+			case WAH32:
+				return 31;
+			case WAH64:
+				return WAH64ActiveBitCol.SEGLEN;
+			case VLC:
+				return RunConfig.CMP_VLC_SEGMENT_LENGTH;
+			default:
+				throw new IllegalArgumentException("Cannot compress columns with " + encoding);
+		}
+	}
+
+	/**
+	 * Compresses a raw bitmap into column files
+	 *
+	 * @param raw the raw bitmap file
+	 * @param dir directory of the column files (created if needed, files replaced)
+	 * @param seglen segment length of the columns
+	 * @return the header of each column written, by column ID
+	 * @throws IOException if the raw file cannot be read or is not valid, or a column cannot be written
+	 */
+	public static ColumnHeader[] compress(File raw, File dir, int seglen) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		ColumnEncoder[] encoders = null;
+		int numCols = -1;
+		// tiles[g * TILE + r] holds the columns g*TILE .. g*TILE+63 of row r of the tile, most significant first
+		long[] tiles = null;
+		int tileRows = 0;
+		long line = 0;
+
+		try (FileChannel in = FileChannel.open(raw.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer block = ByteBuffer.allocate(RunConfig.LOAD_BUFFER_BYTES);
+			boolean eof = false;
+			while (!eof) {
+				VLCCompressedReader.readFully(in, block);
+				eof = block.hasRemaining();
+				block.flip();
+				int pos = 0;
+				int end = block.limit();
+				while (pos < end) {
+					int nl = CompressionMain.indexOf(block, (byte) '\n', pos, end);
+					if (nl < 0 && !eof) {
+						break;
+					}
+					int lineEnd = (nl < 0) ? end : nl;
+					line++;
+					if (lineEnd > pos && block.get(lineEnd - 1) == '\r') {
+						lineEnd--;
+					}
+					if (lineEnd > pos) {
+						if (numCols < 0) {
+							numCols = lineEnd - CompressionMain.rowStart(block, pos, lineEnd);
+							encoders = new ColumnEncoder[numCols];
+							for (int c = 0; c < numCols; c++) {
+								encoders[c] = new ColumnEncoder(CompressionMain.columnFile(dir, c), seglen,
+										RunConfig.CMP_BUFFER_BYTES);
+							}
+							tiles = new long[(numCols + TILE - 1) / TILE * TILE];
+						}
+						int at = lineEnd - numCols;
+						if (at < pos || (at > pos && block.get(at - 1) != ',')) {
+							throw new IOException("Line " + line + " of " + raw + " does not have " + numCols +
+									" columns");
+						}
+						CompressionMain.parseRow(block, at, numCols, tiles, tileRows, line);
+						if (++tileRows == TILE) {
+							CompressionMain.drain(tiles, tileRows, encoders);
+							tileRows = 0;
+						}
+					}
+					pos = (nl < 0) ? end : nl + 1;
+				}
+				if (pos == 0 && end == block.capacity()) {
+					throw new IOException("Line " + (line + 1) + " of " + raw + " is longer than " + end + " bytes");
+				}
+				block.position(pos);
+				block.compact();
+			}
+			if (encoders == null) {
+				return new ColumnHeader[0];
+			}
+			if (tileRows > 0) {
+				CompressionMain.drain(tiles, tileRows, encoders);
+			}
+			ColumnHeader[] headers = new ColumnHeader[numCols];
+			for (int c = 0; c < numCols; c++) {
+				headers[c] = encoders[c].finish();
+			}
+			return headers;
+		} finally {
+			CompressionMain.close(encoders);
+		}
+	}
+
+	/**
+	 * Compresses a raw bitmap into column files on several threads.
+	 *
+	 * The rows are cut into chunks of CMP_CHUNK_ROWS, rounded up to 64
+	 * segments so every chunk but the last holds whole tiles and whole
+	 * segments.  The threads compress one chunk each, read with positional
+	 * reads of the raw file, into encoders that keep the words of each
+	 * column of the chunk in memory.  Then each thread takes a shard of the
+	 * columns and appends the chunks to them, in the order of the rows, each
+	 * column with its own encoder and file; the fills that meet at a chunk
+	 * boundary are merged, so the files are the same as those of compress().
+	 * At most one chunk per thread is held at a time.
+	 *
+	 * Chunks are found from the length of the first line, so every line must
+	 * have that length; raw files where they do not (e.g. row ids of varying
+	 * width) are compressed by compress() instead.
+	 *
+	 * @param raw the raw bitmap file
+	 * @param dir directory of the column files (created if needed, files replaced)
+	 * @param seglen segment length of the columns
+	 * @param threads number of threads
+	 * @return the header of each column written, by column ID
+	 * @throws IOException if the raw file cannot be read or is not valid, or a column cannot be written
+	 */
+	public static ColumnHeader[] compressParallel(File raw, File dir, int seglen, int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads: " + threads);
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try (FileChannel in = FileChannel.open(raw.toPath(), StandardOpenOption.READ)) {
+			// every line is as long as the first one, columns at the same place
+			ByteBuffer head = ByteBuffer.allocate(RunConfig.LOAD_BUFFER_BYTES);
+			VLCCompressedReader.readFully(in, head);
+			head.flip();
+			int nl = CompressionMain.indexOf(head, (byte) '\n', 0, head.limit());
+			if (nl < 0 || in.size() % (nl + 1) != 0) {
+				return CompressionMain.compress(raw, dir, seglen);
+			}
+			int lineBytes = nl + 1;
+			int lineEnd = (nl > 0 && head.get(nl - 1) == '\r') ? nl - 1 : nl;
+			int colStart = CompressionMain.rowStart(head, 0, lineEnd);
+			int numCols = lineEnd - colStart;
+			if (numCols == 0) {
+				return CompressionMain.compress(raw, dir, seglen);
+			}
+			long rows = in.size() / lineBytes;
+			long align = (long) TILE * seglen;
+			long chunkRows = Math.max(1, (RunConfig.CMP_CHUNK_ROWS + align - 1) / align) * align;
+			long numChunks = (rows + chunkRows - 1) / chunkRows;
+
+			ColumnEncoder[] encoders = new ColumnEncoder[numCols];
+			for (int c = 0; c < numCols; c++) {
+				encoders[c] = new ColumnEncoder(CompressionMain.columnFile(dir, c), seglen, RunConfig.CMP_BUFFER_BYTES);
+			}
+			try {
+				for (long wave = 0; wave < numChunks; wave += threads) {
+					List<Callable<ColumnEncoder[]>> compressions = new ArrayList<>();
+					for (long k = wave; k < Math.min(numChunks, wave + threads); k++) {
+						long first = k * chunkRows;
+						long n = Math.min(chunkRows, rows - first);
+						compressions.add(() -> CompressionMain.compressChunk(in, raw, first, n, lineBytes, colStart,
+								numCols, seglen));
+					}
+					List<ColumnEncoder[]> chunks = CompressionMain.invokeAll(pool, compressions);
+
+					List<Callable<Void>> appends = new ArrayList<>();
+					for (int t = 0; t < threads; t++) {
+						int shard = t;
+						appends.add(() -> {
+							for (int c = shard; c < numCols; c += threads) {
+								for (ColumnEncoder[] chunk : chunks) {
+									encoders[c].append(chunk[c]);
+								}
+							}
+							return null;
+						});
+					}
+					CompressionMain.invokeAll(pool, appends);
+				}
+
+				ColumnHeader[] headers = new ColumnHeader[numCols];
+				List<Callable<Void>> finishes = new ArrayList<>();
+				for (int t = 0; t < threads; t++) {
+					int shard = t;
+					finishes.add(() -> {
+						for (int c = shard; c < numCols; c += threads) {
+							headers[c] = encoders[c].finish();
+						}
+						return null;
+					});
+				}
+				CompressionMain.invokeAll(pool, finishes);
+				return headers;
+			} finally {
+				CompressionMain.close(encoders);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Closes the column files left open when compressing stops on an error
+	 * (the encoders finished have closed theirs already)
+	 *
+	 * @param encoders the encoder of each column, null if none were created
+	 */
+	private static void close(ColumnEncoder[] encoders) {
+		if (encoders == null) {
+			return;
+		}
+		for (ColumnEncoder encoder : encoders) {
+			if (encoder != null) {
+				try {
+					encoder.close();
+				} catch (IOException e) {
+					// the error that stopped compressing is the one reported
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compresses a chunk of the rows of a raw bitmap whose lines all have the same length
+	 *
+	 * @param in the raw bitmap
+	 * @param raw the raw bitmap file (for messages)
+	 * @param firstRow first row of the chunk
+	 * @param numRows rows in the chunk
+	 * @param lineBytes length of every line
+	 * @param colStart where the columns start in a line
+	 * @param numCols number of columns
+	 * @param seglen segment length of the columns
+	 * @return the encoder of each column, holding the rows of the chunk
+	 * @throws IOException if the raw file cannot be read or is not valid
+	 */
+	private static ColumnEncoder[] compressChunk(FileChannel in, File raw, long firstRow, long numRows, int lineBytes,
+			int colStart, int numCols, int seglen) throws IOException {
+		ColumnEncoder[] encoders = new ColumnEncoder[numCols];
+		for (int c = 0; c < numCols; c++) {
+			encoders[c] = new ColumnEncoder(seglen);
+		}
+		long[] tiles = new long[(numCols + TILE - 1) / TILE * TILE];
+		int tileRows = 0;
+		int blockRows = Math.max(1, RunConfig.LOAD_BUFFER_BYTES / lineBytes);
+		ByteBuffer block = ByteBuffer.allocate(blockRows * lineBytes);
+		for (long row = 0; row < numRows; ) {
+			int n = (int) Math.min(blockRows, numRows - row);
+			block.clear().limit(n * lineBytes);
+			long offset = (firstRow + row) * lineBytes;
+			while (block.hasRemaining()) {
+				if (in.read(block, offset + block.position()) < 0) {
+					throw new IOException("Truncated raw file: " + raw);
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				long line = firstRow + row + i + 1;
+				int start = i * lineBytes;
+				int at = start + colStart;
+				byte eol = block.get(at + numCols);
+				if (block.get(start + lineBytes - 1) != '\n' || (eol != '\n' && eol != '\r') ||
+						(colStart > 0 && block.get(at - 1) != ',')) {
+					throw new IOException("Line " + line + " of " + raw + " is not laid out like the first one");
+				}
+				CompressionMain.parseRow(block, at, numCols, tiles, tileRows, line);
+				if (++tileRows == TILE) {
+					CompressionMain.drain(tiles, tileRows, encoders);
+					tileRows = 0;
+				}
+			}
+			row += n;
+		}
+		if (tileRows > 0) {
+			CompressionMain.drain(tiles, tileRows, encoders);
+		}
+		return encoders;
+	}
+
+	/**
+	 * Runs tasks on a pool and waits for all of them
+	 *
+	 * @return the results of the tasks, in order
+	 * @throws IOException if a task failed with one
+	 */
+	private static <T> List<T> invokeAll(ExecutorService pool, List<Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<>(tasks.size());
+		try {
+			for (Future<T> future : pool.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * @return the index of the first b in the buffer between from and to, or -1
+	 */
+	private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buffer.get(i) == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return where the columns of a line start, after the row id and comma if it has one
+	 */
+	private static int rowStart(ByteBuffer buffer, int from, int to) {
+		for (int i = to - 1; i >= from; i--) {
+			if (buffer.get(i) == ',') {
+				return i + 1;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * Turns the characters of a row into bits, 64 columns to a long of the tiles
+	 *
+	 * @param buffer the raw bytes
+	 * @param at where the row starts
+	 * @param numCols number of columns
+	 * @param tiles the tiles being filled
+	 * @param r row of the tiles the row goes to
+	 * @param line line of the raw file (for the message)
+	 * @throws IOException if the row holds something other than '0' and '1'
+	 */
+	private static void parseRow(ByteBuffer buffer, int at, int numCols, long[] tiles, int r, long line)
+			throws IOException {
+		for (int g = 0; g * TILE < numCols; g++) {
+			int from = at + g * TILE;
+			int n = Math.min(TILE, numCols - g * TILE);
+			long bits = 0;
+			int i = 0;
+			for (; i + Long.BYTES <= n; i += Long.BYTES) {
+				long chars = buffer.getLong(from + i);
+				if ((chars & ~LOW_BITS) != ZEROS) {
+					throw new IOException("Line " + line + " is not a row of 0s and 1s");
+				}
+				bits = (bits << Long.BYTES) | (((chars & LOW_BITS) * GATHER) >>> 56);
+			}
+			for (; i < n; i++) {
+				int bit = buffer.get(from + i) - '0';
+				if ((bit & ~1) != 0) {
+					throw new IOException("Line " + line + " is not a row of 0s and 1s");
+				}
+				bits = (bits << 1) | bit;
+			}
+			tiles[g * TILE + r] = (n == TILE) ? bits : bits << (TILE - n);
+		}
+	}
+
+	/**
+	 * Transposes the tiles and hands each column its rows
+	 *
+	 * @param tiles the tiles, rows first
+	 * @param rows rows held by the tiles (the rest are ignored)
+	 * @param encoders the encoder of each column
+	 */
+	private static void drain(long[] tiles, int rows, ColumnEncoder[] encoders) throws IOException {
+		for (int off = 0; off < tiles.length; off += TILE) {
+			if (rows < TILE) {
+				Arrays.fill(tiles, off + rows, off + TILE, 0);
+			}
+			CompressionMain.transpose(tiles, off);
+			for (int j = 0; j < TILE && off + j < encoders.length; j++) {
+				encoders[off + j].appendBits(tiles[off + j], rows);
+			}
+		}
+	}
+
+	/**
+	 * Transposes a 64x64 bit matrix in place (bit 63-j of word i moves to
+	 * bit 63-i of word j), swapping ever smaller blocks: 32x32, 16x16 ... 1x1
+	 *
+	 * @param a the matrix, one row per word
+	 * @param off index of the first row
+	 */
+	static void transpose(long[] a, int off) {
+		long m = 0x00000000FFFFFFFFL;
+		for (int j = 32; j != 0; j >>>= 1, m ^= m << j) {
+			for (int k = 0; k < TILE; k = (k + j + 1) & ~j) {
+				long t = (a[off + k] ^ (a[off + k + j] >>> j)) & m;
+				a[off + k] ^= t;
+				a[off + k + j] ^= t << j;
+			}
+		}
+	}
+
+	/**
+	 * @return the column file of a column in a directory
+	 */
+	private static File columnFile(File dir, int colID) {
+		return new File(dir, RunConfig.CMP_COMPRESSED_INDEX_FILE_PREFIX + colID +
+				RunConfig.CMP_COMPRESSED_INDEX_FILE_EXTENSION);
+	}
+}
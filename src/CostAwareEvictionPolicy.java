@@ -0,0 +1,89 @@
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * GreedyDual-Size eviction: every column is worth the time it took to load
+ * it divided by the bytes it holds, so small columns that are slow to reload
+ * are kept over large ones that are cheap to reload.  A column's value is
+ * renewed each time it is used, on top of an inflation value that rises to
+ * the value of each evicted column, so columns that are not used age out.
+ */
+public class CostAwareEvictionPolicy implements ColumnEvictionPolicy {
+
+	/**
+	 * Value of a held column
+	 */
+	private static class Entry implements Comparable<Entry> {
+		final int colID;
+		/** reload cost per byte */
+		final double costPerByte;
+		double priority;
+
+		Entry(int colID, double costPerByte) {
+			this.colID = colID;
+			this.costPerByte = costPerByte;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if (this.priority != other.priority) {
+				return Double.compare(this.priority, other.priority);
+			}
+			return Integer.compare(this.colID, other.colID);
+		}
+	}
+
+	/** The columns held */
+	private final HashMap<Integer, Entry> entries = new HashMap<>();
+	/** The columns held, lowest value first */
+	private final TreeSet<Entry> order = new TreeSet<>();
+	/** Value of the last column evicted */
+	private double inflation = 0;
+
+	@Override
+	public void admitted(int colID, long bytes, long loadNanos) {
+		this.removed(colID);
+		Entry e = new Entry(colID, (double) Math.max(1, loadNanos) / Math.max(1, bytes));
+		e.priority = this.inflation + e.costPerByte;
+		this.entries.put(colID, e);
+		this.order.add(e);
+	}
+
+	@Override
+	public void accessed(int colID) {
+		Entry e = this.entries.get(colID);
+		if (e == null) {
+			return;
+		}
+		this.order.remove(e);
+		e.priority = this.inflation + e.costPerByte;
+		this.order.add(e);
+	}
+
+	@Override
+	public void removed(int colID) {
+		Entry e = this.entries.remove(colID);
+		if (e != null) {
+			this.order.remove(e);
+		}
+	}
+
+	@Override
+	public int victim(int exclude) {
+		for (Entry e : this.order) {
+			if (e.colID != exclude) {
+				// everything left is aged relative to the evicted column
+				this.inflation = e.priority;
+				return e.colID;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void clear() {
+		this.entries.clear();
+		this.order.clear();
+		this.inflation = 0;
+	}
+}
@@ -0,0 +1,399 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Checks the compressed columns and the query kernels against the raw data
+ * they come from, decoded into plain BitSets.
+ *
+ * A random raw bitmap is written (columns all zeros, all ones, sparse,
+ * dense, made of long runs, ...), and compressed with CompressionMain for
+ * every segment length: the VLC ones (7, 14 and 28, the VAL block lengths),
+ * WAH32 and WAH64.  The columns are then loaded in every ColumnStorage mode,
+ * put in the column cache, and for each of them the decoded column, its
+ * cardinality and its number of rows must match the raw data, as must the
+ * result and the count of random point queries (AND, OR, ANDNOT) and range
+ * queries (AND, OR) over them, run one by one, in batches (see
+ * BatchQueryExecutor), and for the range queries under every range cache
+ * policy.  Fills around the longest run are also appended to result columns
+ * of the short segment lengths, and must decode to the rows they stand for.
+ *
+ * The first mismatches are printed, and the exit status is 1 if there was any.
+ *
+ * Usage: java CrossCheckMain [rows] [columns] [queries] [seed]
+ */
+public class CrossCheckMain {
+
+	/** Segment lengths the columns are compressed with: VLC/VAL, WAH32 and WAH64 */
+	private static final int[] SEGMENT_LENGTHS = {7, 14, 28, 31, WAH64ActiveBitCol.SEGLEN};
+	/** Mismatches printed at most */
+	private static final int MAX_PRINTED = 20;
+	/** Windows the queries are run in by batch, a query at a time up to all of them */
+	private static final int[] BATCH_WINDOWS = {1, 7, Integer.MAX_VALUE};
+	/** Longest run of the segment lengths whose fills are checked (see checkFills) */
+	private static final long MAX_CHECKED_RUN = 1 << 16;
+
+	private final Random random;
+	private final int numRows;
+	/** The columns of the raw bitmap */
+	private final BitSet[] columns;
+	private long checks = 0;
+	private long failures = 0;
+
+	private CrossCheckMain(int numRows, int numCols, long seed) {
+		this.random = new Random(seed);
+		this.numRows = numRows;
+		this.columns = new BitSet[numCols];
+		for (int c = 0; c < numCols; c++) {
+			this.columns[c] = this.generate(c);
+		}
+	}
+
+	public static void main(String[] args) {
+		int numRows = (args.length > 0) ? Integer.parseInt(args[0]) : 100003;
+		int numCols = (args.length > 1) ? Integer.parseInt(args[1]) : 48;
+		int numQueries = (args.length > 2) ? Integer.parseInt(args[2]) : 300;
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42;
+
+		CrossCheckMain check = new CrossCheckMain(numRows, numCols, seed);
+		File dir = null;
+		try {
+			dir = Files.createTempDirectory("crosscheck").toFile();
+			File raw = new File(dir, "raw.txt");
+			check.writeRaw(raw);
+			for (int seglen : SEGMENT_LENGTHS) {
+				check.checkFills(seglen);
+				File index = new File(dir, "seglen" + seglen);
+				CompressionMain.compress(raw, index, seglen);
+				for (RunConfig.ColumnStorage storage : RunConfig.ColumnStorage.values()) {
+					check.checkIndex(index, seglen, storage, numQueries);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			Query.columns.clear();
+			CrossCheckMain.delete(dir);
+		}
+		System.out.println("rows=" + numRows + " columns=" + numCols + " checks=" + check.checks +
+				" failures=" + check.failures);
+		if (check.failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Makes the rows of a column, of a kind picked by the column ID
+	 */
+	private BitSet generate(int colID) {
+		BitSet bits = new BitSet(this.numRows);
+		switch (colID % 7) {
+			case 0:		// all zeros
+				break;
+			case 1:		// all ones
+				bits.set(0, this.numRows);
+				break;
+			case 2:		// a few ones, mostly in runs of zeros too long for a single short fill
+				for (int r = 0; r < this.numRows; r++) {
+					if (this.random.nextInt(1000) == 0) {
+						bits.set(r);
+					}
+				}
+				break;
+			case 3:		// a few zeros
+				bits.set(0, this.numRows);
+				for (int r = 0; r < this.numRows; r++) {
+					if (this.random.nextInt(1000) == 0) {
+						bits.clear(r);
+					}
+				}
+				break;
+			case 4:		// runs of ones and zeros, with some noise
+				for (int r = 0; r < this.numRows; ) {
+					int run = 1 + this.random.nextInt(5000);
+					if (this.random.nextBoolean()) {
+						bits.set(r, Math.min(this.numRows, r + run));
+					}
+					r += run;
+				}
+				for (int i = this.numRows / 200; i > 0; i--) {
+					bits.flip(this.random.nextInt(this.numRows));
+				}
+				break;
+			case 5:		// only the last row
+				bits.set(this.numRows - 1);
+				break;
+			default:	// dense
+				for (int r = 0; r < this.numRows; r++) {
+					if (this.random.nextBoolean()) {
+						bits.set(r);
+					}
+				}
+				break;
+		}
+		return bits;
+	}
+
+	/**
+	 * Writes the columns as a raw bitmap, a '0' or '1' per column on each row
+	 */
+	private void writeRaw(File raw) throws IOException {
+		byte[] line = new byte[this.columns.length + 1];
+		line[this.columns.length] = '\n';
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(raw), 1 << 16)) {
+			for (int r = 0; r < this.numRows; r++) {
+				for (int c = 0; c < this.columns.length; c++) {
+					line[c] = (byte) (this.columns[c].get(r) ? '1' : '0');
+				}
+				out.write(line);
+			}
+		}
+	}
+
+	/**
+	 * Loads the columns of an index in a storage mode, checks them, and
+	 * checks random queries over them
+	 */
+	private void checkIndex(File index, int seglen, RunConfig.ColumnStorage storage, int numQueries)
+			throws IOException {
+		String where = "seglen " + seglen + " " + storage;
+		Query.columns.clear();
+		for (int c = 0; c < this.columns.length; c++) {
+			File file = new File(index, RunConfig.CMP_COMPRESSED_INDEX_FILE_PREFIX + c +
+					RunConfig.CMP_COMPRESSED_INDEX_FILE_EXTENSION);
+			ActiveBitCollection col = CrossCheckMain.load(file, seglen, storage);
+			String name = where + " column " + c;
+			this.check(name + " bits", CrossCheckMain.decode(col), this.columns[c]);
+			this.check(name + " cardinality", col.cardinality(), this.columns[c].cardinality());
+			this.check(name + " rows", col.getNumberOfRows(), this.numRows);
+			Query.columns.put(c, col);
+		}
+
+		ArrayList<Query> queries = new ArrayList<>();
+		ArrayList<BitSet> results = new ArrayList<>();
+		Query.Operator[] pointOps = {Query.Operator.AND, Query.Operator.OR, Query.Operator.ANDNOT};
+		Query.Operator[] rangeOps = {Query.Operator.AND, Query.Operator.OR};
+		for (int i = 0; i < numQueries; i++) {
+			int col1 = this.random.nextInt(this.columns.length);
+			int col2 = this.random.nextInt(this.columns.length);
+			Query.Operator op = pointOps[this.random.nextInt(pointOps.length)];
+			BitSet expected = (BitSet) this.columns[col1].clone();
+			switch (op) {
+				case AND:
+					expected.and(this.columns[col2]);
+					break;
+				case OR:
+					expected.or(this.columns[col2]);
+					break;
+				default:
+					expected.andNot(this.columns[col2]);
+					break;
+			}
+			this.checkQuery(where, new WAHPointQuery(op, col1, col2), expected, queries, results);
+		}
+		for (int i = 0; i < numQueries; i++) {
+			// single columns, short ranges, and ranges long enough to be merged in parallel
+			int start = this.random.nextInt(this.columns.length);
+			int end = (i % 3 == 0) ? start : start + this.random.nextInt(this.columns.length - start);
+			if (i == 0) {
+				start = 0;
+				end = this.columns.length - 1;
+			}
+			Query.Operator op = rangeOps[this.random.nextInt(rangeOps.length)];
+			BitSet expected = (BitSet) this.columns[start].clone();
+			for (int c = start + 1; c <= end; c++) {
+				if (op == Query.Operator.AND) {
+					expected.and(this.columns[c]);
+				} else {
+					expected.or(this.columns[c]);
+				}
+			}
+			this.checkQuery(where, new WAHRangeQuery(op, start, end), expected, queries, results);
+		}
+		this.checkCachePolicies(where, queries, results);
+		for (int window : BATCH_WINDOWS) {
+			String name = where + " batch of " + Math.min(window, queries.size());
+			ActiveBitCollection[] vecs = new BatchQueryExecutor(window).execute(queries);
+			long[] counts = new BatchQueryExecutor(window).executeCount(queries);
+			for (int i = 0; i < queries.size(); i++) {
+				this.check(name + " " + queries.get(i) + " result", CrossCheckMain.decode(vecs[i]), results.get(i));
+				this.check(name + " " + queries.get(i) + " count", counts[i], results.get(i).cardinality());
+			}
+		}
+		Query.columns.clear();
+	}
+
+	/**
+	 * Runs the range queries again under every range cache policy, twice so
+	 * that the second time reuses what the first cached
+	 */
+	private void checkCachePolicies(String where, ArrayList<Query> queries, ArrayList<BitSet> results) {
+		RangeCacheStrategy strategy = RangeQuery.strategy;
+		RangeResultCache cache = RangeQuery.results;
+		try {
+			for (RunConfig.CachePolicy policy : RunConfig.CachePolicy.values()) {
+				RangeQuery.strategy = RangeCacheStrategy.create(policy);
+				RangeQuery.results = new RangeResultCache(RunConfig.CACHE_BUDGET_BYTES,
+						ColumnCache.createPolicy(RunConfig.CACHE_EVICTION));
+				for (int pass = 0; pass < 2; pass++) {
+					for (int i = 0; i < queries.size(); i++) {
+						Query query = queries.get(i);
+						if (query instanceof RangeQuery) {
+							String name = where + " " + policy + " " + query;
+							this.check(name + " result", CrossCheckMain.decode(query.execute()), results.get(i));
+							this.check(name + " count", query.executeCount(), results.get(i).cardinality());
+						}
+					}
+				}
+			}
+		} finally {
+			RangeQuery.strategy = strategy;
+			RangeQuery.results = cache;
+		}
+	}
+
+	/**
+	 * Checks the result and the count of a query, and keeps both to check
+	 * the batches against
+	 */
+	/**
+	 * Appends two fills of the same value between two literals to a result
+	 * column, for lengths around the longest run (so the fills are split, and
+	 * the second one grows the first), and checks the rows they decode to.
+	 * Only segment lengths whose longest run is short enough to decode are checked.
+	 */
+	private void checkFills(int seglen) {
+		long maxRun = (1L << (seglen - 1)) - 1;
+		if (maxRun > MAX_CHECKED_RUN) {
+			return;
+		}
+		long[] lengths = {2, maxRun - 1, maxRun, maxRun + 1, maxRun + 2, 2 * maxRun, 2 * maxRun + 1, 4 * maxRun + 3};
+		for (byte fillBit = 0; fillBit <= 1; fillBit++) {
+			for (long first : lengths) {
+				for (long second : lengths) {
+					ActiveBitCollection col = WAHPointQuery.createResult(seglen, "fills");
+					col.appendLiteral(1);
+					col.appendFill(first, fillBit);
+					col.appendFill(second, fillBit);
+					col.appendLiteral(1);
+
+					int end = (int) ((first + second + 1) * seglen);
+					BitSet expected = new BitSet();
+					expected.set(seglen - 1);
+					if (fillBit == 1) {
+						expected.set(seglen, end);
+					}
+					expected.set(end + seglen - 1);
+					this.check("seglen " + seglen + " fills of " + fillBit + ": " + first + " + " + second,
+							CrossCheckMain.decode(col), expected);
+				}
+			}
+		}
+	}
+
+	private void checkQuery(String where, Query query, BitSet expected, ArrayList<Query> queries,
+			ArrayList<BitSet> results) {
+		String name = where + " " + query;
+		this.check(name + " result", CrossCheckMain.decode(query.execute()), expected);
+		this.check(name + " count", query.executeCount(), expected.cardinality());
+		queries.add(query);
+		results.add(expected);
+	}
+
+	private void check(String name, BitSet actual, BitSet expected) {
+		this.checks++;
+		if (!actual.equals(expected)) {
+			BitSet diff = (BitSet) actual.clone();
+			diff.xor(expected);
+			this.fail(name + ": " + diff.cardinality() + " rows differ, the first is " + diff.nextSetBit(0));
+		}
+	}
+
+	private void check(String name, long actual, long expected) {
+		this.checks++;
+		if (actual != expected) {
+			this.fail(name + ": " + actual + ", expected " + expected);
+		}
+	}
+
+	private void fail(String message) {
+		if (this.failures++ < MAX_PRINTED) {
+			System.err.println(message);
+		}
+	}
+
+	/**
+	 * Loads a column file the way Query.loadFile does in a storage mode
+	 */
+	private static ActiveBitCollection load(File file, int seglen, RunConfig.ColumnStorage storage)
+			throws IOException {
+		if (storage == RunConfig.ColumnStorage.MAPPED) {
+			return MappedActiveBitCol.map(file);
+		}
+		CompressedBitmapReader reader = (seglen == WAH64ActiveBitCol.SEGLEN)
+				? new WAH64CompressedReader() : new VLCCompressedReader();
+		ActiveBitCollection col = reader.readColumn(file);
+		return (storage == RunConfig.ColumnStorage.OFF_HEAP) ? Query.arena.store(col) : col;
+	}
+
+	/**
+	 * Decodes a compressed vector into its rows, one WAH word at a time
+	 *
+	 * @param col a compressed vector
+	 * @return the rows set in the vector
+	 */
+	static BitSet decode(ActiveBitCollection col) {
+		int seglen = col.getSeglen();
+		long fillFlag = 1L << seglen;
+		long fillValueBit = 1L << (seglen - 1);
+		long runLenMask = fillValueBit - 1;
+		BitSet bits = new BitSet();
+		int row = 0;
+		WordCursor it = col.getWordCursor();
+		while (it.hasNext()) {
+			long word = it.nextWord();
+			if ((word & fillFlag) != 0) {
+				int rows = (int) ((word & runLenMask) * seglen);
+				if ((word & fillValueBit) != 0) {
+					bits.set(row, row + rows);
+				}
+				row += rows;
+			} else {
+				// the first row is in the most significant bit of the segment
+				for (int b = seglen - 1; b >= 0; b--, row++) {
+					if (((word >>> b) & 1) != 0) {
+						bits.set(row);
+					}
+				}
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Deletes a directory and the files in it
+	 */
+	private static void delete(File dir) {
+		if (dir == null) {
+			return;
+		}
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					CrossCheckMain.delete(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+}
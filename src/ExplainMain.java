@@ -0,0 +1,25 @@
+import java.io.IOException;
+
+/**
+ * Prints the plan the QueryPlanner picks for the range queries of a query
+ * file, with its estimated and actual costs (see WAHRangeQuery.explain()).
+ * Point queries always merge their two columns in one pass, and are skipped.
+ *
+ * Usage: java ExplainMain [queryFile] [maxQueries]
+ */
+public class ExplainMain {
+
+	public static void main(String[] args) {
+		String queryFile = (args.length > 0) ? args[0] : RunConfig.QUERY_FULLPATH_TO_FILE;
+		long maxQueries = (args.length > 1) ? Long.parseLong(args[1]) : 10;
+		try {
+			QueryFile.stream(queryFile, maxQueries, q -> {
+				if (q instanceof WAHRangeQuery) {
+					System.out.println(((WAHRangeQuery) q).explain());
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,19 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reuses the largest cached range inside the query's range, and splits the
+ * query into that result plus the remainder on either side of it.  Every
+ * result (and, with CACHE_REMAINDER_QUERY, every remainder) is cached.
+ */
+public class FindAndSplitStrategy extends RangeCacheStrategy {
+
+	@Override
+	protected List<RangeResultCache.Entry> chooseCover(WAHRangeQuery query, RangeResultCache cache) {
+		RangeResultCache.Entry hit = cache.findLargestContained(query.getOperator(), query.getStart(), query.getEnd());
+		if (hit == null) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(hit);
+	}
+}
@@ -3,4 +3,36 @@ import java.rmi.RemoteException;
 
 public interface ISlaveNode extends Remote {
     void putVector(ActiveBitCollection vector) throws RemoteException;
+
+    /**
+     * Starts receiving a vector, sent in chunks (see VectorStream)
+     *
+     * @param vectorType type of the vector
+     * @param vectorId id of the vector
+     * @return id of the transfer, for the calls that follow
+     */
+    long beginVector(String vectorType, String vectorId) throws RemoteException;
+
+    /**
+     * Appends the next bytes of a vector being received
+     *
+     * @param transfer id of the transfer
+     * @param chunk the bytes, at most RunConfig.VECTOR_CHUNK_BYTES
+     */
+    void putChunk(long transfer, byte[] chunk) throws RemoteException;
+
+    /**
+     * Checks a vector received against its header, and keeps it in place of
+     * any vector with the same type and id
+     *
+     * @param transfer id of the transfer
+     */
+    void endVector(long transfer) throws RemoteException;
+
+    /**
+     * Drops a vector being received
+     *
+     * @param transfer id of the transfer
+     */
+    void abortVector(long transfer) throws RemoteException;
 }
@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Picks the cover that minimizes the number of words the merge has to scan,
+ * and only caches the ranges that are asked for repeatedly.
+ *
+ * The cover is found by weighted interval scheduling over the columns of the
+ * query: the cheapest way to cover the first i columns is either the cheapest
+ * way to cover the first i-1 plus column i, or the cheapest way to cover the
+ * columns before a cached range ending at i plus that range.  The cost of a
+ * column or cached result is its number of words.
+ *
+ * A range result is only admitted to the cache once the range has been asked
+ * for CACHE_JARVIS_ADMIT_COUNT times, so one-off ranges do not push out the
+ * popular ones.  The counts are halved every so often so that ranges that
+ * stopped being asked for are forgotten.
+ */
+public class JarvisStrategy extends RangeCacheStrategy {
+
+	/** Number of counted requests between two halvings of the counts */
+	private static final int AGING_PERIOD = 1 << 16;
+
+	/** How many times each range was asked for (recently) */
+	private final HashMap<RangeKey, Integer> frequency = new HashMap<>();
+	/** Requests counted since the last halving */
+	private int sinceAging = 0;
+
+	@Override
+	protected List<RangeResultCache.Entry> chooseCover(WAHRangeQuery query, RangeResultCache cache) {
+		int start = query.getStart();
+		int n = query.getSize();
+		RangeResultCache.Entry[] candidates = cache.findContained(query.getOperator(), start, query.getEnd());
+		if (candidates.length == 0) {
+			return Collections.emptyList();
+		}
+
+		// the cached ranges by the position of their last column
+		ArrayList<ArrayList<RangeResultCache.Entry>> endingAt = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			endingAt.add(null);
+		}
+		for (RangeResultCache.Entry e : candidates) {
+			int last = e.end - start;
+			if (endingAt.get(last) == null) {
+				endingAt.set(last, new ArrayList<>());
+			}
+			endingAt.get(last).add(e);
+		}
+
+		// cost[i] is the cheapest way to cover the first i columns,
+		// choice[i] the cached range ending the cover (null for a column)
+		long[] cost = new long[n + 1];
+		RangeResultCache.Entry[] choice = new RangeResultCache.Entry[n + 1];
+		for (int i = 1; i <= n; i++) {
+			cost[i] = cost[i - 1] + RangeCacheStrategy.columnCost(start + i - 1);
+			ArrayList<RangeResultCache.Entry> ending = endingAt.get(i - 1);
+			if (ending != null) {
+				for (RangeResultCache.Entry e : ending) {
+					long c = cost[e.start - start] + e.result.getNumberOfWords();
+					if (c < cost[i]) {
+						cost[i] = c;
+						choice[i] = e;
+					}
+				}
+			}
+		}
+
+		// walk the choices back from the end of the range
+		ArrayList<RangeResultCache.Entry> cover = new ArrayList<>();
+		int i = n;
+		while (i > 0) {
+			if (choice[i] != null) {
+				cover.add(choice[i]);
+				i = choice[i].start - start;
+			} else {
+				i--;
+			}
+		}
+		Collections.reverse(cover);
+		return cover;
+	}
+
+	@Override
+	protected synchronized boolean admit(Query.Operator operator, int start, int end) {
+		Integer count = this.frequency.get(new RangeKey(operator, start, end));
+		return count != null && count >= RunConfig.CACHE_JARVIS_ADMIT_COUNT;
+	}
+
+	/**
+	 * Counts a request for a range
+	 */
+	@Override
+	protected synchronized void requested(Query.Operator operator, int start, int end) {
+		this.frequency.merge(new RangeKey(operator, start, end), 1, Integer::sum);
+		if (++this.sinceAging >= AGING_PERIOD) {
+			this.sinceAging = 0;
+			this.frequency.replaceAll((k, v) -> v / 2);
+			this.frequency.values().removeIf(v -> v == 0);
+		}
+	}
+
+	/**
+	 * A range of a given operator, as a map key
+	 */
+	private static class RangeKey {
+		final Query.Operator operator;
+		final int start;
+		final int end;
+
+		RangeKey(Query.Operator operator, int start, int end) {
+			this.operator = operator;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof RangeKey)) {
+				return false;
+			}
+			RangeKey other = (RangeKey) o;
+			return this.operator == other.operator && this.start == other.start && this.end == other.end;
+		}
+
+		@Override
+		public int hashCode() {
+			return (this.operator.hashCode() * 31 + this.start) * 31 + this.end;
+		}
+	}
+}
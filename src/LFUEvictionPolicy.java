@@ -0,0 +1,87 @@
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Evicts the column that has been used the fewest times since it was
+ * loaded, the least recently used one among ties.
+ */
+public class LFUEvictionPolicy implements ColumnEvictionPolicy {
+
+	/**
+	 * Use count of a held column
+	 */
+	private static class Entry implements Comparable<Entry> {
+		final int colID;
+		long uses;
+		long lastUse;
+
+		Entry(int colID, long lastUse) {
+			this.colID = colID;
+			this.uses = 1;
+			this.lastUse = lastUse;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if (this.uses != other.uses) {
+				return Long.compare(this.uses, other.uses);
+			}
+			if (this.lastUse != other.lastUse) {
+				return Long.compare(this.lastUse, other.lastUse);
+			}
+			return Integer.compare(this.colID, other.colID);
+		}
+	}
+
+	/** The columns held */
+	private final HashMap<Integer, Entry> entries = new HashMap<>();
+	/** The columns held, least frequently used first */
+	private final TreeSet<Entry> order = new TreeSet<>();
+	/** Logical clock used to break ties */
+	private long tick = 0;
+
+	@Override
+	public void admitted(int colID, long bytes, long loadNanos) {
+		this.removed(colID);
+		Entry e = new Entry(colID, this.tick++);
+		this.entries.put(colID, e);
+		this.order.add(e);
+	}
+
+	@Override
+	public void accessed(int colID) {
+		Entry e = this.entries.get(colID);
+		if (e == null) {
+			return;
+		}
+		// re-sort it under its new count
+		this.order.remove(e);
+		e.uses++;
+		e.lastUse = this.tick++;
+		this.order.add(e);
+	}
+
+	@Override
+	public void removed(int colID) {
+		Entry e = this.entries.remove(colID);
+		if (e != null) {
+			this.order.remove(e);
+		}
+	}
+
+	@Override
+	public int victim(int exclude) {
+		for (Entry e : this.order) {
+			if (e.colID != exclude) {
+				return e.colID;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void clear() {
+		this.entries.clear();
+		this.order.clear();
+	}
+}
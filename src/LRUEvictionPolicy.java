@@ -0,0 +1,44 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts the column that was used the longest time ago
+ */
+public class LRUEvictionPolicy implements ColumnEvictionPolicy {
+
+	/** The columns held, least recently used first */
+	private final LinkedHashMap<Integer, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+	@Override
+	public void admitted(int colID, long bytes, long loadNanos) {
+		this.order.put(colID, Boolean.TRUE);
+	}
+
+	@Override
+	public void accessed(int colID) {
+		// moves it to the back in access order
+		this.order.get(colID);
+	}
+
+	@Override
+	public void removed(int colID) {
+		this.order.remove(colID);
+	}
+
+	@Override
+	public int victim(int exclude) {
+		Iterator<Integer> it = this.order.keySet().iterator();
+		while (it.hasNext()) {
+			int colID = it.next();
+			if (colID != exclude) {
+				return colID;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void clear() {
+		this.order.clear();
+	}
+}
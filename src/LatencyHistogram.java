@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+/**
+ * Records query latencies and reports their percentiles, in fixed memory.
+ *
+ * The samples are counted in log-scale buckets, as HdrHistogram does: each
+ * power of two is split into SUB_BUCKETS buckets of equal width, so a bucket
+ * is never wider than 1/SUB_BUCKETS of the values it holds, and the values
+ * below SUB_BUCKETS get a bucket each.  A percentile is reported as the
+ * largest value of its bucket (capped at the largest sample), i.e. at most
+ * 1/SUB_BUCKETS above the exact sample, whatever the number of samples.  The
+ * mean, the total and the maximum are exact.
+ */
+public class LatencyHistogram {
+
+	/** Buckets per power of two are 2^SUB_BUCKET_BITS */
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** Enough buckets for any non-negative long */
+	private static final int NUM_BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/** Number of samples in each bucket */
+	private final long[] counts = new long[NUM_BUCKETS];
+	/** Number of samples */
+	private long count = 0;
+	/** Sum of the samples */
+	private long total = 0;
+	/** Largest sample */
+	private long max = 0;
+
+	/**
+	 * @param nanos latency of one query (negative values count as 0)
+	 */
+	public synchronized void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		this.counts[LatencyHistogram.bucketOf(nanos)]++;
+		this.count++;
+		this.total += nanos;
+		this.max = Math.max(this.max, nanos);
+	}
+
+	/**
+	 * @return number of samples
+	 */
+	public synchronized long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return sum of the samples in nanoseconds
+	 */
+	public synchronized long getTotalNanos() {
+		return this.total;
+	}
+
+	/**
+	 * @return mean of the samples in nanoseconds
+	 */
+	public synchronized double getMeanNanos() {
+		return (this.count == 0) ? 0 : (double) this.total / this.count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100, e.g. 99.9
+	 * @return the largest value of the bucket holding the sample at that
+	 * percentile (nearest rank), at most the largest sample, 0 if there are none
+	 */
+	public synchronized long getPercentileNanos(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		}
+		if (this.count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * this.count));
+		long seen = 0;
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			seen += this.counts[b];
+			if (seen >= rank) {
+				return Math.min(LatencyHistogram.highestOf(b), this.max);
+			}
+		}
+		return this.max;
+	}
+
+	/**
+	 * @return the largest sample in nanoseconds
+	 */
+	public synchronized long getMaxNanos() {
+		return this.max;
+	}
+
+	/**
+	 * Drops every sample
+	 */
+	public synchronized void reset() {
+		Arrays.fill(this.counts, 0);
+		this.count = 0;
+		this.total = 0;
+		this.max = 0;
+	}
+
+	/**
+	 * @param value a non-negative value
+	 * @return the bucket holding it
+	 */
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// value >>> shift keeps the SUB_BUCKET_BITS + 1 highest bits of the value
+		int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @param bucket a bucket
+	 * @return the largest value it holds
+	 */
+	static long highestOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
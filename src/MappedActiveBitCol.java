@@ -0,0 +1,253 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only ActiveBitCollection backed by a memory-mapped column file.
+ * Nothing is copied onto the heap: the query kernels scan the mapped pages
+ * directly, so loading a cold column costs page faults instead of a full
+ * copy, and the garbage collector never sees the words.
+ *
+ * The file layout is the one written by the compressor and read by
+ * VLCCompressedReader: a ColumnHeader (or, in older files, a byte holding
+ * the segment length) followed by 32 bit words, each packing one or more
+ * segments.  WAH64 columns (63 bit segments) hold one segment per 64 bit
+ * word instead.  The checksum of the header is not verified, as that would
+ * read every page of the file up front.
+ */
+public class MappedActiveBitCol implements ActiveBitCollection {
+
+	/** The length used to encode this column */
+	private final int seglen;
+	/** Number of segments packed in each word of the file */
+	private final int segsPerWord;
+	/** Bytes per word in the file (4, or 8 for WAH64) */
+	private final int wordBytes;
+	/** The mapped words (everything after the seglen byte) */
+	private final ByteBuffer body;
+	/** Number of words in the file */
+	private final int numWords;
+	/** Number of rows and set bits, from the header of the file (-1 if it has none) */
+	private final long numRows;
+	private final long cardinality;
+	/** Hexholder instance used to mask out segments */
+	private final HexHolder hex;
+	/** Name of this column */
+	private final String name;
+	private String id;
+	/** Run index of the column, if it has one (see ColumnRunIndex) */
+	private volatile ColumnRunIndex runIndex;
+
+	/**
+	 * Wraps an already mapped column file
+	 *
+	 * @param buffer the mapped column file, header (or seglen byte) included
+	 * @param name The name of this column
+	 * @throws IOException if the header of the file is not valid
+	 */
+	public MappedActiveBitCol(ByteBuffer buffer, String name) throws IOException {
+		ColumnHeader header = ColumnHeader.read(buffer);
+		this.seglen = (header != null) ? header.getSeglen() : buffer.get(0);
+		if (this.seglen == WAH64ActiveBitCol.SEGLEN) {
+			this.wordBytes = Long.BYTES;
+			this.segsPerWord = 1;
+			this.hex = null;
+		} else {
+			this.wordBytes = Integer.BYTES;
+			this.segsPerWord = VLCConstants.WORD_LEN / (this.seglen + 1);
+			this.hex = HexHolder.getHexHolder(this.seglen);
+		}
+		if (header != null) {
+			if (header.getWordBytes() != this.wordBytes ||
+					header.getNumberOfWords() * this.wordBytes > buffer.limit() - ColumnHeader.BYTES) {
+				throw new IOException("Column file " + name + " does not match its header: " + header);
+			}
+			buffer.position(ColumnHeader.BYTES);
+			this.numWords = (int) header.getNumberOfWords();
+			this.numRows = header.getNumberOfRows();
+			this.cardinality = header.getCardinality();
+		} else {
+			buffer.position(1);
+			this.numWords = (buffer.limit() - 1) / this.wordBytes;
+			this.numRows = -1;
+			this.cardinality = -1;
+		}
+		this.body = buffer.slice();
+		this.name = name;
+	}
+
+	/**
+	 * Maps a compressed column file into memory
+	 *
+	 * @param file the column file (e.g. col_3.dat)
+	 * @return read-only collection over the mapped file
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public static MappedActiveBitCol map(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			 FileChannel channel = raf.getChannel()) {
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new MappedActiveBitCol(buffer, file.getName());
+		}
+	}
+
+	@Override
+	public void appendFill(long numRuns, byte fillBit) {
+		throw new UnsupportedOperationException("Mapped column " + this.name + " is read-only");
+	}
+
+	@Override
+	public void appendLiteral(long value) {
+		throw new UnsupportedOperationException("Mapped column " + this.name + " is read-only");
+	}
+
+	@Override
+	public void appendWord(long word) {
+		throw new UnsupportedOperationException("Mapped column " + this.name + " is read-only");
+	}
+
+	@Override
+	public void setSeglen(int seglen) {
+		throw new UnsupportedOperationException("Mapped column " + this.name + " is read-only");
+	}
+
+	@Override
+	public int getSeglen() {
+		return this.seglen;
+	}
+
+	@Override
+	public int getNumberOfWords() {
+		return this.numWords;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.numWords == 0;
+	}
+
+	@Override
+	public void trimToSize() {
+		// nothing to trim, the words live in the page cache
+	}
+
+	@Override
+	public WordCursor getWordCursor() {
+		return new Cursor();
+	}
+
+	@Override
+	public long cardinality() {
+		if (this.cardinality >= 0) {
+			return this.cardinality;
+		}
+		return WAHActiveSegment.cardinality(this.getWordCursor(), this.seglen);
+	}
+
+	@Override
+	public long getNumberOfRows() {
+		return this.numRows;
+	}
+
+	@Override
+	public String getColName() {
+		return this.name;
+	}
+
+	@Override
+	public int getSize() {
+		return this.numWords * this.wordBytes * Byte.SIZE;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return (long) this.numWords * this.wordBytes;
+	}
+
+	@Override
+	public ColumnRunIndex getRunIndex() {
+		return this.runIndex;
+	}
+
+	@Override
+	public void setRunIndex(ColumnRunIndex index) {
+		this.runIndex = index;
+	}
+
+	@Override
+	public String getId() {
+		return this.id;
+	}
+
+	/**
+	 * Cursor that unpacks the segments out of the mapped words the same
+	 * way VLCCompressedReader does: most significant segment first, with
+	 * the throw away bits at the start of each word.  Only absolute reads
+	 * are used, so several cursors can scan the same mapping at once.
+	 */
+	private class Cursor implements WordCursor {
+		/** Index of the next word to read */
+		private int wordPos = 0;
+		/** Segments of the current word that have not been handed out */
+		private int segsLeft = 0;
+		/** The current word */
+		private int current;
+
+		@Override
+		public boolean hasNext() {
+			return this.segsLeft > 0 || this.wordPos < MappedActiveBitCol.this.numWords;
+		}
+
+		@Override
+		public long nextWord() {
+			if (MappedActiveBitCol.this.wordBytes == Long.BYTES) {
+				// WAH64: one segment per word, nothing to unpack
+				if (this.wordPos >= MappedActiveBitCol.this.numWords) {
+					throw new NoSuchElementException();
+				}
+				return MappedActiveBitCol.this.body.getLong((this.wordPos++) << 3);
+			}
+			if (this.segsLeft == 0) {
+				if (this.wordPos >= MappedActiveBitCol.this.numWords) {
+					throw new NoSuchElementException();
+				}
+				this.current = MappedActiveBitCol.this.body.getInt(this.wordPos << 2);
+				this.wordPos++;
+				this.segsLeft = MappedActiveBitCol.this.segsPerWord;
+			}
+			this.segsLeft--;
+			int segLenPlusFlag = MappedActiveBitCol.this.seglen + 1;
+			return (this.current >> ((segLenPlusFlag * this.segsLeft) + (VLCConstants.WORD_LEN % segLenPlusFlag)))
+					& MappedActiveBitCol.this.hex.getOnes();
+		}
+
+		@Override
+		public void reset() {
+			this.wordPos = 0;
+			this.segsLeft = 0;
+		}
+
+		@Override
+		public void seek(int index) {
+			MappedActiveBitCol col = MappedActiveBitCol.this;
+			if (col.wordBytes == Long.BYTES) {
+				this.wordPos = index;
+				return;
+			}
+			// the segment is inside a packed word, load that word and drop the segments before it
+			this.wordPos = index / col.segsPerWord;
+			int used = index % col.segsPerWord;
+			this.segsLeft = 0;
+			if (used > 0) {
+				this.current = col.body.getInt(this.wordPos << 2);
+				this.wordPos++;
+				this.segsLeft = col.segsPerWord - used;
+			}
+		}
+	}
+}
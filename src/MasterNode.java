@@ -1,3 +1,6 @@
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.rmi.Naming;
 import java.rmi.Remote;
 import java.rmi.registry.LocateRegistry;
@@ -12,7 +15,12 @@ public class MasterNode implements Remote {
             // quick test
             for (int i = 0; i < numSlaves; i++) {
                 ISlaveNode node = (ISlaveNode) registry.lookup("SlaveNode_" + i);
-                node.putVector(null);
+                // send column i of the compressed index, as it is on disk
+                File column = new File(RunConfig.CMP_FULLPATH_TO_COMPRESSED_INDEX,
+                        RunConfig.CMP_COMPRESSED_INDEX_FILE_PREFIX + i + RunConfig.CMP_COMPRESSED_INDEX_FILE_EXTENSION);
+                try (FileChannel in = FileChannel.open(column.toPath(), StandardOpenOption.READ)) {
+                    VectorStream.send(in, node, BitmapVectorType.WAH.toString(), "col_" + i);
+                }
                 System.out.println("Put a vector to slave" + i);
             }
             // TODO run experiments
@@ -0,0 +1,23 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Never reuses nor caches results: every range query is computed from its columns
+ */
+public class NoCacheStrategy extends RangeCacheStrategy {
+
+	@Override
+	public ActiveBitCollection execute(WAHRangeQuery query, RangeResultCache cache) {
+		return query.executeNoCache();
+	}
+
+	@Override
+	public long executeCount(WAHRangeQuery query, RangeResultCache cache) {
+		return query.executeCountNoCache();
+	}
+
+	@Override
+	protected List<RangeResultCache.Entry> chooseCover(WAHRangeQuery query, RangeResultCache cache) {
+		return Collections.emptyList();
+	}
+}
@@ -0,0 +1,276 @@
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only ActiveBitCollection whose words live in direct memory owned
+ * by an OffHeapColumnArena.  Columns are created with
+ * OffHeapColumnArena.store() and are handed back with
+ * OffHeapColumnArena.free() when they leave the column cache.  A query or a
+ * prefetch that is going to scan a column pins it first (see pin()), and
+ * an evicted column that is still pinned is only freed when the last pin
+ * is dropped.  Columns dropped without free() are handed back when they
+ * are garbage collected.
+ *
+ * Segments of 31 bits or less are stored as 4 byte words, longer ones
+ * as 8 byte words.
+ */
+public class OffHeapActiveBitCol implements ActiveBitCollection {
+
+	/** Arena that owns the memory */
+	private final OffHeapColumnArena arena;
+	/** Index of the slab holding the words */
+	private final int slab;
+	/** The slab holding the words (only absolute reads are used) */
+	private final ByteBuffer buffer;
+	/** Offset of the first word in the slab */
+	private final int offset;
+	/** Number of words stored */
+	private final int numWords;
+	/** Bytes per stored word (4 or 8) */
+	private final int wordBytes;
+	/** The length used to encode this column */
+	private final int seglen;
+	/** Name of this column */
+	private final String name;
+	/** Number of rows held by the column, -1 if unknown */
+	private final long numRows;
+	private String id;
+	/** Run index of the column, if it has one (see ColumnRunIndex) */
+	private volatile ColumnRunIndex runIndex;
+	/** Set once the region has been handed back to the arena */
+	private volatile boolean freed = false;
+	/** Number of queries and prefetches scanning the column, guarded by this */
+	private int pins = 0;
+	/** Set once the column has left the column cache, guarded by this */
+	private boolean evicted = false;
+	/** Hands the region back to the arena (at most once) */
+	private Cleaner.Cleanable cleanable;
+
+	/**
+	 * Only called by OffHeapColumnArena.store()
+	 */
+	OffHeapActiveBitCol(OffHeapColumnArena arena, int slab, ByteBuffer buffer, int offset,
+			int numWords, int wordBytes, int seglen, long numRows, String name) {
+		this.arena = arena;
+		this.slab = slab;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.numWords = numWords;
+		this.wordBytes = wordBytes;
+		this.seglen = seglen;
+		this.numRows = numRows;
+		this.name = name;
+	}
+
+	@Override
+	public void appendFill(long numRuns, byte fillBit) {
+		throw new UnsupportedOperationException("Off-heap column " + this.name + " is read-only");
+	}
+
+	@Override
+	public void appendLiteral(long value) {
+		throw new UnsupportedOperationException("Off-heap column " + this.name + " is read-only");
+	}
+
+	@Override
+	public void appendWord(long word) {
+		throw new UnsupportedOperationException("Off-heap column " + this.name + " is read-only");
+	}
+
+	@Override
+	public void setSeglen(int seglen) {
+		throw new UnsupportedOperationException("Off-heap column " + this.name + " is read-only");
+	}
+
+	@Override
+	public int getSeglen() {
+		return this.seglen;
+	}
+
+	@Override
+	public int getNumberOfWords() {
+		// one stored word per segment here, packed as in a column file
+		return VLCConstants.storedWords(this.numWords, this.seglen);
+	}
+
+
+	@Override
+	public boolean isEmpty() {
+		return this.numWords == 0;
+	}
+
+	@Override
+	public void trimToSize() {
+		// regions are allocated to the exact size already
+	}
+
+	@Override
+	public WordCursor getWordCursor() {
+		if (this.freed) {
+			throw new IllegalStateException("Off-heap column " + this.name + " has been freed");
+		}
+		return new Cursor();
+	}
+
+	@Override
+	public long cardinality() {
+		return WAHActiveSegment.cardinality(this.getWordCursor(), this.seglen);
+	}
+
+	@Override
+	public String getColName() {
+		return this.name;
+	}
+
+	@Override
+	public long getNumberOfRows() {
+		return this.numRows;
+	}
+
+	@Override
+	public int getSize() {
+		return this.getNumberOfWords() * VLCConstants.WORD_LEN;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return this.getNumberOfBytes();
+	}
+
+	@Override
+	public ColumnRunIndex getRunIndex() {
+		return this.runIndex;
+	}
+
+	@Override
+	public void setRunIndex(ColumnRunIndex index) {
+		this.runIndex = index;
+	}
+
+	@Override
+	public String getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return number of bytes of direct memory held by this column
+	 */
+	public int getNumberOfBytes() {
+		return this.numWords * this.wordBytes;
+	}
+
+	/**
+	 * @return True if this column has been handed back to its arena
+	 */
+	public boolean isFreed() {
+		return this.freed;
+	}
+
+	OffHeapColumnArena getArena() {
+		return this.arena;
+	}
+
+	void setCleanable(Cleaner.Cleanable cleanable) {
+		this.cleanable = cleanable;
+	}
+
+	Cleaner.Cleanable getCleanable() {
+		return this.cleanable;
+	}
+
+	/**
+	 * Keeps the column from being freed while it is scanned, even if it
+	 * leaves the column cache meanwhile.  Every successful pin() must be
+	 * followed by an unpin().
+	 *
+	 * @return false if the column has been (or is about to be) freed: it
+	 * must not be scanned, and is to be loaded again
+	 */
+	public synchronized boolean pin() {
+		if (this.freed || (this.evicted && this.pins == 0)) {
+			return false;
+		}
+		this.pins++;
+		return true;
+	}
+
+	/**
+	 * Drops a pin, and hands the column back to its arena if it was the last
+	 * pin of a column that has left the column cache
+	 */
+	public void unpin() {
+		synchronized (this) {
+			if (this.pins <= 0) {
+				throw new IllegalStateException("Off-heap column " + this.name + " is not pinned");
+			}
+			if (--this.pins > 0 || !this.evicted) {
+				return;
+			}
+		}
+		this.arena.free(this);
+	}
+
+	/**
+	 * Records that the column has left the column cache
+	 *
+	 * @return True if nothing has it pinned, so it is to be freed now (no
+	 * pin succeeds afterwards); false if the last unpin() frees it
+	 */
+	synchronized boolean evict() {
+		this.evicted = true;
+		return this.pins == 0;
+	}
+
+	/**
+	 * Marks the column as freed
+	 *
+	 * @return false if it had already been freed
+	 */
+	boolean markFreed() {
+		if (this.freed) {
+			return false;
+		}
+		this.freed = true;
+		return true;
+	}
+
+	/**
+	 * Cursor over the stored words
+	 */
+	private class Cursor implements WordCursor {
+		/** Index of the next word to hand out */
+		private int pos = 0;
+
+		@Override
+		public boolean hasNext() {
+			return this.pos < OffHeapActiveBitCol.this.numWords;
+		}
+
+		@Override
+		public long nextWord() {
+			if (this.pos >= OffHeapActiveBitCol.this.numWords) {
+				throw new NoSuchElementException();
+			}
+			OffHeapActiveBitCol col = OffHeapActiveBitCol.this;
+			long word;
+			if (col.wordBytes == Integer.BYTES) {
+				word = col.buffer.getInt(col.offset + (this.pos << 2)) & 0xFFFFFFFFL;
+			} else {
+				word = col.buffer.getLong(col.offset + (this.pos << 3));
+			}
+			this.pos++;
+			return word;
+		}
+
+		@Override
+		public void reset() {
+			this.pos = 0;
+		}
+
+		@Override
+		public void seek(int index) {
+			this.pos = index;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An arena of direct (off-heap) memory that compressed columns are copied
+ * into so that they can stay resident without the garbage collector having
+ * to scan or move them.
+ *
+ * Memory is reserved in large slabs of direct ByteBuffers. Each column is
+ * given a contiguous region of a slab (first fit), and the region is handed
+ * back explicitly with free() when the column leaves the column cache, or,
+ * if a query or a prefetch still has the column pinned then, when the last
+ * of them unpins it (see OffHeapActiveBitCol.pin()).  A Cleaner hands back
+ * the regions of columns that become unreachable without being freed, as
+ * a backstop: the column handles are small, so garbage collection alone
+ * would leave the slabs growing.  Neighbouring free regions are coalesced
+ * so the space can be reused by columns of any size.
+ * A column larger than a slab gets a slab of its own, which is reused like
+ * any other once the column is freed.
+ */
+public class OffHeapColumnArena {
+
+	/** Hands back the regions of columns that were dropped without free() */
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	/** Slab size used when none is given (64MB) */
+	public static final int DEFAULT_SLAB_BYTES = 64 * 1024 * 1024;
+
+	/** Size of a regular slab in bytes */
+	private final int slabBytes;
+	/** The slabs reserved so far */
+	private final ArrayList<ByteBuffer> slabs = new ArrayList<>();
+	/** For every slab, its free regions (offset to length) */
+	private final ArrayList<TreeMap<Integer, Integer>> freeLists = new ArrayList<>();
+	/** Bytes reserved from the operating system */
+	private long reservedBytes = 0;
+	/** Bytes currently handed out to columns */
+	private long usedBytes = 0;
+
+	/**
+	 * Creates an arena using the default slab size
+	 */
+	public OffHeapColumnArena() {
+		this(DEFAULT_SLAB_BYTES);
+	}
+
+	/**
+	 * Creates an arena that reserves direct memory slabBytes at a time
+	 *
+	 * @param slabBytes size of each slab
+	 */
+	public OffHeapColumnArena(int slabBytes) {
+		if (slabBytes <= 0) {
+			throw new IllegalArgumentException("Invalid slab size: " + slabBytes);
+		}
+		this.slabBytes = slabBytes;
+	}
+
+	/**
+	 * Copies a column into the arena.
+	 *
+	 * @param column the column to copy (usually one just read from disk)
+	 * @return a read-only copy of the column that lives off-heap
+	 */
+	public OffHeapActiveBitCol store(ActiveBitCollection column) {
+		// count the words first so the region can be sized exactly
+		int numWords = 0;
+		WordCursor it = column.getWordCursor();
+		while (it.hasNext()) {
+			it.nextWord();
+			numWords++;
+		}
+		// segments of 31 bits or less (plus the flag) fit in an int
+		int wordBytes = (column.getSeglen() < Integer.SIZE) ? Integer.BYTES : Long.BYTES;
+		long bytes = (long) numWords * wordBytes;
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Column " + column.getColName() + " is too large: " + bytes + " bytes");
+		}
+
+		int slab;
+		int offset;
+		ByteBuffer buffer;
+		synchronized (this) {
+			long region = this.allocate((int) bytes);
+			slab = (int) (region >>> 32);
+			offset = (int) region;
+			buffer = this.slabs.get(slab);
+		}
+
+		// copy the words in, only absolute puts so no shared position is touched
+		it.reset();
+		int pos = offset;
+		if (wordBytes == Integer.BYTES) {
+			while (it.hasNext()) {
+				buffer.putInt(pos, (int) it.nextWord());
+				pos += Integer.BYTES;
+			}
+		} else {
+			while (it.hasNext()) {
+				buffer.putLong(pos, it.nextWord());
+				pos += Long.BYTES;
+			}
+		}
+		OffHeapActiveBitCol ret = new OffHeapActiveBitCol(this, slab, buffer, offset, numWords, wordBytes,
+				column.getSeglen(), column.getNumberOfRows(), column.getColName());
+		ret.setCleanable(CLEANER.register(ret, new Region(this, slab, offset, (int) bytes)));
+		return ret;
+	}
+
+	/**
+	 * Hands the region held by a column back to the arena (once, however
+	 * many times it is called).  The column must not be used afterwards:
+	 * callers that share columns free them through the pins of the column
+	 * (see OffHeapActiveBitCol.unpin() and ColumnCache).
+	 *
+	 * @param column a column stored in this arena
+	 */
+	public synchronized void free(OffHeapActiveBitCol column) {
+		if (column.getArena() != this) {
+			throw new IllegalArgumentException("Column " + column.getColName() + " does not belong to this arena");
+		}
+		if (column.markFreed()) {
+			// runs the release at most once, even if the column is collected later
+			column.getCleanable().clean();
+		}
+	}
+
+	/**
+	 * @return number of bytes of direct memory reserved by the arena
+	 */
+	public synchronized long getReservedBytes() {
+		return this.reservedBytes;
+	}
+
+	/**
+	 * @return number of bytes currently held by columns
+	 */
+	public synchronized long getUsedBytes() {
+		return this.usedBytes;
+	}
+
+	/**
+	 * Finds (or reserves) a free region of the given size
+	 *
+	 * @param bytes size of the region
+	 * @return the slab index in the high 32 bits and the offset in the low 32 bits
+	 */
+	private long allocate(int bytes) {
+		// an empty column still gets its own (empty) spot
+		int needed = Math.max(bytes, 1);
+		for (int slab = 0; slab < this.freeLists.size(); slab++) {
+			int offset = this.take(this.freeLists.get(slab), needed);
+			if (offset >= 0) {
+				this.usedBytes += needed;
+				return ((long) slab << 32) | offset;
+			}
+		}
+		// nothing fits, reserve a new slab (a dedicated one for oversized columns)
+		int size = Math.max(this.slabBytes, needed);
+		this.slabs.add(ByteBuffer.allocateDirect(size));
+		TreeMap<Integer, Integer> free = new TreeMap<>();
+		free.put(0, size);
+		this.freeLists.add(free);
+		this.reservedBytes += size;
+		int slab = this.slabs.size() - 1;
+		int offset = this.take(free, needed);
+		this.usedBytes += needed;
+		return ((long) slab << 32) | offset;
+	}
+
+	/**
+	 * Carves a region out of the first free region large enough
+	 *
+	 * @param free free regions of a slab
+	 * @param bytes size of the region
+	 * @return the offset of the region, or -1 if nothing fits
+	 */
+	private int take(TreeMap<Integer, Integer> free, int bytes) {
+		for (Map.Entry<Integer, Integer> entry : free.entrySet()) {
+			if (entry.getValue() >= bytes) {
+				int offset = entry.getKey();
+				int left = entry.getValue() - bytes;
+				free.remove(offset);
+				if (left > 0) {
+					free.put(offset + bytes, left);
+				}
+				return offset;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Puts a region back on the free list of its slab, merging it with
+	 * the free regions on either side of it.
+	 *
+	 * @param slab index of the slab
+	 * @param offset start of the region
+	 * @param bytes size of the region
+	 */
+	private void release(int slab, int offset, int bytes) {
+		int length = Math.max(bytes, 1);
+		this.usedBytes -= length;
+		TreeMap<Integer, Integer> free = this.freeLists.get(slab);
+		Map.Entry<Integer, Integer> before = free.floorEntry(offset);
+		if (before != null && before.getKey() + before.getValue() == offset) {
+			offset = before.getKey();
+			length += before.getValue();
+			free.remove(before.getKey());
+		}
+		Integer after = free.get(offset + length);
+		if (after != null) {
+			free.remove(offset + length);
+			length += after;
+		}
+		free.put(offset, length);
+	}
+
+	/**
+	 * A region to hand back to the arena, once, when its column is freed or collected.
+	 * It must not reference the column itself.
+	 */
+	private static class Region implements Runnable {
+		private final OffHeapColumnArena arena;
+		private final int slab;
+		private final int offset;
+		private final int bytes;
+
+		Region(OffHeapColumnArena arena, int slab, int offset, int bytes) {
+			this.arena = arena;
+			this.slab = slab;
+			this.offset = offset;
+			this.bytes = bytes;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this.arena) {
+				this.arena.release(this.slab, this.offset, this.bytes);
+			}
+		}
+	}
+}
@@ -1,9 +1,4 @@
-
-
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 //JS:  Right now we don't compress 0111111...1111 (longest lit).  This does limit our compression
 //if the next word is a near word (e.i. a run of 1 with a dirty bit on).  Think of fixing.
 
@@ -21,12 +16,14 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 	WordType lastWord = WordType.LITERAL;
 	/**The length used to encode this column.  This is used in querying.**/
 	private int seglen = 31;
-	/**List that holds**/
-	private List<Long> vec;
+	/**Buffer that holds the compressed words**/
+	private WordBuffer vec;
     /** Name of this column*/
 	private String name = "";
 
 	private String id;
+	/** Run index of the column, if it has one (see ColumnRunIndex) */
+	private volatile ColumnRunIndex runIndex;
 	/**The hex value for PLWAH's largest lit   01111111111...111: assumes a 32 bit word*/
 	private final long  maxPLWAHLargestLit = 0x7FFFFFFFL;
 	/**The hex value for PLWAH's  0 fill       10000000000...000: assumes a 32 bit word*/
@@ -62,7 +59,7 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 	 * and initial word for this column
 	 * */
 	public PLWAHActiveBitCol(){
-		this.vec = new ArrayList<Long>();
+		this.vec = WordBuffer.forSeglen(this.seglen);
 
 
 	}
@@ -75,7 +72,7 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 	 * @param name The name of this column
 	 * */
 	public PLWAHActiveBitCol(String name){
-		this.vec = new ArrayList<Long>();
+		this.vec = WordBuffer.forSeglen(this.seglen);
 		this.name = name;
 
 	}
@@ -98,7 +95,7 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 			//Subtract the number runs we can represent in a new element
 			numRuns = numRuns - this.maxPLWAHFillLen;
 			//add a full run of zeros to the collection
-			this.vec.add(new Long((this.maxPLWAHZeroFillFull)));
+			this.vec.add(this.maxPLWAHZeroFillFull);
 
 		}
 		//If there is any left over toss it in to a new element
@@ -124,12 +121,12 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 			//Subtract the number runs we can represent in a new element
 			numRuns = numRuns - this.maxPLWAHFillLen;
 			//add a new full run
-			this.vec.add(new Long((this.maxPLWAHOneFillFull)));
+			this.vec.add(this.maxPLWAHOneFillFull);
 
 		}
 		//Might have a few runs left toss them in a new word
 		if(numRuns > 0){
-			this.vec.add(new Long((this.maxPLWAHOneFill+numRuns)));
+			this.vec.add(this.maxPLWAHOneFill+numRuns);
 		}
 
 
@@ -140,7 +137,7 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 		if (numRuns> 1 && !this.isEmpty())
 		{
 
-			long lastElementValue = this.vec.get(this.vec.size()-1);
+			long lastElementValue = this.vec.getLast();
 
 			//We are adding a fill of 0s
 			if (fillBit == 0)
@@ -153,13 +150,13 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 						//how many runs can we represent
 						numRuns= numRuns-(this.maxPLWAHZeroFillFull - lastElementValue);
 						//set the last one to max fill
-						this.vec.set(this.vec.size()-1, new Long((this.maxPLWAHZeroFillFull)));
+						this.vec.setLast(this.maxPLWAHZeroFillFull);
 						//Now we need to take care of whats left
 						//This is a helper function that will add new word or words to accommodate whats left
 						this.addRunOfZerosNewWord(numRuns);
 					//We can fit this into the last word without over filling it.
 					}else{
-						this.vec.set(this.vec.size()-1, new Long((lastElementValue+numRuns)));
+						this.vec.setLast(lastElementValue+numRuns);
 					}
 
 				}
@@ -179,12 +176,12 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 				if(lastElementValue + numRuns > this.maxPLWAHOneFillFull){
 					numRuns = numRuns- (this.maxPLWAHOneFillFull - lastElementValue);
 					//set the last one to max fill
-					this.vec.set(this.vec.size()-1, new Long((this.maxPLWAHOneFillFull)));
+					this.vec.setLast(this.maxPLWAHOneFillFull);
 					//Now we have to take care of what is left.
 					this.addRunOfOnesNewWord(numRuns);
 					//We can fit them all in the last element
 				}else{
-					this.vec.set(this.vec.size()-1, new Long((lastElementValue+numRuns)));
+					this.vec.setLast(lastElementValue+numRuns);
 
 				}
 			}
@@ -247,11 +244,11 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 			}
 		}else{
 			//Grab the last element and its value.
-			long lastElementValue = this.vec.get(this.vec.size()-1);
+			long lastElementValue = this.vec.getLast();
 			//If the value of 0 means a run of 0s.
 			if (value == 0){
 				if (this.lastWord == WordType.ZERORUN &&  lastElementValue <this.maxPLWAHZeroFillFull){
-					this.vec.set(this.vec.size()-1, lastElementValue+1); //
+					this.vec.setLast(lastElementValue+1); //
 				}//There was a change in bits... treat this as a literal
 				else{
 					this.vec.add(this.maxPLWAHZeroFill+1);
@@ -265,12 +262,12 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 					//Change the last value to be a run of 1s,
 					//representing 2 runs.
 					this.lastWord = WordType.ONERUN;
-					this.vec.set(this.vec.size()-1,this.maxPLWAHOneFill+2);
+					this.vec.setLast(this.maxPLWAHOneFill+2);
 
 				}//Already have a run of 1s setup, so just update that.
 				else */
 				if (this.lastWord== WordType.ONERUN && (lastElementValue != this.maxPLWAHOneFillFull)){
-					this.vec.set(this.vec.size()-1, lastElementValue+1);
+					this.vec.setLast(lastElementValue+1);
 
 				}//A literal
 				else{
@@ -307,13 +304,13 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 	 */
 	private void setDirtyBit(int pos){
 
-		long lastElementValue = this.vec.get(this.vec.size()-1);
+		long lastElementValue = this.vec.getLast();
 		//Shift the position number to the correct spot
 		pos = pos << 25;
 		//or with the shifted position to combine the two
 		lastElementValue = lastElementValue | pos;
 		 //rewrite the last element
-		this.vec.set(this.vec.size()-1, lastElementValue);
+		this.vec.setLast(lastElementValue);
 
 		//make sure to flag this last word as a dirty word
 		this.lastWord = WordType.DIRTYRUN;
@@ -382,23 +379,21 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 
 	@Override
 	public int getNumberOfWords() {
-		//get the number of segments
-		int numseg = this.vec.size();
-		//How many segments can fit in a word
-		int numSegPerWord = VLCConstants.WORD_LEN/this.seglen;
-		//total number of words needed to store this column
-		int tot = numseg/numSegPerWord;
-		if(tot==0){
-			tot = 1;
-		}
-		return tot;
+		//total number of words needed to store the segments of this column
+		return VLCConstants.storedWords(this.vec.size(), this.seglen);
 	}
 
+
 	@Override
 	public boolean isEmpty() {
 		return this.vec.isEmpty();
 	}
 
+	@Override
+	public void trimToSize() {
+		this.vec.trimToSize();
+	}
+
 	@Override
 	public void setSeglen(int seglen) {
 		this.seglen = seglen;
@@ -415,7 +410,8 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 	@Override
 	public String toString(){
 		String s = "";
-		for(long l : this.vec){
+		for(int i = 0; i < this.vec.size(); i++){
+			long l = this.vec.get(i);
 
 			String t = Long.toBinaryString(l);
 			while(t.length()<VLCConstants.WORD_LEN){
@@ -427,6 +423,34 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 		return s;
 	}
 
+	/**
+	 * Counts the set bits straight from the words.  A fill word can also carry
+	 * the position of a dirty bit: the near word that followed the run, which
+	 * holds a single 1 (after a run of zeros) or a single 0 (after a run of ones).
+	 *
+	 * @return number of bits set to 1
+	 */
+	@Override
+	public long cardinality() {
+		long count = 0;
+		for (int i = 0; i < this.vec.size(); i++) {
+			long word = this.vec.get(i);
+			if (word > this.maxPLWAHLargestLit) {
+				boolean ones = word >= this.maxPLWAHOneFill;
+				boolean dirty = (word & this.dirtyBits) != 0;
+				if (ones) {
+					count += (word & this.maxPLWAHFillLen) * this.seglen;
+				}
+				if (dirty) {
+					count += ones ? this.seglen - 1 : 1;
+				}
+			} else {
+				count += Long.bitCount(word);
+			}
+		}
+		return count;
+	}
+
 	@Override
 	public String getColName(){
 		return name;
@@ -434,8 +458,8 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 
 
 	@Override
-	public Iterator<Long> getSegmentIterator() {
-		return this.vec.iterator();
+	public WordCursor getWordCursor() {
+		return this.vec.cursor();
 	}
 
 	@Override
@@ -443,6 +467,21 @@ public class PLWAHActiveBitCol implements ActiveBitCollection {
 		return this.vec.size()*VLCConstants.WORD_LEN;
 	}
 
+	@Override
+	public long getMemoryBytes() {
+		return this.vec.getBackingBytes();
+	}
+
+	@Override
+	public ColumnRunIndex getRunIndex() {
+		return this.runIndex;
+	}
+
+	@Override
+	public void setRunIndex(ColumnRunIndex index) {
+		this.runIndex = index;
+	}
+
 
 
 
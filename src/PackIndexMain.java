@@ -0,0 +1,97 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Packs the column files of a compressed index (col_N.dat) into a single
+ * PackedIndex file, then checks that every column reads back the same from
+ * both, and compares the time it takes to load every column from its own
+ * file and from the packed index.
+ *
+ * Queries load their columns from the packed index once it exists at
+ * RunConfig.CMP_FULLPATH_TO_PACKED_INDEX (see RunConfig.PACKED_INDEX).
+ *
+ * Usage: java PackIndexMain [indexDir] [packedFile]
+ */
+public class PackIndexMain {
+
+	public static void main(String[] args) {
+		File dir = new File((args.length > 0) ? args[0] : RunConfig.CMP_FULLPATH_TO_COMPRESSED_INDEX);
+		File out = new File((args.length > 1) ? args[1] : RunConfig.CMP_FULLPATH_TO_PACKED_INDEX);
+		try {
+			long start = System.nanoTime();
+			int columns = PackedIndex.pack(dir, out);
+			System.out.printf("packed %d columns into %s (%d bytes) in %.1f ms%n", columns, out, out.length(),
+					(System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			try (PackedIndex packed = PackedIndex.open(out)) {
+				System.out.printf("open: %.3f ms%n", (System.nanoTime() - start) / 1e6);
+				PackIndexMain.verify(dir, packed);
+				PackIndexMain.time(dir, packed);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Checks that every column of the packed index holds the bytes of its column file
+	 */
+	private static void verify(File dir, PackedIndex packed) throws IOException {
+		int bad = 0;
+		for (int colID = 0; colID < packed.getNumberOfEntries(); colID++) {
+			File file = PackIndexMain.columnFile(dir, colID);
+			if (!packed.contains(colID)) {
+				if (file.exists() && file.length() > 0) {
+					System.err.println("missing column " + colID);
+					bad++;
+				}
+				continue;
+			}
+			if (!ByteBuffer.wrap(Files.readAllBytes(file.toPath())).equals(packed.map(colID))) {
+				System.err.println("column " + colID + " differs from " + file);
+				bad++;
+			}
+		}
+		System.out.println("verified " + packed.getNumberOfEntries() + " entries, " + bad + " bad");
+	}
+
+	/**
+	 * Loads every column from its file, then from the packed index
+	 */
+	private static void time(File dir, PackedIndex packed) throws IOException {
+		CompressedBitmapReader reader = WAHPointQuery.createReader();
+		long fileNanos = 0;
+		long packedNanos = 0;
+		long mappedNanos = 0;
+		int columns = 0;
+		for (int colID = 0; colID < packed.getNumberOfEntries(); colID++) {
+			if (!packed.contains(colID)) {
+				continue;
+			}
+			columns++;
+			long start = System.nanoTime();
+			reader.readColumn(PackIndexMain.columnFile(dir, colID));
+			fileNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			packed.readColumn(colID, reader);
+			packedNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			packed.mapColumn(colID);
+			mappedNanos += System.nanoTime() - start;
+		}
+		columns = Math.max(1, columns);
+		System.out.printf("load per column: files=%.1f us packed=%.1f us packed_mapped=%.1f us%n",
+				fileNanos / 1e3 / columns, packedNanos / 1e3 / columns, mappedNanos / 1e3 / columns);
+	}
+
+	/**
+	 * @return the column file of a column in a directory
+	 */
+	private static File columnFile(File dir, int colID) {
+		return new File(dir, RunConfig.CMP_COMPRESSED_INDEX_FILE_PREFIX + colID +
+				RunConfig.CMP_COMPRESSED_INDEX_FILE_EXTENSION);
+	}
+}
@@ -0,0 +1,302 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A whole compressed index in a single file: every column of the index,
+ * found through a directory at the start of the file, instead of one
+ * col_N.dat file per column.
+ *
+ * Layout (big-endian, like the column files):
+ *
+ *   offset  size  field
+ *        0     4  MAGIC ("BMPI")
+ *        4     2  VERSION
+ *        6     2  reserved (0)
+ *        8     4  number of directory entries (the largest column ID plus one)
+ *       12     4  reserved (0)
+ *       16          directory, one ENTRY_BYTES entry per column ID:
+ *                     8  offset of the column in the file (0 if there is no such column)
+ *                     8  length of the column in bytes
+ *                     1  encoding (ordinal of RunConfig.BitmapEncoding)
+ *                     1  segment length
+ *                     6  reserved (0)
+ *                   the columns, each starting on an 8 byte boundary
+ *
+ * Each column is stored exactly as its column file (ColumnHeader first,
+ * or the segment length byte of older files), so the usual readers decode
+ * it and MappedActiveBitCol scans it in place.
+ *
+ * Opening the index maps the directory and nothing else, and finding a
+ * column is a single read of its directory entry, however many columns the
+ * index holds.  The file stays open, so loading a column never opens a
+ * file: it maps (MAPPED storage) or decodes (HEAP, OFF_HEAP) the bytes of
+ * the column only.
+ */
+public class PackedIndex implements Closeable {
+
+	/** First four bytes of a packed index */
+	public static final int MAGIC = 0x424D5049;
+	/** Version of the layout */
+	public static final short VERSION = 1;
+	/** Bytes before the directory */
+	public static final int HEADER_BYTES = 16;
+	/** Bytes of a directory entry */
+	public static final int ENTRY_BYTES = 24;
+	/** Columns start on multiples of this many bytes, so the words of a mapped column are aligned */
+	private static final int ALIGNMENT = Long.BYTES;
+
+	/** Buffer each loading thread reads the columns that fit in it through */
+	private static final ThreadLocal<ByteBuffer> readBuffer =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(RunConfig.LOAD_BUFFER_BYTES));
+
+	private final File file;
+	private final FileChannel channel;
+	/** The mapped directory (only absolute reads are used, so it is shared by all threads) */
+	private final ByteBuffer directory;
+	private final int numEntries;
+
+	private PackedIndex(File file, FileChannel channel, ByteBuffer directory, int numEntries) {
+		this.file = file;
+		this.channel = channel;
+		this.directory = directory;
+		this.numEntries = numEntries;
+	}
+
+	/**
+	 * Opens a packed index
+	 *
+	 * @param file the packed index file
+	 * @return the index, open until close() is called
+	 * @throws IOException if the file cannot be opened, or is not a packed index
+	 */
+	public static PackedIndex open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			VLCCompressedReader.readFully(channel, header);
+			if (header.position() < HEADER_BYTES || header.getInt(0) != MAGIC) {
+				throw new IOException("Not a packed index: " + file);
+			}
+			if (header.getShort(4) != VERSION) {
+				throw new IOException("Unsupported packed index version: " + header.getShort(4));
+			}
+			int numEntries = header.getInt(8);
+			if (numEntries < 0 || HEADER_BYTES + (long) numEntries * ENTRY_BYTES > channel.size()) {
+				throw new IOException("Truncated packed index: " + file);
+			}
+			ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+					(long) numEntries * ENTRY_BYTES);
+			return new PackedIndex(file, channel, directory, numEntries);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the packed index file
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return number of directory entries (the largest column ID plus one)
+	 */
+	public int getNumberOfEntries() {
+		return this.numEntries;
+	}
+
+	/**
+	 * @param colID a column
+	 * @return true if the index holds that column
+	 */
+	public boolean contains(int colID) {
+		return colID >= 0 && colID < this.numEntries && this.getOffset(colID) != 0;
+	}
+
+	/**
+	 * @param colID a column held by the index
+	 * @return offset of the column in the file
+	 */
+	public long getOffset(int colID) {
+		return this.directory.getLong(colID * ENTRY_BYTES);
+	}
+
+	/**
+	 * @param colID a column
+	 * @return bytes taken by the column in the file, 0 if the index does not hold it
+	 */
+	public long getLength(int colID) {
+		return this.contains(colID) ? this.directory.getLong(colID * ENTRY_BYTES + 8) : 0;
+	}
+
+	/**
+	 * @param colID a column held by the index
+	 * @return encoding of the column
+	 */
+	public RunConfig.BitmapEncoding getEncoding(int colID) {
+		return RunConfig.BitmapEncoding.values()[this.directory.get(colID * ENTRY_BYTES + 16)];
+	}
+
+	/**
+	 * @param colID a column held by the index
+	 * @return segment length of the column
+	 */
+	public int getSeglen(int colID) {
+		return this.directory.get(colID * ENTRY_BYTES + 17);
+	}
+
+	/**
+	 * Maps the bytes of a column
+	 *
+	 * @param colID a column
+	 * @return the bytes of the column, as in its column file
+	 * @throws IOException if the index does not hold the column, or it cannot be mapped
+	 */
+	public ByteBuffer map(int colID) throws IOException {
+		if (!this.contains(colID)) {
+			throw new IOException("No column " + colID + " in " + this.file);
+		}
+		return this.channel.map(FileChannel.MapMode.READ_ONLY, this.getOffset(colID), this.getLength(colID));
+	}
+
+	/**
+	 * Maps a column to scan it in place
+	 *
+	 * @param colID a column
+	 * @return read-only collection over the mapped column
+	 * @throws IOException if the index does not hold the column, or it is not valid
+	 */
+	public MappedActiveBitCol mapColumn(int colID) throws IOException {
+		return new MappedActiveBitCol(this.map(colID), PackedIndex.columnName(colID));
+	}
+
+	/**
+	 * Decodes a column onto the heap.  Columns of up to LOAD_BUFFER_BYTES
+	 * are read into a reusable buffer with a single positional read, larger
+	 * ones are mapped (mapping a small column costs more than reading it).
+	 *
+	 * @param colID a column
+	 * @param reader the reader for the encoding of the column
+	 * @return the column
+	 * @throws IOException if the index does not hold the column, or it is not valid
+	 */
+	public ActiveBitCollection readColumn(int colID, CompressedBitmapReader reader) throws IOException {
+		ByteBuffer bytes;
+		long length = this.getLength(colID);
+		if (length > 0 && length <= RunConfig.LOAD_BUFFER_BYTES) {
+			bytes = PackedIndex.readBuffer.get();
+			bytes.clear().limit((int) length);
+			long offset = this.getOffset(colID);
+			while (bytes.hasRemaining()) {
+				if (this.channel.read(bytes, offset + bytes.position()) < 0) {
+					throw new IOException("Truncated packed index: " + this.file);
+				}
+			}
+			bytes.flip();
+		} else {
+			bytes = this.map(colID);
+		}
+		ActiveBitCollection col = reader.readColumn(bytes, PackedIndex.columnName(colID));
+		col.trimToSize();
+		return col;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	/**
+	 * @return the name of a column, the one of its column file
+	 */
+	private static String columnName(int colID) {
+		return RunConfig.CMP_COMPRESSED_INDEX_FILE_PREFIX + colID + RunConfig.CMP_COMPRESSED_INDEX_FILE_EXTENSION;
+	}
+
+	/**
+	 * Packs the column files of a directory (col_N.dat) into a packed index.
+	 * The column files are copied as they are; the index is written next to
+	 * the output file and moved over it once complete.
+	 *
+	 * @param dir directory of the column files
+	 * @param out the packed index file to write
+	 * @return number of columns packed
+	 * @throws IOException if a column file cannot be read or the index cannot be written
+	 */
+	public static int pack(File dir, File out) throws IOException {
+		String prefix = RunConfig.CMP_COMPRESSED_INDEX_FILE_PREFIX;
+		String extension = RunConfig.CMP_COMPRESSED_INDEX_FILE_EXTENSION;
+		TreeMap<Integer, File> files = new TreeMap<>();
+		File[] list = dir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(extension));
+		if (list == null) {
+			throw new IOException("Not a directory: " + dir);
+		}
+		for (File f : list) {
+			String id = f.getName().substring(prefix.length(), f.getName().length() - extension.length());
+			try {
+				files.put(Integer.parseInt(id), f);
+			} catch (NumberFormatException e) {
+				// not a column file
+			}
+		}
+		int numEntries = files.isEmpty() ? 0 : files.lastKey() + 1;
+
+		File tmp = new File(out.getPath() + ".tmp");
+		try (FileChannel dst = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer directory = ByteBuffer.allocate(HEADER_BYTES + numEntries * ENTRY_BYTES);
+			directory.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(numEntries).putInt(0);
+			long pos = PackedIndex.align(directory.capacity());
+			ByteBuffer head = ByteBuffer.allocate(ColumnHeader.BYTES);
+			for (Map.Entry<Integer, File> e : files.entrySet()) {
+				try (FileChannel src = FileChannel.open(e.getValue().toPath(), StandardOpenOption.READ)) {
+					long length = src.size();
+					if (length == 0) {
+						continue;
+					}
+					head.clear().limit((int) Math.min(ColumnHeader.BYTES, length));
+					VLCCompressedReader.readFully(src, head);
+					ColumnHeader header = ColumnHeader.read(head);
+					int seglen = (header != null) ? header.getSeglen() : head.get(0);
+					RunConfig.BitmapEncoding encoding = (header != null) ? header.getEncoding()
+							: ColumnHeader.encodingOf(seglen);
+					directory.position(HEADER_BYTES + e.getKey() * ENTRY_BYTES);
+					directory.putLong(pos).putLong(length).put((byte) encoding.ordinal()).put((byte) seglen);
+
+					for (long copied = 0; copied < length; ) {
+						copied += src.transferTo(copied, length - copied, dst.position(pos + copied));
+					}
+					pos = PackedIndex.align(pos + length);
+				}
+			}
+			// pad the last column, then write the directory over its placeholder
+			dst.truncate(pos);
+			if (dst.size() < pos) {
+				dst.write(ByteBuffer.allocate(1), pos - 1);
+			}
+			directory.clear();
+			for (long written = 0; written < directory.capacity(); ) {
+				written += dst.write(directory, written);
+			}
+		}
+		Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return files.size();
+	}
+
+	/**
+	 * @return the first multiple of ALIGNMENT at or after pos
+	 */
+	private static long align(long pos) {
+		return (pos + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+}
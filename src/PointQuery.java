@@ -16,6 +16,11 @@ abstract public class PointQuery extends Query {
 	}
 
 
+	@Override
+	public int[] getColumnIDs() {
+		return new int[] {this.colID1, this.colID2};
+	}
+
 	@Override
 	public String toString() {
 		return "[p," + this.operator.symbol + "," + this.colID1 + "," + this.colID2 + "]";
@@ -40,4 +45,42 @@ abstract public class PointQuery extends Query {
 	 * @return  the result of vec1 OR vec2
 	 **/
 	abstract public ActiveBitCollection OrQuery(ActiveBitCollection vec1, ActiveBitCollection vec2);
+
+	/**
+	 * Takes two compressed vector and performs an AND NOT
+	 * operation on them (the rows of vec1 that are not in vec2).
+	 * The results are returned in a bit vector
+	 *
+	 * @param vec1 A compressed vector for querying
+	 * @param vec2 A compressed vector for querying
+	 * @return  the result of vec1 AND NOT vec2
+	 **/
+	abstract public ActiveBitCollection AndNotQuery(ActiveBitCollection vec1, ActiveBitCollection vec2);
+
+	/**
+	 * Counts the rows set in vec1 AND vec2 without building the result
+	 *
+	 * @param vec1 A compressed vector for querying
+	 * @param vec2 A compressed vector for querying
+	 * @return  the number of set bits in vec1 AND vec2
+	 * */
+	abstract public long AndCardinality(ActiveBitCollection vec1, ActiveBitCollection vec2);
+
+	/**
+	 * Counts the rows set in vec1 OR vec2 without building the result
+	 *
+	 * @param vec1 A compressed vector for querying
+	 * @param vec2 A compressed vector for querying
+	 * @return  the number of set bits in vec1 OR vec2
+	 * */
+	abstract public long OrCardinality(ActiveBitCollection vec1, ActiveBitCollection vec2);
+
+	/**
+	 * Counts the rows set in vec1 AND NOT vec2 without building the result
+	 *
+	 * @param vec1 A compressed vector for querying
+	 * @param vec2 A compressed vector for querying
+	 * @return  the number of set bits in vec1 AND NOT vec2
+	 * */
+	abstract public long AndNotCardinality(ActiveBitCollection vec1, ActiveBitCollection vec2);
 }
@@ -1,31 +1,51 @@
 
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 abstract public class Query {
 	/**
 	 * Query Operators
-	 * Currently only AND and OR are supported
+	 * Currently AND and OR are supported, and ANDNOT for point queries
 	 */
 	public enum Operator {
-		AND("&"), OR("|");
+		AND("&"), OR("|"), ANDNOT("-");
 
 		String symbol;
 		Operator(String symb) {
 			this.symbol = symb;
 		}
+
+		/**
+		 * @param symb the symbol used in query files (e.g. "&")
+		 * @return the operator written with that symbol
+		 */
+		public static Operator fromSymbol(String symb) {
+			for (Operator op : Operator.values()) {
+				if (op.symbol.equals(symb)) {
+					return op;
+				}
+			}
+			throw new IllegalArgumentException("Unknown operator: " + symb);
+		}
 	}
 
 	/** static variables */
-	public static HashMap<Integer, ActiveBitCollection> columns =
-			new HashMap<>();    // bitmaps
+	public static ColumnCache columns =
+			new ColumnCache(RunConfig.COLUMN_CACHE_BUDGET_BYTES,
+					ColumnCache.createPolicy(RunConfig.COLUMN_EVICTION));    // bitmaps, shared by all the queries running in the JVM
+	public static OffHeapColumnArena arena =
+			new OffHeapColumnArena(RunConfig.OFF_HEAP_SLAB_BYTES);	// direct memory for OFF_HEAP columns
+	public static ColumnPrefetcher prefetcher =
+			new ColumnPrefetcher(RunConfig.PREFETCH_WINDOW);	// loads the upcoming columns of ranges and batches
+	private static final AtomicLong bytesLoaded = new AtomicLong();	// bytes of column files loaded from disk
+	private static PackedIndex packedIndex;		// the packed index columns are loaded from, if any (see getPackedIndex)
+	private static boolean packedIndexOpened = false;
 
 	/** instance variables */
 	protected CompressedBitmapReader cbr; 	// used to read compressed bitmap files
 	protected Operator operator;
+	protected long wordsScanned = 0;	// words of the vectors merged so far by this query
 
 	/**
 	 * Creates a query of the given operator
@@ -37,29 +57,198 @@ abstract public class Query {
 	}
 
 	/**
-	 * Loads a bitmap file into memory
+	 * Loads a bitmap file into memory.  Only called by the column cache,
+	 * which makes sure a column is loaded once even when many queries miss on it.
 	 * @param colID
+	 * @return the column, or null if it could not be read
 	 */
 	protected ActiveBitCollection loadFile(int colID) {
-		if (Query.columns == null) {
-			throw new RuntimeException("This query does not associate with a bitmap.");
+		PackedIndex packed = Query.getPackedIndex();
+		if (packed != null) {
+			return this.loadPacked(packed, colID);
+		}
+		File file = Query.getColumnFile(colID);
+		ActiveBitCollection ret = null;
+		switch (RunConfig.COLUMN_STORAGE) {
+			case MAPPED:
+				// scan the file in place, nothing is copied onto the heap
+				try {
+					ret = MappedActiveBitCol.map(file);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				break;
+			case OFF_HEAP:
+			case HEAP:
+			default:
+				try {
+					ret = this.cbr.readColumn(file);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				if (RunConfig.COLUMN_STORAGE == RunConfig.ColumnStorage.OFF_HEAP && ret != null) {
+					// move it off the heap, the decoded copy becomes garbage right away
+					ret = Query.arena.store(ret);
+				}
+				break;
 		}
-		DataInputStream data_in = null;
+		if (ret != null) {
+			Query.bytesLoaded.addAndGet(file.length());
+		}
+		return ret;
+	}
+
+	/**
+	 * Loads a column from the packed index, the same way loadFile loads it
+	 * from its column file
+	 * @param packed the packed index
+	 * @param colID
+	 * @return the column, or null if it could not be read
+	 */
+	private ActiveBitCollection loadPacked(PackedIndex packed, int colID) {
+		ActiveBitCollection ret = null;
 		try {
-			data_in = new DataInputStream(
-						new FileInputStream(new File(
-								RunConfig.CMP_FULLPATH_TO_COMPRESSED_INDEX +
-								RunConfig.CMP_COMPRESSED_INDEX_FILE_PREFIX + colID +
-								RunConfig.CMP_COMPRESSED_INDEX_FILE_EXTENSION)));
-		} catch (FileNotFoundException e) {
+			switch (RunConfig.COLUMN_STORAGE) {
+				case MAPPED:
+					ret = packed.mapColumn(colID);
+					break;
+				case OFF_HEAP:
+				case HEAP:
+				default:
+					ret = packed.readColumn(colID, this.cbr);
+					if (RunConfig.COLUMN_STORAGE == RunConfig.ColumnStorage.OFF_HEAP) {
+						ret = Query.arena.store(ret);
+					}
+					break;
+			}
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		// store it
-		ActiveBitCollection ret = this.cbr.readColumn(data_in);
-		this.columns.put(colID, ret);
+		if (ret != null) {
+			Query.bytesLoaded.addAndGet(packed.getLength(colID));
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the packed index the columns are loaded from, opening it the
+	 * first time.  There is none when RunConfig.PACKED_INDEX is off or
+	 * RunConfig.CMP_FULLPATH_TO_PACKED_INDEX does not exist, and the columns
+	 * are then loaded from their own files.
+	 * @return the packed index, or null
+	 */
+	public static synchronized PackedIndex getPackedIndex() {
+		if (!Query.packedIndexOpened) {
+			Query.packedIndexOpened = true;
+			File file = new File(RunConfig.CMP_FULLPATH_TO_PACKED_INDEX);
+			if (RunConfig.PACKED_INDEX && file.exists()) {
+				try {
+					Query.packedIndex = PackedIndex.open(file);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return Query.packedIndex;
+	}
+
+	/**
+	 * @param colID
+	 * @return bytes taken by the column on disk, in the packed index or in its column file
+	 */
+	public static long getColumnBytes(int colID) {
+		PackedIndex packed = Query.getPackedIndex();
+		if (packed != null) {
+			return packed.getLength(colID);
+		}
+		return Query.getColumnFile(colID).length();
+	}
+
+	/**
+	 * Starts taking columns in a known order, loading the next ones in the
+	 * background (see ColumnPrefetcher)
+	 * @param colIDs the columns, in the order they are going to be taken
+	 * @return the pipeline to take them from
+	 */
+	protected ColumnPrefetcher.Pipeline prefetch(int[] colIDs) {
+		return Query.prefetcher.pipeline(Query.columns, this::loadFile, colIDs);
+	}
+
+	/**
+	 * Makes a result safe to use once the query has unpinned its columns.
+	 * A result that is one of the columns itself (a single operand, or the
+	 * same column twice) is copied onto the heap if the column is off-heap,
+	 * since the cache may hand that column back to the arena at any time.
+	 * @param result the result vector
+	 * @return the result, or its copy
+	 */
+	protected static ActiveBitCollection detach(ActiveBitCollection result) {
+		if (!(result instanceof OffHeapActiveBitCol)) {
+			return result;
+		}
+		ActiveBitCollection ret = WAHPointQuery.createResult(result.getSeglen(), result.getColName());
+		WordCursor words = result.getWordCursor();
+		while (words.hasNext()) {
+			ret.appendWord(words.nextWord());
+		}
+		ret.trimToSize();
 		return ret;
 	}
 
+	/**
+	 * Removes a column from memory, the same way the cache evicts one.  A
+
+	 * column held off-heap is handed back to the arena right away, unless
+	 * queries or prefetches have it pinned: they keep using it, and the last
+	 * of them to unpin it hands it back (see ColumnCache.release()).
+	 * @param colID
+	 * @return the evicted column (not to be scanned if it is off-heap), or null if it was not loaded
+	 */
+	public static ActiveBitCollection evictColumn(int colID) {
+		ActiveBitCollection col = Query.columns.remove(colID);
+		ColumnCache.release(col);
+		return col;
+	}
+
+	/**
+	 * @param colID
+	 * @return the compressed file holding the given column
+	 */
+	public static File getColumnFile(int colID) {
+		return new File(RunConfig.CMP_FULLPATH_TO_COMPRESSED_INDEX +
+						RunConfig.CMP_COMPRESSED_INDEX_FILE_PREFIX + colID +
+						RunConfig.CMP_COMPRESSED_INDEX_FILE_EXTENSION);
+	}
+
+	/**
+	 * @return bytes of column files loaded from disk by every query so far
+	 */
+	public static long getBytesLoaded() {
+		return Query.bytesLoaded.get();
+	}
+
+	/**
+	 * Zeroes the count of bytes loaded from disk
+	 */
+	public static void resetBytesLoaded() {
+		Query.bytesLoaded.set(0);
+	}
+
+	/**
+	 * @return number of compressed words of the vectors merged by this query so far
+	 */
+	public long getWordsScanned() {
+		return this.wordsScanned;
+	}
+
+	/**
+	 * Accounts for words merged on behalf of this query
+	 * @param words
+	 */
+	void addWordsScanned(long words) {
+		this.wordsScanned += words;
+	}
+
 	/**
 	 * @return the operator to be performed
 	 */
@@ -67,6 +256,11 @@ abstract public class Query {
 		return this.operator;
 	}
 
+	/**
+	 * @return the IDs of the columns this query reads, in operand order
+	 */
+	abstract public int[] getColumnIDs();
+
 	/**
 	 * Assigns the proper bitmap reader according to encoding type
 	 */
@@ -82,5 +276,14 @@ abstract public class Query {
 	 * @return the result vector
 	 */
 	abstract public ActiveBitCollection execute();
+
+	/**
+	 * Executes the query, only counting the matching rows.  Subclasses
+	 * should override this to count without building the result vector.
+	 * @return the number of set bits in the result vector
+	 */
+	public long executeCount() {
+		return this.execute().cardinality();
+	}
 }
 
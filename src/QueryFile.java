@@ -0,0 +1,238 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Reads the query files written by QueryGenerator.  Each line holds one
+ * query, formatted like Query.toString():
+ *   [p,op,col1,col2]   a point query
+ *   [r,op,start,end]   a range query
+ * where op is one of the Operator symbols.  Lines beginning with '#' are
+ * comments.
+ *
+ * Files are streamed through a fixed character buffer and each line is
+ * parsed in place, so reading a query allocates nothing but the query
+ * itself.  A file of millions of queries can thus be replayed without
+ * holding it in memory (see stream()).
+ */
+public class QueryFile {
+
+	/** Characters read from the file at a time */
+	private static final int BUFFER_CHARS = 64 * 1024;
+
+	/**
+	 * Reads every query of a file
+	 *
+	 * @param path the query file
+	 * @return the queries, in file order
+	 * @throws IOException if the file cannot be read
+	 */
+	public static ArrayList<Query> read(String path) throws IOException {
+		return QueryFile.read(path, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the first queries of a file
+	 *
+	 * @param path the query file
+	 * @param maxQueries most queries to read
+	 * @return the queries, in file order
+	 * @throws IOException if the file cannot be read
+	 */
+	public static ArrayList<Query> read(String path, int maxQueries) throws IOException {
+		ArrayList<Query> queries = new ArrayList<>();
+		QueryFile.stream(path, maxQueries, queries::add);
+		return queries;
+	}
+
+	/**
+	 * Parses the queries of a file one at a time, handing each to sink as
+	 * soon as its line is read
+	 *
+	 * @param path the query file
+	 * @param maxQueries most queries to read
+	 * @param sink receives the queries, in file order
+	 * @return number of queries read
+	 * @throws IOException if the file cannot be read
+	 */
+	public static long stream(String path, long maxQueries, Consumer<? super Query> sink) throws IOException {
+		try (Reader in = new FileReader(path)) {
+			return QueryFile.stream(in, maxQueries, sink);
+		}
+	}
+
+	/**
+	 * Parses the queries read from a character stream one at a time
+	 *
+	 * @param in the queries, one per line
+	 * @param maxQueries most queries to read
+	 * @param sink receives the queries, in order
+	 * @return number of queries read
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static long stream(Reader in, long maxQueries, Consumer<? super Query> sink) throws IOException {
+		char[] buf = new char[BUFFER_CHARS];
+		int len = 0;		// characters in buf
+		long count = 0;
+		boolean eof = false;
+		while (count < maxQueries) {
+			// hand out every complete line of the buffer
+			int lineStart = 0;
+			for (int i = 0; i < len && count < maxQueries; i++) {
+				if (buf[i] == '\n') {
+					Query q = QueryFile.parse(buf, lineStart, i);
+					if (q != null) {
+						sink.accept(q);
+						count++;
+					}
+					lineStart = i + 1;
+				}
+			}
+			if (eof || count >= maxQueries) {
+				// the last line need not end with a newline
+				if (count < maxQueries && lineStart < len) {
+					Query q = QueryFile.parse(buf, lineStart, len);
+					if (q != null) {
+						sink.accept(q);
+						count++;
+					}
+				}
+				break;
+			}
+
+			// keep the partial line, growing the buffer if it fills it
+			len -= lineStart;
+			System.arraycopy(buf, lineStart, buf, 0, len);
+			if (len == buf.length) {
+				char[] larger = new char[buf.length * 2];
+				System.arraycopy(buf, 0, larger, 0, len);
+				buf = larger;
+			}
+			int n = in.read(buf, len, buf.length - len);
+			if (n < 0) {
+				eof = true;
+			} else {
+				len += n;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param line a query, e.g. [r,|,3,17]
+	 * @return the query it describes
+	 */
+	public static Query parse(String line) {
+		Query q = QueryFile.parse(line.toCharArray(), 0, line.length());
+		if (q == null) {
+			throw new IllegalArgumentException("Malformed query: " + line);
+		}
+		return q;
+	}
+
+	/**
+	 * Parses one line in place
+	 *
+	 * @param buf holds the line
+	 * @param from first character of the line
+	 * @param to end of the line (exclusive)
+	 * @return the query of the line, or null if the line is blank or a comment
+	 */
+	private static Query parse(char[] buf, int from, int to) {
+		from = QueryFile.skipSpaces(buf, from, to);
+		while (to > from && buf[to - 1] <= ' ') {
+			to--;
+		}
+		if (from == to || buf[from] == '#') {
+			return null;
+		}
+		if (buf[from] != '[' || buf[to - 1] != ']') {
+			throw QueryFile.malformed(buf, from, to);
+		}
+
+		// type
+		int i = QueryFile.skipSpaces(buf, from + 1, to);
+		char type = buf[i];
+		i = QueryFile.expectComma(buf, i + 1, from, to);
+
+		// operator
+		Query.Operator op;
+		switch (buf[i]) {
+			case '&':
+				op = Query.Operator.AND;
+				break;
+			case '|':
+				op = Query.Operator.OR;
+				break;
+			case '-':
+				op = Query.Operator.ANDNOT;
+				break;
+			default:
+				throw QueryFile.malformed(buf, from, to);
+		}
+		i = QueryFile.expectComma(buf, i + 1, from, to);
+
+		// the two columns
+		int first = 0;
+		int digits = 0;
+		for (; i < to && buf[i] >= '0' && buf[i] <= '9'; i++, digits++) {
+			first = first * 10 + (buf[i] - '0');
+		}
+		if (digits == 0) {
+			throw QueryFile.malformed(buf, from, to);
+		}
+		i = QueryFile.expectComma(buf, i, from, to);
+		int second = 0;
+		digits = 0;
+		for (; i < to && buf[i] >= '0' && buf[i] <= '9'; i++, digits++) {
+			second = second * 10 + (buf[i] - '0');
+		}
+		if (digits == 0 || QueryFile.skipSpaces(buf, i, to) != to - 1) {
+			throw QueryFile.malformed(buf, from, to);
+		}
+
+		switch (type) {
+			case 'p':
+				return new WAHPointQuery(op, first, second);
+			case 'r':
+				if (first > second) {
+					throw new IllegalArgumentException("Reversed range: " + new String(buf, from, to - from));
+				}
+				return new WAHRangeQuery(op, first, second);
+			default:
+				throw new IllegalArgumentException("Unknown query type: " + new String(buf, from, to - from));
+		}
+	}
+
+	/**
+	 * @return index of the first character at or after i that is not a space
+	 */
+	private static int skipSpaces(char[] buf, int i, int to) {
+		while (i < to && buf[i] <= ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Skips a comma and the spaces around it
+	 *
+	 * @return index of the first character of the next field
+	 */
+	private static int expectComma(char[] buf, int i, int from, int to) {
+		i = QueryFile.skipSpaces(buf, i, to);
+		if (i >= to || buf[i] != ',') {
+			throw QueryFile.malformed(buf, from, to);
+		}
+		return QueryFile.skipSpaces(buf, i + 1, to);
+	}
+
+	/**
+	 * @return the exception reporting a malformed line
+	 */
+	private static IllegalArgumentException malformed(char[] buf, int from, int to) {
+		return new IllegalArgumentException("Malformed query: " + new String(buf, from, to - from));
+	}
+}
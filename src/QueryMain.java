@@ -0,0 +1,120 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Replays a query file (as written by QueryGenerator) against the compressed
+ * index of the run configuration, and reports:
+ *   - the throughput, in queries per second of wall time (parsing included)
+ *   - the latency percentiles (p50, p90, p99, p99.9) of point queries, of
+ *     range queries, and of both
+ *   - the bytes of column files loaded from disk
+ *   - the statistics of the column cache and of the range result cache
+ *
+ * The file is streamed: each query is parsed, executed, timed and dropped,
+ * so replays of any length run in constant memory (besides the samples).
+ * Queries are run with execute(), or with executeCount() when
+ * RunConfig.QUERY_COUNT_ONLY is set; the report gives the mode as query_mode.
+ * The report is written as key=value lines to EXPR_OUT_FILE under
+ * RunConfig.PATH, and echoed on the console.
+ *
+ * Usage: java QueryMain [queryFile] [maxQueries]
+ */
+public class QueryMain {
+
+	/** The percentiles reported for each query type */
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+	public static void main(String[] args) {
+		String queryFile = (args.length > 0) ? args[0] : RunConfig.QUERY_FULLPATH_TO_FILE;
+		long maxQueries = (args.length > 1) ? Long.parseLong(args[1]) : Long.MAX_VALUE;
+
+		LatencyHistogram point = new LatencyHistogram();
+		LatencyHistogram range = new LatencyHistogram();
+		LatencyHistogram all = new LatencyHistogram();
+		long[] wordsScanned = new long[1];
+
+		Query.resetBytesLoaded();
+		Query.columns.resetStats();
+		Query.prefetcher.resetStats();
+		RangeQuery.results.resetStats();
+
+		long start = System.nanoTime();
+		long numQueries;
+		try {
+			numQueries = QueryFile.stream(queryFile, maxQueries, q -> {
+				long begin = System.nanoTime();
+				if (RunConfig.QUERY_COUNT_ONLY) {
+					q.executeCount();
+				} else {
+					q.execute();
+				}
+				long nanos = System.nanoTime() - begin;
+				all.record(nanos);
+				if (q instanceof PointQuery) {
+					point.record(nanos);
+				} else {
+					range.record(nanos);
+				}
+				wordsScanned[0] += q.getWordsScanned();
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		long wallNanos = System.nanoTime() - start;
+
+		StringBuilder s = new StringBuilder();
+		s.append("# query replay of " + queryFile + "\n");
+		s.append("encoding=" + RunConfig.ENCODING + "\n");
+		s.append("column_storage=" + RunConfig.COLUMN_STORAGE + "\n");
+		s.append("cache_policy=" + RunConfig.CACHE_POLICY + "\n");
+		s.append("query_mode=" + (RunConfig.QUERY_COUNT_ONLY ? "count" : "execute") + "\n");
+		s.append("queries=" + numQueries + "\n");
+		s.append("point_queries=" + point.getCount() + "\n");
+		s.append("range_queries=" + range.getCount() + "\n");
+		s.append("wall_ms=" + wallNanos / 1000000.0 + "\n");
+		s.append("exec_ms=" + all.getTotalNanos() / 1000000.0 + "\n");
+		s.append("qps=" + ((wallNanos == 0) ? 0 : numQueries * 1e9 / wallNanos) + "\n");
+		QueryMain.appendLatency(s, "all", all);
+		QueryMain.appendLatency(s, "point", point);
+		QueryMain.appendLatency(s, "range", range);
+		s.append("bytes_loaded=" + Query.getBytesLoaded() + "\n");
+		s.append("words_scanned=" + wordsScanned[0] + "\n");
+		s.append("column_cache_hits=" + Query.columns.getHits() + "\n");
+		s.append("column_cache_misses=" + Query.columns.getMisses() + "\n");
+		s.append("column_cache_evictions=" + Query.columns.getEvictions() + "\n");
+		s.append("column_cache_hit_rate=" + Query.columns.getHitRate() + "\n");
+		s.append("column_cache_bytes=" + Query.columns.getUsedBytes() + "\n");
+		s.append("column_prefetches=" + Query.prefetcher.getPrefetches() + "\n");
+		s.append("range_lookups=" + RangeQuery.results.getLookups() + "\n");
+		s.append("range_hits=" + RangeQuery.results.getHits() + "\n");
+		s.append("range_exact_hits=" + RangeQuery.results.getExactHits() + "\n");
+		s.append("range_evictions=" + RangeQuery.results.getEvictions() + "\n");
+		s.append("range_hit_rate=" + RangeQuery.results.getHitRate() + "\n");
+		s.append("range_cached_bytes=" + RangeQuery.results.getBytes() + "\n");
+		System.out.print(s);
+
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(RunConfig.PATH + RunConfig.EXPR_OUT_FILE))) {
+			out.write(s.toString());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Appends the latency statistics of one query type, in microseconds
+	 *
+	 * @param s the report
+	 * @param type prefix of the keys
+	 * @param latency the samples of that type
+	 */
+	private static void appendLatency(StringBuilder s, String type, LatencyHistogram latency) {
+		s.append(type + "_latency_mean_us=" + latency.getMeanNanos() / 1000.0 + "\n");
+		for (double p : PERCENTILES) {
+			String name = (p == Math.rint(p)) ? Integer.toString((int) p) : Double.toString(p).replace('.', '_');
+			s.append(type + "_latency_p" + name + "_us=" + latency.getPercentileNanos(p) / 1000.0 + "\n");
+		}
+		s.append(type + "_latency_max_us=" + latency.getMaxNanos() / 1000.0 + "\n");
+	}
+}
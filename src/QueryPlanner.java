@@ -0,0 +1,275 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plans how the columns of a query are combined, from the statistics of
+ * each column (see ColumnStats).
+ *
+ * The operands are first put in the order that keeps the intermediate
+ * results of a chain of pairwise merges small: the sparsest columns first
+ * for AND (every later intermediate is at most as large as the first one),
+ * the smallest columns first for OR (so the largest ones are only read
+ * once, at the end).  For ANDNOT the first operand stays first, and the
+ * densest of the subtracted columns go next.
+ *
+ * The plan then picks the cheaper of two kernels, measured in columns
+ * looked at by a step of a k-way merge:
+ *   - PAIRWISE merges the operands two at a time, in plan order.  Each
+ *     merge reads the previous intermediate and the next column, and writes
+ *     a new intermediate.
+ *   - KWAY streams every operand through one merge (see WAHRangeQuery).  It
+ *     reads every column once, but each step of the merge looks at every
+ *     column, and there are about as many steps as words in the result.
+ * The size of an intermediate is estimated as the smaller input for AND,
+ * the sum of the inputs for OR (at most the uncompressed size of the rows),
+ * and the first input for ANDNOT.
+ *
+ * The statistics of the columns read from disk are gathered once and kept
+ * for as long as the JVM runs (the column files do not change).
+ */
+public class QueryPlanner {
+
+	/**
+	 * Cost of a word read or written by a pairwise merge, relative to one
+	 * column looked at by one step of a k-way merge (decoding and appending a
+	 * word costs about twice as much as combining an already decoded segment,
+	 * as measured with RangeQuery workloads from QueryGenerator)
+	 */
+	private static final double PAIRWISE_WORD_COST = 2.0;
+
+	/**
+	 * The ways of combining the operands of a query
+	 */
+	public enum Kernel {
+		PAIRWISE,	// two at a time, in plan order
+		KWAY		// all at once
+	}
+
+	/**
+	 * How a query is to be combined, and what it is expected to cost
+	 */
+	public static class Plan {
+		public final Query.Operator operator;
+		/** Index of each operand in the query's operand order, in plan order */
+		public final int[] order;
+		/** Statistics of the operands, in plan order */
+		public final ColumnStats[] stats;
+		public final Kernel kernel;
+		/** Estimated cost of each kernel */
+		public final double pairwiseCost;
+		public final double kWayCost;
+		public final double estimatedCardinality;
+
+		Plan(Query.Operator operator, int[] order, ColumnStats[] stats, Kernel kernel, double pairwiseCost,
+				double kWayCost, double estimatedCardinality) {
+			this.operator = operator;
+			this.order = order;
+			this.stats = stats;
+			this.kernel = kernel;
+			this.pairwiseCost = pairwiseCost;
+			this.kWayCost = kWayCost;
+			this.estimatedCardinality = estimatedCardinality;
+		}
+
+		/**
+		 * @return the estimated cost of the chosen kernel
+		 */
+		public double getEstimatedCost() {
+			return (this.kernel == Kernel.PAIRWISE) ? this.pairwiseCost : this.kWayCost;
+		}
+
+		/**
+		 * Describes the plan and compares its estimates with what the query actually did
+		 *
+		 * @param colIDs the operands of the query, in the query's order
+		 * @param actualCost the cost of the chosen kernel, from the actual sizes of the
+		 *     intermediates and of the result (see pairwiseCost() and kWayCost())
+		 * @param cardinality set bits in the actual result
+		 * @param nanos time the query took
+		 * @return the description, one line per item
+		 */
+		public String explain(int[] colIDs, double actualCost, long cardinality, long nanos) {
+			StringBuilder s = new StringBuilder();
+			s.append("kernel=" + this.kernel + " operator=" + this.operator + "\n");
+			for (int i = 0; i < this.order.length; i++) {
+				s.append("  " + (i + 1) + ". col " + colIDs[this.order[i]] + ": " + this.stats[i] + "\n");
+			}
+			s.append(String.format("cost: estimated=%.0f actual=%.0f (pairwise=%.0f kway=%.0f)%n",
+					this.getEstimatedCost(), actualCost, this.pairwiseCost, this.kWayCost));
+			s.append(String.format("cardinality: estimated=%.0f actual=%d%n", this.estimatedCardinality,
+					cardinality));
+			s.append(String.format("time: %.3f ms%n", nanos / 1000000.0));
+			return s.toString();
+		}
+	}
+
+	/** Statistics of the columns seen so far, by column ID */
+	private static final ConcurrentHashMap<Integer, ColumnStats> columnStats = new ConcurrentHashMap<>();
+
+	/**
+	 * @param colID a column
+	 * @param col the column, scanned if its statistics are not known yet
+	 * @return the statistics of the column
+	 */
+	public static ColumnStats getStats(int colID, ActiveBitCollection col) {
+		ColumnStats stats = QueryPlanner.columnStats.get(colID);
+		if (stats == null) {
+			stats = ColumnStats.of(col);
+			QueryPlanner.columnStats.put(colID, stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Forgets the statistics gathered so far
+	 */
+	public static void clearStats() {
+		QueryPlanner.columnStats.clear();
+	}
+
+	/**
+	 * Plans the combination of operands with an operator
+	 *
+	 * @param operator the operator
+	 * @param operands statistics of the operands, in the query's order
+	 * @return the plan
+	 */
+	public static Plan plan(Query.Operator operator, ColumnStats[] operands) {
+		int n = operands.length;
+		Integer[] sorted = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			sorted[i] = i;
+		}
+		Comparator<Integer> byWords = Comparator.comparingLong(i -> operands[i].getNumberOfWords());
+		switch (operator) {
+			case AND:
+				Arrays.sort(sorted, Comparator.<Integer>comparingDouble(i -> operands[i].getDensity())
+						.thenComparing(byWords));
+				break;
+			case OR:
+				Arrays.sort(sorted, byWords);
+				break;
+			case ANDNOT:
+				Arrays.sort(sorted, 1, n, Comparator.<Integer>comparingDouble(i -> -operands[i].getDensity())
+						.thenComparing(byWords));
+				break;
+			default:
+				throw new RuntimeException("Unsupported operator: " + operator.toString());
+		}
+		int[] order = new int[n];
+		ColumnStats[] stats = new ColumnStats[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = sorted[i];
+			stats[i] = operands[sorted[i]];
+		}
+
+		// the uncompressed size of the rows bounds every intermediate
+		long rows = 0;
+		for (ColumnStats s : stats) {
+			rows = Math.max(rows, s.getNumberOfRows());
+		}
+		double maxWords = Math.ceil((double) rows / Math.max(1, stats[0].getSeglen()));
+
+		// estimate the words of every intermediate of the chain, the last one is the result
+		double[] inputs = new double[n];
+		double[] intermediates = new double[n - 1];
+		inputs[0] = stats[0].getNumberOfWords();
+		double words = inputs[0];
+		for (int i = 1; i < n; i++) {
+			inputs[i] = stats[i].getNumberOfWords();
+			words = QueryPlanner.mergedWords(operator, words, inputs[i], maxWords);
+			intermediates[i - 1] = words;
+		}
+		double pairwiseCost = QueryPlanner.pairwiseCost(inputs, intermediates);
+		double kWayCost = QueryPlanner.kWayCost(inputs, words);
+
+		// on a tie, the single pass allocates less
+		Kernel kernel = (n > 2 && pairwiseCost < kWayCost) ? Kernel.PAIRWISE : Kernel.KWAY;
+		return new Plan(operator, order, stats, kernel, pairwiseCost, kWayCost,
+				QueryPlanner.estimateCardinality(operator, stats, rows));
+	}
+
+	/**
+	 * Cost of a chain of pairwise merges: every merge reads the previous
+	 * intermediate (the first input, at first) and the next input, and writes
+	 * the next intermediate
+	 *
+	 * @param inputs words of the inputs, in merge order
+	 * @param intermediates words of the result of each merge
+	 * @return the cost of the chain
+	 */
+	public static double pairwiseCost(double[] inputs, double[] intermediates) {
+		double words = 0;
+		for (int i = 1; i < inputs.length; i++) {
+			words += ((i == 1) ? inputs[0] : intermediates[i - 2]) + inputs[i] + intermediates[i - 1];
+		}
+		return PAIRWISE_WORD_COST * words;
+	}
+
+	/**
+	 * Cost of a k-way merge: every input is read once, and each step of the
+	 * merge (about one per word of the result) looks at every input
+	 *
+	 * @param inputs words of the inputs
+	 * @param result words of the result
+	 * @return the cost of the merge
+	 */
+	public static double kWayCost(double[] inputs, double result) {
+		double words = 0;
+		for (double w : inputs) {
+			words += w;
+		}
+		return words + inputs.length * result;
+	}
+
+	/**
+	 * @return the estimated words of a op b, given the words of a and b
+	 */
+	private static double mergedWords(Query.Operator operator, double a, double b, double maxWords) {
+		switch (operator) {
+			case AND:
+				return Math.min(a, b);
+			case ANDNOT:
+				return a;
+			case OR:
+			default:
+				return Math.min(maxWords, a + b);
+		}
+	}
+
+	/**
+	 * Estimates the set bits of the result, taking the columns as independent
+	 *
+	 * @param operator the operator
+	 * @param stats the operands, the first one first
+	 * @param rows number of rows
+	 * @return the estimated cardinality of the result
+	 */
+	private static double estimateCardinality(Query.Operator operator, ColumnStats[] stats, long rows) {
+		double density;
+		switch (operator) {
+			case AND:
+				density = 1;
+				for (ColumnStats s : stats) {
+					density *= s.getDensity();
+				}
+				break;
+			case OR:
+				double none = 1;
+				for (ColumnStats s : stats) {
+					none *= 1 - s.getDensity();
+				}
+				density = 1 - none;
+				break;
+			case ANDNOT:
+			default:
+				density = stats[0].getDensity();
+				for (int i = 1; i < stats.length; i++) {
+					density *= 1 - stats[i].getDensity();
+				}
+				break;
+		}
+		return density * rows;
+	}
+}
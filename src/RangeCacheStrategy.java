@@ -0,0 +1,311 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * How a range query reuses the results held in the RangeResultCache.
+ *
+ * A strategy picks a cover of the query's range: a set of disjoint cached
+ * ranges inside it.  The cached results of the cover and the columns that
+ * are left uncovered are then merged the way a range is merged without a
+ * cache (planned, see WAHRangeQuery.combine()), the uncovered columns
+ * loading ahead of the merge through one prefetch pipeline, and the result
+ * of the whole range is offered back to the cache.  Strategies differ in
+ * how the cover is chosen and in which results they admit to the cache.
+ */
+abstract public class RangeCacheStrategy {
+
+	/**
+	 * @param policy a cache policy from the run configuration
+	 * @return a new instance of the strategy implementing it
+	 */
+	public static RangeCacheStrategy create(RunConfig.CachePolicy policy) {
+		switch (policy) {
+			case FIND_AND_SPLIT:
+				return new FindAndSplitStrategy();
+			case JARVIS:
+				return new JarvisStrategy();
+			case TAKE_ALL:
+				return new TakeAllStrategy();
+			case NO_CACHE:
+			default:
+				return new NoCacheStrategy();
+		}
+	}
+
+	/**
+	 * Executes a range query
+	 *
+	 * @param query the query
+	 * @param cache the range results to reuse
+	 * @return the result vector
+	 */
+	public ActiveBitCollection execute(WAHRangeQuery query, RangeResultCache cache) {
+		// a single column is its own result
+		if (query.getSize() == 1) {
+			return query.executeNoCache();
+		}
+		this.requested(query.getOperator(), query.getStart(), query.getEnd());
+		return this.compute(query, cache);
+	}
+
+	/**
+	 * Counts the rows set in the result of a range query.  The result is
+	 * only built when the range is to be cached (see caches()); otherwise the
+	 * cached results of the cover and the uncovered columns are counted with
+	 * the same planned merge, which builds nothing.
+	 *
+	 * @param query the query
+	 * @param cache the range results to reuse
+	 * @return the number of set bits in the result vector
+	 */
+	public long executeCount(WAHRangeQuery query, RangeResultCache cache) {
+		if (query.getSize() == 1) {
+			return query.executeCountNoCache();
+		}
+		int start = query.getStart();
+		int end = query.getEnd();
+		this.requested(query.getOperator(), start, end);
+		if (this.caches(query.getOperator(), start, end)) {
+			return this.compute(query, cache).cardinality();
+		}
+		List<RangeResultCache.Entry> cover = this.chooseCover(query, cache);
+		cache.reused(cover, start, end);
+		if (cover.size() == 1 && cover.get(0).start == start && cover.get(0).end == end) {
+			return cover.get(0).result.cardinality();
+		}
+		try (Operands operands = this.gather(query, cache, cover)) {
+			return query.combineCount(operands.toArray(), operands::getStats);
+		}
+	}
+
+	/**
+	 * Computes the result of a range of several columns from its cover,
+	 * and offers it to the cache
+	 *
+	 * @param query the query
+	 * @param cache the range results to reuse
+	 * @return the result vector
+	 */
+	private ActiveBitCollection compute(WAHRangeQuery query, RangeResultCache cache) {
+		int start = query.getStart();
+		int end = query.getEnd();
+		List<RangeResultCache.Entry> cover = this.chooseCover(query, cache);
+		cache.reused(cover, start, end);
+		if (cover.size() == 1 && cover.get(0).start == start && cover.get(0).end == end) {
+			return cover.get(0).result;
+		}
+
+		long begin = System.nanoTime();
+		ActiveBitCollection ret;
+		try (Operands operands = this.gather(query, cache, cover)) {
+			ret = Query.detach(query.combine(operands.toArray(), operands::getStats));
+		}
+		this.cacheResult(query, cache, start, end, ret, System.nanoTime() - begin);
+		return ret;
+	}
+
+	/**
+	 * Gathers the operands of the merge of a query's range: the cached
+	 * results of the cover, and what covers the columns left between them
+	 * (see addUncovered).  The columns that go straight into the merge are
+	 * taken from one prefetch pipeline, in the order of the range, and stay
+	 * pinned until the operands are closed.
+	 *
+	 * @param query the query
+	 * @param cache the range results
+	 * @param cover the cached ranges reused, ordered by start
+	 * @return the operands, in the order of the range
+	 */
+	protected Operands gather(WAHRangeQuery query, RangeResultCache cache, List<RangeResultCache.Entry> cover) {
+		int[] ids = new int[query.getSize()];
+		int numIds = 0;
+		int next = query.getStart();
+		for (int i = 0; i <= cover.size(); i++) {
+			int last = (i < cover.size()) ? cover.get(i).start - 1 : query.getEnd();
+			if (!this.remainderQuery(query.getOperator(), next, last)) {
+				for (int c = next; c <= last; c++) {
+					ids[numIds++] = c;
+				}
+			}
+			if (i < cover.size()) {
+				next = cover.get(i).end + 1;
+			}
+		}
+
+		Operands operands = new Operands(query.prefetch(Arrays.copyOf(ids, numIds)));
+		next = query.getStart();
+		for (RangeResultCache.Entry e : cover) {
+			this.addUncovered(query, cache, operands, next, e.start - 1);
+			operands.add(e.result, e::getStats);
+			next = e.end + 1;
+		}
+		this.addUncovered(query, cache, operands, next, query.getEnd());
+		return operands;
+	}
+
+	/**
+	 * Picks the cached results to reuse for a query
+	 *
+	 * @param query the query
+	 * @param cache the range results
+	 * @return disjoint cached ranges inside the query's range, ordered by start
+	 */
+	abstract protected List<RangeResultCache.Entry> chooseCover(WAHRangeQuery query, RangeResultCache cache);
+
+	/**
+	 * @param operator the operator of the range
+	 * @param start first column of the range
+	 * @param end last column of the range
+	 * @return True if the result of the range should be cached
+	 */
+	protected boolean admit(Query.Operator operator, int start, int end) {
+		return true;
+	}
+
+	/**
+	 * Called once for every query of several columns, executed or counted,
+	 * before its cover is chosen
+	 *
+	 * @param operator the operator of the range
+	 * @param start first column of the range
+	 * @param end last column of the range
+	 */
+	protected void requested(Query.Operator operator, int start, int end) {
+	}
+
+	/**
+	 * Adds what is needed to cover the columns [start, end] that no cached
+	 * result covers to the operands of the merge.  When CACHE_REMAINDER_QUERY
+	 * is set, a remainder of several columns that is to be cached is computed
+	 * (and cached) as a range result of its own, otherwise its columns go
+	 * straight into the merge, taken from the pipeline of the operands.
+	 *
+	 * @param query the query
+	 * @param cache the range results
+	 * @param operands the operands of the merge
+	 * @param start first uncovered column
+	 * @param end last uncovered column (nothing is added if end < start)
+	 */
+	protected void addUncovered(WAHRangeQuery query, RangeResultCache cache, Operands operands, int start,
+			int end) {
+		if (end < start) {
+			return;
+		}
+		if (this.remainderQuery(query.getOperator(), start, end)) {
+			long begin = System.nanoTime();
+			WAHRangeQuery remainder = new WAHRangeQuery(query.getOperator(), start, end);
+			ActiveBitCollection res = remainder.executeNoCache();
+			query.addWordsScanned(remainder.getWordsScanned());
+			this.cacheResult(query, cache, start, end, res, System.nanoTime() - begin);
+			operands.add(res, () -> ColumnStats.of(res));
+			return;
+		}
+		for (int i = start; i <= end; i++) {
+			int colID = i;
+			ActiveBitCollection col = operands.columns.get(colID);
+			operands.add(col, () -> QueryPlanner.getStats(colID, col));
+		}
+	}
+
+	/**
+	 * @param operator the operator of the range
+	 * @param start first uncovered column
+	 * @param end last uncovered column
+	 * @return True if the uncovered columns are computed as a remainder query
+	 * of their own (see addUncovered), false if they go straight into the merge
+	 */
+	protected boolean remainderQuery(Query.Operator operator, int start, int end) {
+		return RunConfig.CACHE_REMAINDER_QUERY && end > start && this.caches(operator, start, end);
+	}
+
+	/**
+	 * Caches the result of a range, unless it is too short (see CACHE_THRESHOLD)
+	 * or the strategy does not admit it
+	 *
+	 * @param query the query
+	 * @param cache the range results
+	 * @param start first column of the range
+	 * @param end last column of the range
+	 * @param result the result of the range
+	 * @param computeNanos time it took to compute the result
+	 */
+	protected void cacheResult(WAHRangeQuery query, RangeResultCache cache, int start, int end,
+			ActiveBitCollection result, long computeNanos) {
+		if (this.caches(query.getOperator(), start, end)) {
+			cache.put(query.getOperator(), start, end, result, computeNanos);
+		}
+	}
+
+	/**
+	 * @param operator the operator of the range
+	 * @param start first column of the range
+	 * @param end last column of the range
+	 * @return True if the result of the range is cached once computed: it is
+	 * long enough (see CACHE_THRESHOLD) and the strategy admits it
+	 */
+	protected boolean caches(Query.Operator operator, int start, int end) {
+		// a single column is already held by the column cache
+		return end > start && end - start + 1 > RunConfig.CACHE_THRESHOLD && this.admit(operator, start, end);
+	}
+
+	/**
+	 * Estimates the number of words a merge has to scan to read a column
+	 *
+	 * @param colID the column
+	 * @return its number of words, from memory if it is loaded, from its file size otherwise
+	 */
+	protected static long columnCost(int colID) {
+		ActiveBitCollection col = Query.columns.get(colID);
+		if (col != null) {
+			return col.getNumberOfWords();
+		}
+		return Math.max(1, Query.getColumnBytes(colID) / Integer.BYTES);
+	}
+
+	/**
+	 * The operands of the merge of a range, and how to get their statistics
+	 * when the merge is planned.  Closing them closes their pipeline.
+	 */
+	protected static class Operands implements AutoCloseable {
+		/** Hands out the uncovered columns that go straight into the merge */
+		final ColumnPrefetcher.Pipeline columns;
+		private final ArrayList<ActiveBitCollection> vecs = new ArrayList<>();
+		private final ArrayList<Supplier<ColumnStats>> stats = new ArrayList<>();
+
+		Operands(ColumnPrefetcher.Pipeline columns) {
+			this.columns = columns;
+		}
+
+		/**
+		 * @param vec an operand
+		 * @param stats gives its statistics
+		 */
+		void add(ActiveBitCollection vec, Supplier<ColumnStats> stats) {
+			this.vecs.add(vec);
+			this.stats.add(stats);
+		}
+
+		/**
+		 * @return the operands, in the order of the range
+		 */
+		ActiveBitCollection[] toArray() {
+			return this.vecs.toArray(new ActiveBitCollection[this.vecs.size()]);
+		}
+
+		/**
+		 * @param i an operand
+		 * @return its statistics
+		 */
+		ColumnStats getStats(int i) {
+			return this.stats.get(i).get();
+		}
+
+		@Override
+		public void close() {
+			this.columns.close();
+		}
+	}
+}
+
@@ -1,5 +1,10 @@
 abstract public class RangeQuery extends Query {
-	protected final static int TMP_ID = -1;	// for intermediate storage in bitmap
+	/** static variables */
+	public static RangeResultCache results =
+			new RangeResultCache(RunConfig.CACHE_BUDGET_BYTES,
+					ColumnCache.createPolicy(RunConfig.CACHE_EVICTION));	// cached range results
+	public static RangeCacheStrategy strategy =
+			RangeCacheStrategy.create(RunConfig.CACHE_POLICY);	// how the cached results are reused
 
 	protected int startColID;
 	protected int endColID;
@@ -13,11 +18,11 @@ abstract public class RangeQuery extends Query {
 	 */
 	public RangeQuery(Operator operator, int start, int end) {
 		super(operator);
-		if (this.startColID > this.endColID) {
-			throw new IllegalArgumentException("Invalid range: " + start + " to "+ end);
-		}
 		this.startColID = start;
 		this.endColID = end;
+		if (this.startColID < 0 || this.startColID > this.endColID) {
+			throw new IllegalArgumentException("Invalid range: " + start + " to "+ end);
+		}
 	}
 
 	/**
@@ -34,6 +39,15 @@ abstract public class RangeQuery extends Query {
 		return this.endColID;
 	}
 
+	@Override
+	public int[] getColumnIDs() {
+		int[] ids = new int[this.getSize()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = this.startColID + i;
+		}
+		return ids;
+	}
+
 	/**
 	 * @return number of vectors requested in the range
 	 */
@@ -41,6 +55,24 @@ abstract public class RangeQuery extends Query {
 		return (this.endColID - this.startColID + 1);
 	}
 
+	/**
+	 * Combines all the given compressed vectors with this query's operator
+	 * in a single pass over all of them. The results are returned in a bit vector
+	 *
+	 * @param vecs The compressed vectors of the range, in order
+	 * @return the result of vecs[0] op vecs[1] op ... op vecs[n-1]
+	 */
+	abstract public ActiveBitCollection KWayQuery(ActiveBitCollection[] vecs);
+
+	/**
+	 * Counts the rows set in the combination of all the given compressed
+	 * vectors without building the result
+	 *
+	 * @param vecs The compressed vectors of the range, in order
+	 * @return the number of set bits in vecs[0] op vecs[1] op ... op vecs[n-1]
+	 */
+	abstract public long KWayCardinality(ActiveBitCollection[] vecs);
+
 	@Override
 	public String toString() {
 		return "[r," + this.operator.symbol + "," + this.startColID + "," + this.endColID + "]";
@@ -0,0 +1,350 @@
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Cache of range query results, shared by every range query running in the JVM.
+ *
+ * A result is stored under its operator and column range [start, end].  An
+ * AND or OR over a range can reuse the result of any range it contains, so
+ * besides exact lookups the cache can find the largest cached range inside a
+ * query's range; the query then only has to combine that result with the
+ * columns it does not cover.
+ *
+ * Like the ColumnCache, the results held are bounded by a memory budget, and
+ * a ColumnEvictionPolicy (keyed by an id given to each result) picks which
+ * results to drop when a new one puts the cache over budget.
+ */
+public class RangeResultCache {
+
+	/**
+	 * A cached result and the range it was computed over
+	 */
+	public static class Entry {
+		/** Id of the entry for the eviction policy */
+		final int id;
+		public final Query.Operator operator;
+		public final int start;
+		public final int end;
+		public final ActiveBitCollection result;
+		/** Bytes the result was accounted for when it was cached */
+		long bytes;
+		/** Statistics of the result, once a merge has been planned with it */
+		private volatile ColumnStats stats;
+
+		Entry(int id, Query.Operator operator, int start, int end, ActiveBitCollection result) {
+			this.id = id;
+			this.operator = operator;
+			this.start = start;
+			this.end = end;
+			this.result = result;
+		}
+
+		/**
+		 * @return number of columns covered
+		 */
+		public int getSize() {
+			return this.end - this.start + 1;
+		}
+
+		/**
+		 * @return the statistics of the result (see ColumnStats), scanned the first time
+		 */
+		public ColumnStats getStats() {
+			ColumnStats stats = this.stats;
+			if (stats == null) {
+				stats = ColumnStats.of(this.result);
+				this.stats = stats;
+			}
+			return stats;
+		}
+
+	}
+
+	/** For every operator, the cached ranges ordered by start then end */
+	private final EnumMap<Query.Operator, TreeMap<Long, Entry>> entries = new EnumMap<>(Query.Operator.class);
+	/** The results held, by id */
+	private final HashMap<Integer, Entry> byId = new HashMap<>();
+	/** Chooses the results to evict */
+	private final ColumnEvictionPolicy policy;
+	/** Most bytes of results held at once */
+	private final long budgetBytes;
+	/** Id of the next result put in the cache */
+	private int nextId = 0;
+	/** Bytes of results held (as reported by getSize()) */
+	private long bytes = 0;
+
+	/** Statistics */
+	private long lookups = 0;
+	private long hits = 0;
+	private long exactHits = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a cache without a memory budget
+	 */
+	public RangeResultCache() {
+		this(Long.MAX_VALUE, new LRUEvictionPolicy());
+	}
+
+	/**
+	 * Creates a cache holding at most budgetBytes of results
+	 *
+	 * @param budgetBytes most bytes of results held at once
+	 * @param policy chooses the results to evict
+	 */
+	public RangeResultCache(long budgetBytes, ColumnEvictionPolicy policy) {
+		if (budgetBytes <= 0) {
+			throw new IllegalArgumentException("Invalid cache budget: " + budgetBytes);
+		}
+		this.budgetBytes = budgetBytes;
+		this.policy = policy;
+	}
+
+	/**
+	 * @param operator the operator of the query
+	 * @param start first column of the query
+	 * @param end last column of the query
+	 * @return the cached result of exactly this range, or null
+	 */
+	public synchronized ActiveBitCollection get(Query.Operator operator, int start, int end) {
+		TreeMap<Long, Entry> ranges = this.entries.get(operator);
+		Entry e = (ranges == null) ? null : ranges.get(RangeResultCache.key(start, end));
+		return (e == null) ? null : e.result;
+	}
+
+	/**
+	 * Finds the cached range covering the most columns of [start, end]
+	 * without going outside of it.  Counts as a lookup in the statistics.
+	 *
+	 * @param operator the operator of the query
+	 * @param start first column of the query
+	 * @param end last column of the query
+	 * @return the largest cached range inside [start, end], or null if there is none
+	 */
+	public synchronized Entry findLargestContained(Query.Operator operator, int start, int end) {
+		this.lookups++;
+		TreeMap<Long, Entry> ranges = this.entries.get(operator);
+		if (ranges == null) {
+			return null;
+		}
+		Entry best = null;
+		// every range starting inside [start, end], the ones ending past end are skipped
+		for (Entry e : ranges.subMap(RangeResultCache.key(start, start), true,
+				RangeResultCache.key(end, end), true).values()) {
+			if (e.end <= end && (best == null || e.getSize() > best.getSize())) {
+				best = e;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Finds every cached range inside [start, end].  Counts as a lookup in the statistics.
+	 *
+	 * @param operator the operator of the query
+	 * @param start first column of the query
+	 * @param end last column of the query
+	 * @return the cached ranges inside [start, end], ordered by start then end
+	 */
+	public synchronized Entry[] findContained(Query.Operator operator, int start, int end) {
+		this.lookups++;
+		TreeMap<Long, Entry> ranges = this.entries.get(operator);
+		if (ranges == null) {
+			return new Entry[0];
+		}
+		return ranges.subMap(RangeResultCache.key(start, start), true, RangeResultCache.key(end, end), true)
+				.values().stream().filter(e -> e.end <= end).toArray(Entry[]::new);
+	}
+
+	/**
+	 * Records that a query over [start, end] reused the given results (counting
+	 * a hit, or an exact hit if a single result covered the whole range), so the
+	 * eviction policy sees them as used.
+	 *
+	 * @param used the results reused by the query
+	 * @param start first column of the query
+	 * @param end last column of the query
+	 */
+	public synchronized void reused(List<Entry> used, int start, int end) {
+		if (used.isEmpty()) {
+			return;
+		}
+		this.hits++;
+		if (used.size() == 1 && used.get(0).start == start && used.get(0).end == end) {
+			this.exactHits++;
+		}
+		for (Entry e : used) {
+			this.policy.accessed(e.id);
+		}
+	}
+
+	/**
+	 * Caches the result of a range, replacing any previous result of the same range
+	 *
+	 * @param operator the operator of the query
+	 * @param start first column of the range
+	 * @param end last column of the range
+	 * @param result the result of the range
+	 */
+	public void put(Query.Operator operator, int start, int end, ActiveBitCollection result) {
+		this.put(operator, start, end, result, 0);
+	}
+
+	/**
+	 * Caches the result of a range, replacing any previous result of the same range,
+	 * then evicts other results until the cache is back within budget
+	 *
+	 * @param operator the operator of the query
+	 * @param start first column of the range
+	 * @param end last column of the range
+	 * @param result the result of the range
+	 * @param computeNanos time it took to compute the result (for cost-aware eviction)
+	 */
+	public synchronized void put(Query.Operator operator, int start, int end, ActiveBitCollection result,
+			long computeNanos) {
+		if (start > end) {
+			throw new IllegalArgumentException("Invalid range: " + start + " to " + end);
+		}
+		TreeMap<Long, Entry> ranges = this.entries.computeIfAbsent(operator, op -> new TreeMap<>());
+		Entry e = new Entry(this.nextId++, operator, start, end, result);
+		Entry previous = ranges.put(RangeResultCache.key(start, end), e);
+		if (previous != null) {
+			this.forget(previous);
+		}
+		// cached results are merged again and again, like columns
+		ColumnRunIndex.attach(result);
+		long size = ColumnCache.sizeOf(result);
+		e.bytes = size;
+		this.byId.put(e.id, e);
+		this.bytes += size;
+		this.policy.admitted(e.id, size, computeNanos);
+
+		while (this.bytes > this.budgetBytes) {
+			Entry victim = this.byId.get(this.policy.victim(e.id));
+			if (victim == null) {
+				break;
+			}
+			this.entries.get(victim.operator).remove(RangeResultCache.key(victim.start, victim.end));
+			this.forget(victim);
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * Removes the result of a range
+	 *
+	 * @param operator the operator of the query
+	 * @param start first column of the range
+	 * @param end last column of the range
+	 * @return the removed result, or null if it was not cached
+	 */
+	public synchronized ActiveBitCollection remove(Query.Operator operator, int start, int end) {
+		TreeMap<Long, Entry> ranges = this.entries.get(operator);
+		Entry e = (ranges == null) ? null : ranges.remove(RangeResultCache.key(start, end));
+		if (e == null) {
+			return null;
+		}
+		this.forget(e);
+		return e.result;
+	}
+
+	/**
+	 * Drops every result (the statistics are kept)
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.byId.clear();
+		this.policy.clear();
+		this.bytes = 0;
+	}
+
+	/**
+	 * @return number of results held
+	 */
+	public synchronized int getNumberOfEntries() {
+		return this.byId.size();
+	}
+
+	/**
+	 * @return bytes of results held
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return the memory budget in bytes
+	 */
+	public long getBudgetBytes() {
+		return this.budgetBytes;
+	}
+
+	/**
+	 * @return number of lookups made by queries
+	 */
+	public synchronized long getLookups() {
+		return this.lookups;
+	}
+
+	/**
+	 * @return number of lookups that found a cached range to reuse
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return number of lookups that found the exact range
+	 */
+	public synchronized long getExactHits() {
+		return this.exactHits;
+	}
+
+	/**
+	 * @return number of results evicted to stay within the budget
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * @return fraction of lookups that reused a cached result
+	 */
+	public synchronized double getHitRate() {
+		return (this.lookups == 0) ? 0 : (double) this.hits / this.lookups;
+	}
+
+	/**
+	 * Zeroes the lookup, hit and eviction counters
+	 */
+	public synchronized void resetStats() {
+		this.lookups = 0;
+		this.hits = 0;
+		this.exactHits = 0;
+		this.evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "lookups=" + this.lookups + " hits=" + this.hits + " exactHits=" + this.exactHits +
+				" evictions=" + this.evictions + " entries=" + this.byId.size() + " bytes=" + this.bytes;
+	}
+
+	/**
+	 * Stops accounting for a result that was taken out of the range index
+	 */
+	private void forget(Entry e) {
+		this.byId.remove(e.id);
+		this.bytes -= e.bytes;
+		this.policy.removed(e.id);
+	}
+
+	/**
+	 * @return the key of a range, ordering ranges by start then end
+	 */
+	private static long key(int start, int end) {
+		return ((long) start << 32) | (end & 0xFFFFFFFFL);
+	}
+}
@@ -54,10 +54,37 @@ public class RunConfig {
 	public final static String CMP_FULLPATH_TO_RAW_FILE = PATH + CMP_RAW_FILE_FOR_COMPRESSION;      // derived
 	public final static String CMP_FULLPATH_TO_COMPRESSED_INDEX =
 			CMP_FULLPATH_TO_RAW_FILE.substring(0, CMP_FULLPATH_TO_RAW_FILE.indexOf(".")) + "/";   // derived
+	public final static String CMP_FULLPATH_TO_PACKED_INDEX =
+			CMP_FULLPATH_TO_RAW_FILE.substring(0, CMP_FULLPATH_TO_RAW_FILE.indexOf(".")) + ".idx";   // derived (see PackedIndex)
+	public final static int CMP_BUFFER_BYTES = 16 * 1024;	// compressed bytes of each column held before they are appended to its file
+	public final static int CMP_VLC_SEGMENT_LENGTH = 28;	// segment length of VLC columns (at most 31)
+	public final static int CMP_PARALLELISM = Runtime.getRuntime().availableProcessors();	// threads compressing the raw file (1: stream it on one thread)
+	public final static int CMP_CHUNK_ROWS = 1 << 16;		// rows of the raw file compressed by each parallel task (rounded up to 64 segments)
 
 	/** For QueryMain files */
 	public final static String QUERY_FILE = QUERYGEN_OUT_FILE;	// without path
 	public final static String QUERY_FULLPATH_TO_FILE = PATH + QUERY_FILE;
+	public final static boolean QUERY_COUNT_ONLY = false;	// QueryMain only counts the rows of each query (executeCount) instead of building its result (execute)
+	public final static ColumnStorage COLUMN_STORAGE = ColumnStorage.HEAP;	// where loaded columns live
+//	public final static ColumnStorage COLUMN_STORAGE = ColumnStorage.MAPPED;
+//	public final static ColumnStorage COLUMN_STORAGE = ColumnStorage.OFF_HEAP;
+	public final static int RUN_INDEX_STRIDE = 64;			// words between the checkpoints of the run index of a loaded column (0: no run indexes)
+	public final static boolean QUERY_PLANNER = true;		// order range operands by cost, and pick pairwise or k-way merges
+	public final static int RANGE_PARALLEL_THRESHOLD = 32;	// ranges of fewer columns are merged on one thread (Integer.MAX_VALUE to never fork)
+	public final static int RANGE_PARALLEL_LEAF = 8;		// columns k-way merged by each leaf of a parallel range reduction
+	public final static int BATCH_WINDOW = 1024;			// queries sharing the decoding of their columns at most, in batch mode
+	public final static long BATCH_DECODE_BUDGET_BYTES = 256L * 1024 * 1024;	// decoded columns kept at once by a batch window
+	public final static int RANGE_PARALLELISM = Runtime.getRuntime().availableProcessors();	// threads of the parallel range pool
+	public final static int PREFETCH_WINDOW = 4;			// columns of a range or batch loaded in the background ahead of the one in use (0: no prefetching)
+	public final static int LOAD_BUFFER_BYTES = 1024 * 1024;	// bytes of a column file read from disk at a time
+	public final static boolean PACKED_INDEX = true;			// load columns from CMP_FULLPATH_TO_PACKED_INDEX when it exists, else from the column files
+	public final static boolean VERIFY_COLUMN_CHECKSUMS = true;	// check the CRC32C of column files with a header when loading them
+	public final static int VECTOR_CHUNK_BYTES = 1024 * 1024;	// bytes of a vector sent to (or written by) a slave node at a time
+	public final static int OFF_HEAP_SLAB_BYTES = 64 * 1024 * 1024;	// direct memory reserved at a time for OFF_HEAP
+	public final static long COLUMN_CACHE_BUDGET_BYTES = 512L * 1024 * 1024;	// evict loaded columns beyond this many bytes
+	public final static ColumnEviction COLUMN_EVICTION = ColumnEviction.LRU;	// which loaded column to evict first
+//	public final static ColumnEviction COLUMN_EVICTION = ColumnEviction.LFU;
+//	public final static ColumnEviction COLUMN_EVICTION = ColumnEviction.COST_AWARE;
 
 	/** Caching support */
 	public final static CachePolicy CACHE_POLICY = CachePolicy.NO_CACHE;
@@ -66,6 +93,9 @@ public class RunConfig {
 //	public final static CachePolicy CACHE_POLICY = CachePolicy.TAKE_ALL;
 	public final static int CACHE_THRESHOLD = 0;				// don't cache a result unless range exceeds threshold
 	public final static boolean CACHE_REMAINDER_QUERY = false;	// cache results from remainder query?
+	public final static long CACHE_BUDGET_BYTES = 256L * 1024 * 1024;	// evict cached range results beyond this many bytes
+	public final static ColumnEviction CACHE_EVICTION = ColumnEviction.LRU;	// which cached range result to evict first
+	public final static int CACHE_JARVIS_ADMIT_COUNT = 2;		// JARVIS only caches a range once it was asked this many times
 
 	/**
 	 * For experiments and logging
@@ -75,7 +105,8 @@ public class RunConfig {
 
 
 	/**
-	 * A listing of supported encodings
+	 * A listing of supported encodings (column file headers store the
+	 * ordinal, so new encodings go at the end)
 	 */
 	public enum BitmapEncoding {
 		WAH32(32),
@@ -94,6 +125,24 @@ public class RunConfig {
 		}
 	}
 
+	/**
+	 * Listing of the ways a column can be held in memory once loaded
+	 */
+	public enum ColumnStorage {
+		HEAP,		// decoded onto the Java heap
+		MAPPED,		// read-only, scanned directly from a memory-mapped column file
+		OFF_HEAP	// decoded, then copied into a direct memory arena and freed on eviction
+	}
+
+	/**
+	 * Listing of the eviction policies of the loaded column cache
+	 */
+	public enum ColumnEviction {
+		LRU,		// least recently used
+		LFU,		// least frequently used
+		COST_AWARE	// lowest reload time per byte held (GreedyDual-Size)
+	}
+
 	/**
 	 * Listing of supported cache policies
 	 */
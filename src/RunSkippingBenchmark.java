@@ -0,0 +1,134 @@
+import java.util.Random;
+
+/**
+ * Micro benchmark for the run skipping point query kernels.
+ *
+ * A sparse column (a few set rows, so mostly runs of zeros) is combined
+ * with a dense column of random literals, once with the lockstep kernel and
+ * once with run skipping, for a range of densities of the sparse column.
+ * AND and ANDNOT skip the zero runs of the sparse column; OR is run on the
+ * complement of the sparse column so that it skips runs of ones.
+ *
+ * Usage: java RunSkippingBenchmark [numRows] [repetitions]
+ */
+public class RunSkippingBenchmark {
+
+	/** Densities of the sparse column */
+	private static final double[] DENSITIES = {0.00001, 0.0001, 0.001, 0.01, 0.1, 0.5};
+	/** Segment length of the generated columns */
+	private static final int SEGLEN = 31;
+	/** Number of untimed runs before measuring */
+	private static final int WARMUP = 5;
+
+	public static void main(String[] args) {
+		int numRows = (args.length > 0) ? Integer.parseInt(args[0]) : RunConfig.DATAGEN_NUM_ROWS;
+		int reps = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+		Random rand = new Random(42);
+
+		ActiveBitCollection dense = RunSkippingBenchmark.generate(numRows, 0.5, rand, false);
+		System.out.println("rows=" + numRows + " reps=" + reps + " dense words=" + dense.getNumberOfWords());
+		System.out.printf("%-10s %-8s %10s %14s %14s %9s%n",
+				"density", "op", "words", "lockstep(us)", "skipping(us)", "speedup");
+
+		for (double density : DENSITIES) {
+			ActiveBitCollection sparse = RunSkippingBenchmark.generate(numRows, density, rand, false);
+			ActiveBitCollection sparseComplement = RunSkippingBenchmark.generate(numRows, density, rand, true);
+			RunSkippingBenchmark.run(density, Query.Operator.AND, sparse, dense, reps);
+			RunSkippingBenchmark.run(density, Query.Operator.ANDNOT, sparse, dense, reps);
+			RunSkippingBenchmark.run(density, Query.Operator.OR, sparseComplement, dense, reps);
+		}
+	}
+
+	/**
+	 * Times one operator with and without run skipping and prints a row of the table
+	 *
+	 * @param density density of the sparse column
+	 * @param op the operator
+	 * @param vec1 the sparse column
+	 * @param vec2 the dense column
+	 * @param reps number of timed runs
+	 */
+	private static void run(double density, Query.Operator op, ActiveBitCollection vec1,
+			ActiveBitCollection vec2, int reps) {
+		WAHPointQuery lockstep = new WAHPointQuery(op, 0, 1);
+		lockstep.setRunSkipping(false);
+		WAHPointQuery skipping = new WAHPointQuery(op, 0, 1);
+
+		long lockstepNanos = RunSkippingBenchmark.time(lockstep, op, vec1, vec2, reps);
+		long skippingNanos = RunSkippingBenchmark.time(skipping, op, vec1, vec2, reps);
+
+		// both kernels must agree on the answer
+		ActiveBitCollection expected = RunSkippingBenchmark.apply(lockstep, op, vec1, vec2);
+		ActiveBitCollection actual = RunSkippingBenchmark.apply(skipping, op, vec1, vec2);
+		if (expected.cardinality() != actual.cardinality()) {
+			throw new RuntimeException("Kernels disagree for " + op + " at density " + density);
+		}
+
+		System.out.printf("%-10s %-8s %10d %14.1f %14.1f %8.2fx%n", density, op, vec1.getNumberOfWords(),
+				lockstepNanos / 1000.0 / reps, skippingNanos / 1000.0 / reps,
+				(double) lockstepNanos / Math.max(1, skippingNanos));
+	}
+
+	/**
+	 * @return total time in nanoseconds of reps runs (after warming up)
+	 */
+	private static long time(WAHPointQuery q, Query.Operator op, ActiveBitCollection vec1,
+			ActiveBitCollection vec2, int reps) {
+		long words = 0;
+		for (int i = 0; i < WARMUP; i++) {
+			words += RunSkippingBenchmark.apply(q, op, vec1, vec2).getNumberOfWords();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < reps; i++) {
+			words += RunSkippingBenchmark.apply(q, op, vec1, vec2).getNumberOfWords();
+		}
+		long elapsed = System.nanoTime() - start;
+		if (words < 0) {
+			// keeps the results alive
+			System.out.println(words);
+		}
+		return elapsed;
+	}
+
+	/**
+	 * @return vec1 op vec2
+	 */
+	private static ActiveBitCollection apply(WAHPointQuery q, Query.Operator op, ActiveBitCollection vec1,
+			ActiveBitCollection vec2) {
+		switch (op) {
+			case AND:
+				return q.AndQuery(vec1, vec2);
+			case OR:
+				return q.OrQuery(vec1, vec2);
+			case ANDNOT:
+				return q.AndNotQuery(vec1, vec2);
+			default:
+				throw new RuntimeException("Unsupported operator: " + op.toString());
+		}
+	}
+
+	/**
+	 * Builds a WAH column where every row is set with the given probability
+	 *
+	 * @param numRows number of rows
+	 * @param density probability that a row is set
+	 * @param rand random source
+	 * @param complement if true every bit is flipped (so the column is mostly ones)
+	 * @return the compressed column
+	 */
+	private static ActiveBitCollection generate(int numRows, double density, Random rand, boolean complement) {
+		VLCActiveBitCol col = new VLCActiveBitCol(SEGLEN, "bench_" + density);
+		long ones = (1L << SEGLEN) - 1;
+		for (int row = 0; row < numRows; row += SEGLEN) {
+			long lit = 0;
+			for (int b = 0; b < SEGLEN && row + b < numRows; b++) {
+				if (rand.nextDouble() < density) {
+					lit |= 1L << (SEGLEN - 1 - b);
+				}
+			}
+			col.appendLiteral(complement ? (~lit & ones) : lit);
+		}
+		col.trimToSize();
+		return col;
+	}
+}
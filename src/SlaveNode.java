@@ -1,4 +1,12 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
@@ -6,14 +14,27 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
+import java.util.zip.CRC32C;
 
+/**
+ * Keeps vectors on disk, one file per vector in the binary layout of the
+ * column files (see VectorStream), and sends them to other slave nodes.
+ * Vectors are received in chunks into a temporary file, which replaces the
+ * vector once it is complete and matches its header, so a vector being
+ * received never has to fit in memory and a failed transfer leaves the old
+ * vector in place.
+ */
 public class SlaveNode implements ISlaveNode {
 
     private String id;
+    /** Vectors being received, by transfer id */
+    private final Map<Long, Transfer> transfers = new ConcurrentHashMap<>();
+    private final AtomicLong nextTransfer = new AtomicLong();
 
     protected SlaveNode(String id) {
         this.id = id;
@@ -42,20 +63,73 @@ public class SlaveNode implements ISlaveNode {
             return;
             // throw new IllegalArgumentException("Null vector");
         }
-        final String path = getVectorPath(vector.toString(), vector.getId());
+        long transfer = this.beginVector(BitmapVectorType.WAH.toString(), vector.getId());
         try {
-            FileWriter writer = new FileWriter(path);
-            while (vector.getSegmentIterator().hasNext()) {
-                try {
-                    writer.write(vector.getSegmentIterator() + "/n");
-                } catch (IOException e) {
-                    handleIOException(e);
-                }
+            VectorStream.write(vector, this.getTransfer(transfer));
+        } catch (IOException e) {
+            this.abortVector(transfer);
+            handleIOException(e);
+        }
+        this.endVector(transfer);
+    }
+
+    // RMI
+    public long beginVector(String vectorType, String vectorId) throws IllegalArgumentException {
+        if (Stream.of(vectorType, vectorId).anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("Must provide nonnull arguments");
+        }
+        long transfer = this.nextTransfer.incrementAndGet();
+        Path path = Paths.get(getVectorPath(vectorType, vectorId));
+        Path tmp = Paths.get(path + "." + transfer + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
             }
+            FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.transfers.put(transfer, new Transfer(path, tmp, channel));
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+        return transfer;
+    }
+
+    // RMI
+    public void putChunk(long transfer, byte[] chunk) throws IllegalArgumentException {
+        Transfer t = this.getTransfer(transfer);
+        try {
+            t.write(ByteBuffer.wrap(chunk));
         } catch (IOException e) {
+            this.abortVector(transfer);
             handleIOException(e);
         }
+    }
 
+    // RMI
+    public void endVector(long transfer) throws IllegalArgumentException {
+        Transfer t = this.getTransfer(transfer);
+        try {
+            t.finish();
+            Files.move(t.tmp, t.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.transfers.remove(transfer);
+        } catch (IOException e) {
+            this.abortVector(transfer);
+            handleIOException(e);
+        }
+    }
+
+    // RMI
+    public void abortVector(long transfer) {
+        Transfer t = this.transfers.remove(transfer);
+        if (t == null) {
+            return;
+        }
+        try {
+            t.close();
+            Files.deleteIfExists(t.tmp);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     // RMI
@@ -69,17 +143,12 @@ public class SlaveNode implements ISlaveNode {
             throw new IllegalArgumentException("Must provide nonnull arguments");
         }
         final String vectorPath = getVectorPath(vectorType.toString(), vectorId);
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(vectorPath));
-            List<Long> list = new ArrayList<Long>();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                list.add(Long.parseLong(line));
-            }
-            SlaveNode node = (SlaveNode) Naming.lookup(otherNode);
+        try (FileChannel in = FileChannel.open(Paths.get(vectorPath), StandardOpenOption.READ)) {
+            ISlaveNode node = (ISlaveNode) Naming.lookup(otherNode);
             switch (vectorType) {
                 case WAH:
-                    //node.putVector(new WAHVector(vectorId, list));
+                    VectorStream.send(in, node, vectorType.toString(), vectorId);
+                    break;
                 default:
                     throw new IllegalArgumentException();
             }
@@ -97,8 +166,79 @@ public class SlaveNode implements ISlaveNode {
         return vectorType + "/" + vectorID;
     }
 
+    private Transfer getTransfer(long transfer) throws IllegalArgumentException {
+        Transfer t = this.transfers.get(transfer);
+        if (t == null) {
+            throw new IllegalArgumentException("No vector transfer " + transfer);
+        }
+        return t;
+    }
+
     private void handleIOException(IOException e) throws IllegalArgumentException {
         e.printStackTrace();
         throw new IllegalArgumentException("Could not write BitmapVector at this time. Reason: " + e.getMessage());
     }
+
+    /**
+     * A vector being received into a temporary file.  The words are checked
+     * against the CRC32C of the header as they arrive, so finishing the
+     * transfer does not read the file back.
+     */
+    private static class Transfer implements WritableByteChannel {
+        private final Path path;
+        private final Path tmp;
+        private final FileChannel channel;
+        private final CRC32C crc = new CRC32C();
+        /** The header, as received so far */
+        private final ByteBuffer head = ByteBuffer.allocate(ColumnHeader.BYTES);
+        private long received = 0;
+
+        Transfer(Path path, Path tmp, FileChannel channel) {
+            this.path = path;
+            this.tmp = tmp;
+            this.channel = channel;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer chunk) throws IOException {
+            int n = chunk.remaining();
+            // the bytes of the header are kept, the ones after it are words
+            ByteBuffer part = chunk.duplicate();
+            part.limit(part.position() + Math.min(n, this.head.remaining()));
+            this.head.put(part);
+            part.limit(chunk.limit());
+            this.crc.update(part);
+            while (chunk.hasRemaining()) {
+                this.channel.write(chunk);
+            }
+            this.received += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+
+        synchronized void finish() throws IOException {
+            this.close();
+            ColumnHeader header = (this.received >= ColumnHeader.BYTES) ? ColumnHeader.read(this.head.flip()) : null;
+            if (header == null) {
+                throw new IOException("Vector " + this.path + " has no header");
+            }
+            long expected = ColumnHeader.BYTES + header.getNumberOfWords() * header.getWordBytes();
+            if (this.received != expected) {
+                throw new IOException("Vector " + this.path + " has " + this.received + " bytes, its header " +
+                        expected);
+            }
+            if (RunConfig.VERIFY_COLUMN_CHECKSUMS) {
+                header.verify(this.crc, this.path.toString());
+            }
+        }
+    }
 }
@@ -0,0 +1,37 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reuses as many cached ranges as fit in the query's range: the largest
+ * cached range first, then the largest of the ones that do not overlap it,
+ * and so on.  Only the columns left between them are read.  Every result
+ * is cached.
+ */
+public class TakeAllStrategy extends RangeCacheStrategy {
+
+	@Override
+	protected List<RangeResultCache.Entry> chooseCover(WAHRangeQuery query, RangeResultCache cache) {
+		RangeResultCache.Entry[] candidates = cache.findContained(query.getOperator(), query.getStart(), query.getEnd());
+		// largest first
+		Arrays.sort(candidates, Comparator.comparingInt(RangeResultCache.Entry::getSize).reversed()
+				.thenComparingInt(e -> e.start));
+
+		ArrayList<RangeResultCache.Entry> cover = new ArrayList<>();
+		for (RangeResultCache.Entry e : candidates) {
+			boolean overlaps = false;
+			for (RangeResultCache.Entry taken : cover) {
+				if (e.start <= taken.end && taken.start <= e.end) {
+					overlaps = true;
+					break;
+				}
+			}
+			if (!overlaps) {
+				cover.add(e);
+			}
+		}
+		cover.sort(Comparator.comparingInt(e -> e.start));
+		return cover;
+	}
+}
@@ -1,17 +1,16 @@
-
-
-import java.util.ArrayList;
-import java.util.Iterator;
-
 public class VALActiveBitCollection implements ActiveBitCollection {
 
 	public String name = "";
 	private String id;
+	/** Run index of the column, if it has one (see ColumnRunIndex) */
+	private volatile ColumnRunIndex runIndex;
+	/** Number of rows held by the column, -1 if unknown */
+	private long numRows = -1;
     static long[] power2 = {1,2,4,8,16,32,64,128,256,512,1024,2048,4096,8192,16384,32768,
         65536,131072,262144,524288,1048576,2097152,4194304,8388608,16777216,33554432,
         67108864,134217728,268435456,536870912,1073741824,2147483648L};
     //public Vector vec; // list of regular code words
-    public ArrayList<Long> vec;
+    public WordBuffer vec;
 
     public VALActiveBlock activeBlock = new VALActiveBlock(); // active block (7,14 or 28 bit)
     public VALActiveBlock lastBlock = new VALActiveBlock();
@@ -25,6 +24,9 @@ public class VALActiveBitCollection implements ActiveBitCollection {
 	//JS: this will be used to determine if
 	//the last activeword has been written or not;
 	private boolean  needCleanUp = true;
+	/** True once words are built from VAL blocks (appendLiteral, appendFill), false while
+	 * the words are plain WAH words, one segment per word, as VLCCompressedReader adds them */
+	private boolean valBlocks = false;
    // public int maxPos=0;
     static int [] countOnes = {0,1,1,2,1,2,2,3,1,2,2,3,2,3,3,4,1,2,2,3,2,3,3,4,2,3,3,4,3,4,4,5,
                                1,2,2,3,2,3,3,4,2,3,3,4,3,4,4,5,2,3,3,4,3,4,4,5,3,4,4,5,4,5,5,6,
@@ -37,7 +39,7 @@ public class VALActiveBitCollection implements ActiveBitCollection {
 
 
     public VALActiveBitCollection() {
-        this.vec = new ArrayList<Long>(); //active = new activeWord();
+        this.vec = new WordBuffer(); //active = new activeWord();
        // System.out.println("initial size= "+ vec.size());
 
     }
@@ -50,12 +52,12 @@ public class VALActiveBitCollection implements ActiveBitCollection {
     public VALActiveBitCollection(String name){
         this.name = name;
         //vec = new Vector(); //active = new activeWord();
-        this.vec = new ArrayList<Long>();
+        this.vec = new WordBuffer();
     }
     public VALActiveBitCollection( int seglen, String name){
         this.name = name;
         this.seglen = seglen;
-        this.vec = new ArrayList<Long>();
+        this.vec = WordBuffer.forSeglen(seglen);
     }
 
     public void decodeBlock(int numOfBlocks) {
@@ -93,6 +95,7 @@ public class VALActiveBitCollection implements ActiveBitCollection {
     	// n is the number of segments appended
     	//numOfBlocks is the number of blocks in a word
     	this.needCleanUp=true;
+    	this.valBlocks = true;
 
     	if (lastBlock.position>0) {
     		if (fillBit == 0) {
@@ -142,6 +145,7 @@ public class VALActiveBitCollection implements ActiveBitCollection {
 
     public void appendLiteralBlock(int numOfBlocks){
     	this.needCleanUp = true;
+    	this.valBlocks = true;
     	if (lastBlock.position==0) {  // check if this is the very first block to be added
     		lastBlock.value=activeBlock.value;
     		lastBlock.position=1;
@@ -213,6 +217,7 @@ public class VALActiveBitCollection implements ActiveBitCollection {
 	@Override
 	public void appendFill(long numRuns, byte fillBit) {
 		this.needCleanUp = true;
+		this.valBlocks = true;
 		int blockLength=this.seglen;
 		int numOfBlocks = wordLen/blockLength;
 
@@ -318,6 +323,7 @@ public class VALActiveBitCollection implements ActiveBitCollection {
 		// JS: Make use of the parameter I think the activeBlock.value was
 		// supposed to be set directly
 		this.needCleanUp = true;
+		this.valBlocks = true;
 		this.activeBlock.value = value;
 		this.activeBlock.length = this.seglen;
 		int numOfBlocks = wordLen / this.seglen;
@@ -761,49 +767,77 @@ public class VALActiveBitCollection implements ActiveBitCollection {
 
 	@Override
 	public int getNumberOfWords() {
-
-		//return maxPos;
-	    long l=new Long(0);
-		int nWords=0;
-		int size = 0;
-
-		for (int i=0; i<vec.size()-1; i++ ) {
-		    l = vec.get(i);
-		    if (l> 0x7FFFFFFFL) {
-		    	nWords = (int)(l & 0x3FFFFFFFL);
-		    }
-		    else {
-		    	nWords = 1;
-		    }
-		    size+=nWords;
+		// VAL words are stored as they are; plain WAH words (one segment
+		// each, see valBlocks) are packed as in a column file
+		if (this.valBlocks) {
+			return this.vec.size();
 		}
-		//aWords[0]--;
-		//aWords[1]=l.intValue();
-		return size;
-
+		return VLCConstants.storedWords(this.vec.size(), this.seglen);
 	}
 
+
 	@Override
 	public boolean isEmpty() {
 
 		return this.vec.isEmpty();
 	}
 
+	@Override
+	public void trimToSize() {
+
+		this.vec.trimToSize();
+	}
+
 	public VALActiveBitCollection getActiveBitCollectionVAL(){
 
 		return this;
 
 	}
 
-public ArrayList<Long> getVector(){
+public WordBuffer getVector(){
 
 		return this.vec;
 
 	}
 
 	@Override
-	public Iterator<Long> getSegmentIterator() {
-		return this.vec.iterator();
+	public WordCursor getWordCursor() {
+		return this.vec.cursor();
+	}
+
+	/**
+	 * Counts the set bits straight from the words.  Words built from VAL
+	 * blocks (7, 14 or 28 bits) have every block looked at: the header bit of
+	 * the block says if it is a fill, fills of ones add their length and
+	 * literal blocks add their bit count.  Otherwise the words are plain WAH
+	 * words, one segment per word, whatever the segment length (e.g. a column
+	 * read by VLCCompressedReader).
+	 *
+	 * @return number of bits set to 1
+	 */
+	@Override
+	public long cardinality() {
+		if (!this.valBlocks || (this.seglen != 7 && this.seglen != 14 && this.seglen != 28)) {
+			return WAHActiveSegment.cardinality(this.vec.cursor(), this.seglen);
+		}
+		int numOfBlocks = this.wordLen / this.seglen;
+		long blockMask = power2[this.seglen] - 1;
+		long fillValueBit = power2[this.seglen - 1];
+		long count = 0;
+		for (int i = 0; i < this.vec.size(); i++) {
+			long word = this.vec.get(i);
+			for (int position = 1; position <= numOfBlocks; position++) {
+				long block = (word >>> ((numOfBlocks - position) * this.seglen)) & blockMask;
+				if ((word & (1L << (32 - position))) != 0) {	// fill
+					if ((block & fillValueBit) != 0) {
+						count += (block & (fillValueBit - 1)) * this.seglen;
+					}
+				} else {
+					count += Long.bitCount(block);
+				}
+			}
+		}
+		return count;
 	}
 
 	@Override
@@ -811,16 +845,44 @@ public ArrayList<Long> getVector(){
 		return this.name;
 	}
 
+	@Override
+	public long getNumberOfRows() {
+		return this.numRows;
+	}
+
+	/**
+	 * @param numRows number of rows held by the column (e.g. from its file header)
+	 */
+	public void setNumberOfRows(long numRows) {
+		this.numRows = numRows;
+	}
+
 
 	@Override
 	public int getSize() {
 		return this.vec.size()*32;
 	}
 
+	@Override
+	public long getMemoryBytes() {
+		return this.vec.getBackingBytes();
+	}
+
+	@Override
+	public ColumnRunIndex getRunIndex() {
+		return this.runIndex;
+	}
+
+	@Override
+	public void setRunIndex(ColumnRunIndex index) {
+		this.runIndex = index;
+	}
+
 	@Override
 	public String toString(){
 		String s = "";
-		for(long l : this.vec){
+		for(int i = 0; i < this.vec.size(); i++){
+			long l = this.vec.get(i);
 			long flags = l&0xF0000000L;
 			flags = flags>>>28;
             String f = Long.toBinaryString(flags);
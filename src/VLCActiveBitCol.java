@@ -1,28 +1,23 @@
-
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-
 public class VLCActiveBitCol implements ActiveBitCollection {
 
 	/**The length used to encode this column.  This is used in quering.**/
 	private int seglen = 0;
-	/**List that holds**/
-	private List<Long> vec;
+	/**Buffer that holds the compressed words**/
+	private WordBuffer vec;
     /** Name of this column*/
 	private String name = "";
 	/** Hexholder instance used to determine proper hexadecmial values*/
 	private HexHolder hex;
 	private String id;
+	/** Run index of the column, if it has one (see ColumnRunIndex) */
+	private volatile ColumnRunIndex runIndex;
 
 	/**
 	 * Constructor that initializes the arraylist
 	 * and initial word for this column
 	 * */
 	public VLCActiveBitCol(){
-		this.vec = new ArrayList<Long>();
+		this.vec = new WordBuffer();
 
 	}
 
@@ -37,7 +32,7 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 	 * @param name The name of this column
 	 * */
 	public VLCActiveBitCol(String name){
-		this.vec = new ArrayList<Long>();
+		this.vec = new WordBuffer();
 		this.name = name;
 	}
 
@@ -51,7 +46,7 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 	public VLCActiveBitCol(int seglen, String name){
 		this.seglen = seglen;
 		this.hex  = HexHolder.getHexHolder(seglen);
-		this.vec = new ArrayList<Long>();
+		this.vec = WordBuffer.forSeglen(seglen);
 		this.name = name;
 	}
 
@@ -64,7 +59,7 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 	public VLCActiveBitCol(int seglen){
 		this.seglen = seglen;
 		this.hex  = HexHolder.getHexHolder(seglen);
-		this.vec = new ArrayList<Long>();
+		this.vec = WordBuffer.forSeglen(seglen);
 	}
 
 	/**
@@ -79,11 +74,11 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 		//Since it can over fill multiple runs we need a loop
 		//each time through the loop we are going to add a full run of
 		//zeros
-		while(numRuns > this.hex.getZeroRunFull()){
+		while(numRuns > this.hex.getRunLen()){
 			//Subtract the number runs we can represent in a new element
 			numRuns = numRuns - this.hex.getRunLen();
 			//add a full run of zeros to the collection
-			this.vec.add(new Long((this.hex.getZeroRunFull())));
+			this.vec.add(this.hex.getZeroRunFull());
 
 		}
 		//If there is any left over toss it in to a new element
@@ -105,16 +100,16 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 	private void addRunOfOnesNewWord(long numRuns){
 		//Since it can over fill multiple runs we need a loop
 		//each time through the loop we are going to add a full run of ones
-		while(numRuns > this.hex.getOnes()){
+		while(numRuns > this.hex.getRunLen()){
 			//Subtract the number runs we can represent in a new element
 			numRuns = numRuns - this.hex.getRunLen();
 			//add a new full run
-			this.vec.add(new Long((this.hex.getOnes())));
+			this.vec.add(this.hex.getOnes());
 
 		}
 		//Might have a few runs left toss them in a new word
 		if(numRuns > 0){
-			this.vec.add(new Long((this.hex.getOneRun()+numRuns)));
+			this.vec.add(this.hex.getOneRun()+numRuns);
 		}
 
 
@@ -125,7 +120,7 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 		if (numRuns> 1 && !this.isEmpty())
 		{
 
-			long lastElementValue = this.vec.get(this.vec.size()-1);
+			long lastElementValue = this.vec.getLast();
 			//We are adding a fill of 0s
 			if (fillBit == 0)
 			{
@@ -137,13 +132,13 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 						//how many runs can we represent
 						numRuns= numRuns-(this.hex.getZeroRunFull() - lastElementValue);
 						//set the last one to max fill
-						this.vec.set(this.vec.size()-1, new Long((this.hex.getZeroRunFull())));
+						this.vec.setLast(this.hex.getZeroRunFull());
 						//Now we need to take care of whats left
 						//This is a helper function that will add new word or words to accommodate whats left
 						this.addRunOfZerosNewWord(numRuns);
 					//We can fit this into the last word without over filling it.
 					}else{
-						this.vec.set(this.vec.size()-1, new Long((lastElementValue+numRuns)));
+						this.vec.setLast(lastElementValue+numRuns);
 					}
 				}
 				//Last word wasn't a run zeros so we need to start a new word
@@ -161,12 +156,12 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 				if(lastElementValue + numRuns > this.hex.getOnes()){
 					numRuns = numRuns- (this.hex.getOnes() - lastElementValue);
 					//set the last one to max fill
-					this.vec.set(this.vec.size()-1, new Long((this.hex.getOnes())));
+					this.vec.setLast(this.hex.getOnes());
 					//Now we have to take care of what is left.
 					this.addRunOfOnesNewWord(numRuns);
 					//We can fit them all in the last element
 				}else{
-					this.vec.set(this.vec.size()-1, new Long((lastElementValue+numRuns)));
+					this.vec.setLast(lastElementValue+numRuns);
 
 				}
 			}
@@ -216,16 +211,16 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 			this.vec.add(value);
 		}else{
 			//Grab the last element and its value.
-			long lastElementValue = this.vec.get(this.vec.size()-1);
+			long lastElementValue = this.vec.getLast();
 			//If the value of 0 means a run of 0s.
 			if (value == 0){
 				//If the last one was also a run of 0s, start a new run of 0s
 				if (lastElementValue == 0){
 					//Change the value of the last thing to a run of zeros, with 2 runs
-					this.vec.set(this.vec.size()-1,this.hex.getZeroRunWOne());
+					this.vec.setLast(this.hex.getZeroRunWOne());
 				} //We already have a run of 0s setup, so we go through appending a run of 0s
 				else if (lastElementValue >= this.hex.getZeroRun() && lastElementValue < this.hex.getOneRun() && lastElementValue != this.hex.getZeroRunFull()){
-					this.vec.set(this.vec.size()-1, lastElementValue+1); //
+					this.vec.setLast(lastElementValue+1); //
 				}//There was a change in bits... treat this as a literal
 				else{
 					this.vec.add(value);
@@ -237,11 +232,11 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 				if (lastElementValue == value){
 					//Change the last value to be a run of 1s,
 					//representing 2 runs.
-					this.vec.set(this.vec.size()-1,this.hex.getOneRunWOne());
+					this.vec.setLast(this.hex.getOneRunWOne());
 
 				}//Already have a run of 1s setup, so just update that.
 				else if (lastElementValue >= this.hex.getOneRun() && (lastElementValue != this.hex.getOnes())){
-					this.vec.set(this.vec.size()-1, lastElementValue+1);
+					this.vec.setLast(lastElementValue+1);
 
 				}//A literal
 				else{
@@ -267,24 +262,28 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 
 	@Override
 	public int getNumberOfWords() {
-		//get the number of segments
-		int numseg = this.vec.size();
-		//How many segments can fit in a word
-		int numSegPerWord = VLCConstants.WORD_LEN/this.seglen;
-		//total number of words needed to store this column
-		int tot = numseg/numSegPerWord;
-		if(numseg%numSegPerWord!=0){
-			tot++;
-		}
-
-		return tot;
+		//total number of words needed to store the segments of this column
+		return VLCConstants.storedWords(this.vec.size(), this.seglen);
 	}
 
+
 	@Override
 	public boolean isEmpty() {
 		return this.vec.isEmpty();
 	}
 
+	@Override
+	public void trimToSize() {
+		this.vec.trimToSize();
+	}
+
+	/**
+	 * @return the buffer holding the segments of this column (one per word)
+	 */
+	public WordBuffer getVector(){
+		return this.vec;
+	}
+
 	@Override
 	public void setSeglen(int seglen) {
 		this.seglen = seglen;
@@ -301,7 +300,8 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 	@Override
 	public String toString(){
 		String s = "";
-		for(long l : this.vec){
+		for(int i = 0; i < this.vec.size(); i++){
+			long l = this.vec.get(i);
 			String t = Long.toBinaryString(l);
 			while(t.length()!=this.seglen+1){
 				t="0"+t;
@@ -312,6 +312,11 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 		return s;
 	}
 
+	@Override
+	public long cardinality() {
+		return WAHActiveSegment.cardinality(this.getWordCursor(), this.seglen);
+	}
+
 	@Override
 	public String getColName(){
 		return name;
@@ -319,8 +324,8 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 
 
 	@Override
-	public Iterator<Long> getSegmentIterator() {
-		return this.vec.iterator();
+	public WordCursor getWordCursor() {
+		return this.vec.cursor();
 	}
 
 
@@ -329,6 +334,21 @@ public class VLCActiveBitCol implements ActiveBitCollection {
 		return this.getNumberOfWords()*VLCConstants.WORD_LEN;
 	}
 
+	@Override
+	public long getMemoryBytes() {
+		return this.vec.getBackingBytes();
+	}
+
+	@Override
+	public ColumnRunIndex getRunIndex() {
+		return this.runIndex;
+	}
+
+	@Override
+	public void setRunIndex(ColumnRunIndex index) {
+		this.runIndex = index;
+	}
+
 
 
 }
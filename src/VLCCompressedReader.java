@@ -1,14 +1,29 @@
 
 import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
 
 
 public class VLCCompressedReader implements CompressedBitmapReader {
+	/** Direct buffer each loading thread reads column files through (see RunConfig.LOAD_BUFFER_BYTES) */
+	private static final ThreadLocal<ByteBuffer> loadBuffer =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(RunConfig.LOAD_BUFFER_BYTES));
+	/** The words of one buffer */
+	private static final ThreadLocal<int[]> packed =
+			ThreadLocal.withInitial(() -> new int[RunConfig.LOAD_BUFFER_BYTES / Integer.BYTES]);
+	/** The segments unpacked from one buffer, before they are copied into the column */
+	private static final ThreadLocal<long[]> unpacked = ThreadLocal.withInitial(() -> new long[0]);
+
 	/**
-	 * Assumes that the column is prefaced with a byte that indicates
-	 * the segmentation length used to encode it. It also assumes
-	 * that segments were packed in 32 bit words
+	 * Assumes that the column is prefaced with a ColumnHeader, or with a
+	 * byte that indicates the segmentation length used to encode it. It
+	 * also assumes that segments were packed in 32 bit words
 	 *
 	 * @return the ActiveBitCollection representation of the column
 	 */
@@ -16,8 +31,11 @@ public class VLCCompressedReader implements CompressedBitmapReader {
 	public ActiveBitCollection readColumn(DataInputStream columnIn) {
 		try{
 
-			//read in segment length
+			//read in segment length, or the header holding it
 			int seglen = columnIn.readByte();
+			if (ColumnHeader.isHeader(seglen)) {
+				return VLCCompressedReader.readColumn(columnIn, ColumnHeader.read(columnIn), ""+columnIn);
+			}
 			//add one to account for the flag bit
 			//seglen++;
 			//Create a bitVector with the name of the column id
@@ -51,6 +69,8 @@ public class VLCCompressedReader implements CompressedBitmapReader {
 					break;
 				}
 			}
+			//the column is sealed, so give back the spare capacity
+			column.trimToSize();
 			return column;
 		}catch(IOException ex){
 			ex.printStackTrace();
@@ -58,4 +78,225 @@ public class VLCCompressedReader implements CompressedBitmapReader {
 		return null;
 	}
 
+	/**
+	 * Reads the words of a column file with a header: exactly as many as
+	 * the header gives, in one read, checked against its checksum
+	 */
+	private static ActiveBitCollection readColumn(DataInputStream columnIn, ColumnHeader header, String name)
+			throws IOException {
+		VLCCompressedReader.checkEncoding(header, name);
+		int words = (int) header.getNumberOfWords();
+		byte[] body = new byte[words * Integer.BYTES];
+		columnIn.readFully(body);
+		if (RunConfig.VERIFY_COLUMN_CHECKSUMS) {
+			CRC32C crc = new CRC32C();
+			crc.update(body);
+			header.verify(crc, name);
+		}
+		int[] ints = new int[words];
+		ByteBuffer.wrap(body).asIntBuffer().get(ints);
+		int seglen = header.getSeglen();
+		long[] segs = new long[words * (VLCConstants.WORD_LEN / (seglen + 1))];
+		VALActiveBitCollection column = new VALActiveBitCollection(seglen, name);
+		column.vec.addAll(segs, 0, VLCCompressedReader.unpack(ints, words, seglen, segs));
+		column.setNumberOfRows(header.getNumberOfRows());
+		return column;
+	}
+
+	/**
+	 * Reads a whole column file in bulk: the file is read through a
+	 * FileChannel into a large reusable buffer, the column is sized from the
+	 * header (or the file length, for files without one) before anything is
+	 * decoded, and the segments of a whole buffer are unpacked in one loop
+	 * and copied into the column at once.  The result is the same as
+	 * readColumn(DataInputStream).
+	 *
+	 * @param file the compressed column file
+	 * @return the ActiveBitCollection representation of the column
+	 * @throws IOException if the file cannot be read, or does not match its header
+	 */
+	@Override
+	public ActiveBitCollection readColumn(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = VLCCompressedReader.loadBuffer.get();
+			buffer.clear().limit((int) Math.min(ColumnHeader.BYTES, channel.size()));
+			VLCCompressedReader.readFully(channel, buffer);
+			if (buffer.position() < 1) {
+				throw new EOFException("Empty column file " + file);
+			}
+			ColumnHeader header = ColumnHeader.read(buffer);
+			int seglen;
+			long numWords;
+			CRC32C crc = null;
+			if (header != null) {
+				VLCCompressedReader.checkEncoding(header, file.getName());
+				seglen = header.getSeglen();
+				numWords = header.getNumberOfWords();
+				if (numWords * Integer.BYTES > channel.size() - ColumnHeader.BYTES) {
+					throw new EOFException("Column file " + file + " is shorter than its header says: " + header);
+				}
+				crc = RunConfig.VERIFY_COLUMN_CHECKSUMS ? new CRC32C() : null;
+			} else {
+				seglen = buffer.get(0);
+				// a trailing partial word is ignored, as readColumn(DataInputStream) does
+				numWords = (channel.size() - 1) / Integer.BYTES;
+				channel.position(1);
+			}
+			int segsPerWord = VLCConstants.WORD_LEN / (seglen + 1);
+
+			VALActiveBitCollection column = new VALActiveBitCollection(seglen, file.getName());
+			column.vec.ensureCapacity((int) Math.min(Integer.MAX_VALUE - 8, numWords * segsPerWord));
+
+			int[] ints = VLCCompressedReader.packed.get();
+			long[] segs = VLCCompressedReader.unpacked.get();
+			if (segs.length < ints.length * segsPerWord) {
+				segs = new long[ints.length * segsPerWord];
+				VLCCompressedReader.unpacked.set(segs);
+			}
+			long wordsLeft = numWords;
+			while (wordsLeft > 0) {
+				int words = (int) Math.min(wordsLeft, ints.length);
+				buffer.clear().limit(words * Integer.BYTES);
+				VLCCompressedReader.readFully(channel, buffer);
+				if (buffer.hasRemaining()) {
+					// the file shrank while it was being read
+					words = buffer.position() / Integer.BYTES;
+					wordsLeft = words;
+				}
+				buffer.flip();
+				if (crc != null) {
+					crc.update(buffer);
+					buffer.flip();
+				}
+				buffer.asIntBuffer().get(ints, 0, words);
+				column.vec.addAll(segs, 0, VLCCompressedReader.unpack(ints, words, seglen, segs));
+				wordsLeft -= words;
+			}
+			if (header != null) {
+				if (crc != null) {
+					header.verify(crc, file.getName());
+				}
+				column.setNumberOfRows(header.getNumberOfRows());
+			}
+			column.trimToSize();
+			return column;
+		}
+	}
+
+	/**
+	 * Decodes a column held in memory (e.g. mapped from a PackedIndex) in
+	 * bulk, the same way as readColumn(File) but without copying the words
+	 * into a buffer first
+	 *
+	 * @param column the column, from position 0 to the limit of the buffer
+	 * @param name name of the column
+	 * @return the ActiveBitCollection representation of the column
+	 * @throws IOException if the column does not match its header
+	 */
+	@Override
+	public ActiveBitCollection readColumn(ByteBuffer column, String name) throws IOException {
+		if (column.limit() < 1) {
+			throw new EOFException("Empty column " + name);
+		}
+		ColumnHeader header = ColumnHeader.read(column);
+		int seglen;
+		int bodyStart;
+		long numWords;
+		if (header != null) {
+			VLCCompressedReader.checkEncoding(header, name);
+			seglen = header.getSeglen();
+			bodyStart = ColumnHeader.BYTES;
+			numWords = header.getNumberOfWords();
+			if (numWords * Integer.BYTES > column.limit() - bodyStart) {
+				throw new EOFException("Column " + name + " is shorter than its header says: " + header);
+			}
+		} else {
+			seglen = column.get(0);
+			bodyStart = 1;
+			numWords = (column.limit() - 1) / Integer.BYTES;
+		}
+		ByteBuffer body = column.duplicate().position(bodyStart).limit(bodyStart + (int) numWords * Integer.BYTES)
+				.slice();
+		if (header != null && RunConfig.VERIFY_COLUMN_CHECKSUMS) {
+			CRC32C crc = new CRC32C();
+			crc.update(body.duplicate());
+			header.verify(crc, name);
+		}
+		int segsPerWord = VLCConstants.WORD_LEN / (seglen + 1);
+		VALActiveBitCollection ret = new VALActiveBitCollection(seglen, name);
+		ret.vec.ensureCapacity((int) Math.min(Integer.MAX_VALUE - 8, numWords * segsPerWord));
+
+		int[] ints = VLCCompressedReader.packed.get();
+		long[] segs = VLCCompressedReader.unpacked.get();
+		if (segs.length < ints.length * segsPerWord) {
+			segs = new long[ints.length * segsPerWord];
+			VLCCompressedReader.unpacked.set(segs);
+		}
+		IntBuffer words = body.asIntBuffer();
+		while (words.hasRemaining()) {
+			int n = Math.min(words.remaining(), ints.length);
+			words.get(ints, 0, n);
+			ret.vec.addAll(segs, 0, VLCCompressedReader.unpack(ints, n, seglen, segs));
+		}
+		if (header != null) {
+			ret.setNumberOfRows(header.getNumberOfRows());
+		}
+		return ret;
+	}
+
+	/**
+	 * Unpacks the segments of words, most significant segment first (the
+	 * throw away bits are at the start of each word)
+	 *
+	 * @param ints the words
+	 * @param words number of words to unpack
+	 * @param seglen segment length of the column
+	 * @param segs where the segments go
+	 * @return the number of segments unpacked
+	 */
+	private static int unpack(int[] ints, int words, int seglen, long[] segs) {
+		int segLenPlusFlag = seglen + 1;
+		int segsPerWord = VLCConstants.WORD_LEN / segLenPlusFlag;
+		int throwAway = VLCConstants.WORD_LEN % segLenPlusFlag;
+		long ones = HexHolder.getHexHolder(seglen).getOnes();
+		int n = 0;
+		if (segsPerWord == 1) {
+			for (int w = 0; w < words; w++) {
+				segs[n++] = (ints[w] >> throwAway) & ones;
+			}
+		} else {
+			for (int w = 0; w < words; w++) {
+				int temp = ints[w];
+				for (int i = segsPerWord; i > 0; i--) {
+					segs[n++] = (temp >> ((segLenPlusFlag * (i - 1)) + throwAway)) & ones;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the header is not that of a column packed in 32 bit words
+	 */
+	private static void checkEncoding(ColumnHeader header, String name) {
+		if (header.getWordBytes() != Integer.BYTES) {
+			throw new IllegalArgumentException("Column file " + name + " is not packed in 32 bit words: " + header);
+		}
+	}
+
+	/**
+	 * Reads from a channel until the buffer is full or the channel is exhausted
+	 *
+	 * @param channel the channel
+	 * @param buffer the buffer, filled from its position up to its limit
+	 * @throws IOException if the channel cannot be read
+	 */
+	static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				break;
+			}
+		}
+	}
+
 }
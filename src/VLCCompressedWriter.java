@@ -0,0 +1,65 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32C;
+
+
+public class VLCCompressedWriter implements CompressedBitmapWriter {
+	/**
+	 * Writes a ColumnHeader, followed by the words of the column packed
+	 * WORD_LEN/(seglen+1) segments to a 32 bit word, throw-away bits last.
+	 * This is the layout read by VLCCompressedReader, which hands out one
+	 * word per segment, so a column it read is written back as it was.  The
+	 * free segments of the last 32 bit word are zero, i.e. literals past the
+	 * rows of the column, which the header leaves out.
+	 */
+	@Override
+	public void writeColumn(ActiveBitCollection column, DataOutputStream columnOut) throws IOException {
+		int seglen = column.getSeglen();
+		if (seglen < 1 || seglen >= VLCConstants.WORD_LEN) {
+			throw new IllegalArgumentException("Not a VLC column, segment length is " + seglen);
+		}
+		// one pass for the header (counts and checksum), one for the words
+		ColumnStats stats = ColumnStats.of(column);
+		int segsPerWord = VLCConstants.WORD_LEN / (seglen + 1);
+		long numWords = (stats.getNumberOfWords() + segsPerWord - 1) / segsPerWord;
+		CRC32C crc = new CRC32C();
+		byte[] bytes = new byte[Integer.BYTES];
+		WordCursor it = column.getWordCursor();
+		for (long w = 0; w < numWords; w++) {
+			int word = VLCCompressedWriter.pack(it, seglen);
+			bytes[0] = (byte) (word >>> 24);
+			bytes[1] = (byte) (word >>> 16);
+			bytes[2] = (byte) (word >>> 8);
+			bytes[3] = (byte) word;
+			crc.update(bytes, 0, Integer.BYTES);
+		}
+		new ColumnHeader(ColumnHeader.encodingOf(seglen), seglen, numWords, stats.getNumberOfRows(),
+				stats.getCardinality(), (int) crc.getValue()).write(columnOut);
+
+		it.reset();
+		for (long w = 0; w < numWords; w++) {
+			columnOut.writeInt(VLCCompressedWriter.pack(it, seglen));
+		}
+		columnOut.flush();
+	}
+
+	/**
+	 * Packs the next segments of a column into a 32 bit word, the first one
+	 * in the most significant bits (the inverse of VLCCompressedReader.unpack)
+	 *
+	 * @param it cursor over the words of the column, one segment per word
+	 * @param seglen segment length of the column
+	 * @return the packed word
+	 */
+	static int pack(WordCursor it, int seglen) {
+		int segLenPlusFlag = seglen + 1;
+		int throwAway = VLCConstants.WORD_LEN % segLenPlusFlag;
+		long ones = HexHolder.getHexHolder(seglen).getOnes();
+		int word = 0;
+		for (int i = VLCConstants.WORD_LEN / segLenPlusFlag; i > 0 && it.hasNext(); i--) {
+			word |= (int) ((it.nextWord() & ones) << ((segLenPlusFlag * (i - 1)) + throwAway));
+		}
+		return word;
+	}
+
+}
@@ -101,14 +101,14 @@ public class VLCConstants {
 	 * of 32 or 64.
 	 */
 	public static long IF_FILL = 0x7FFFFFFFL;             // 32 bit constant
-	//public static long IF_FILL = 0x7FFFFFFFFFFFFFFFL;   // 64 bit constant
+	public static final long IF_FILL_64 = 0x7FFFFFFFFFFFFFFFL;   // 64 bit constant (WAH64)
 
 	/**
 	 * Hex constant used to 'AND' to get number of run
 	 * of 32 or 64.
 	 */
 	public static long RUN_COUNT = 0x3FFFFFFFL;           // 32 bit constant
-	//public static long RUN_COUNT = 0x3FFFFFFFFFFFFFFFL; // 64 bit constant
+	public static final long RUN_COUNT_64 = 0x3FFFFFFFFFFFFFFFL; // 64 bit constant (WAH64)
 
 	/** Constant: Optimization Time */
 	public static double OPT_TIME = 0;
@@ -199,7 +199,23 @@ public class VLCConstants {
 
 	}
 
+	/**
+	 * Number of words a column takes once stored (see
+	 * ActiveBitCollection.getNumberOfWords()): WORD_LEN/(seglen+1) segments
+	 * packed to a 32 bit word, or one 64 bit word per segment when a segment
+	 * does not fit in 32 bits (WAH64).
+	 *
+	 * @param numSegments segments of the column, one per word of its cursor
+	 * @param seglen segment length of the column
+	 * @return number of stored words
+	 */
+	public static int storedWords(long numSegments, int seglen) {
+		int segsPerWord = Math.max(1, WORD_LEN / (seglen + 1));
+		return (int) Math.min(Integer.MAX_VALUE, (numSegments + segsPerWord - 1) / segsPerWord);
+	}
+
 	/**An array holding the powers of 2 for use in hex calculations.*/
+
 	public static long[] powers = new long[VLCConstants.WORD_LEN];
 
 	static{
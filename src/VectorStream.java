@@ -0,0 +1,226 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Moves vectors between nodes, and between a node and its disk, in the
+ * binary layout of the column files: a ColumnHeader, then the words (32 bit
+ * words packed with segments, or 64 bit WAH64 words).  The header carries
+ * the number of words and the CRC32C of the words, so a receiver knows when
+ * a vector is complete and whether it arrived intact.
+ *
+ * Vectors are streamed through NIO channels in chunks of VECTOR_CHUNK_BYTES:
+ * writing a vector never holds more than a chunk of its bytes, and copying
+ * one (from disk to a slave node, or from a slave node to its disk) never
+ * decodes it.  A slave node receives a vector as a sequence of putChunk
+ * calls between beginVector and endVector (see ISlaveNode).
+ */
+public class VectorStream {
+
+	private VectorStream() { } /* not to instantiate */
+
+	/**
+	 * @param seglen segment length of a vector
+	 * @return the writer of vectors with that segment length
+	 */
+	public static CompressedBitmapWriter writerFor(int seglen) {
+		return (seglen == WAH64ActiveBitCol.SEGLEN) ? new WAH64CompressedWriter() : new VLCCompressedWriter();
+	}
+
+	/**
+	 * Writes a vector to a channel, a chunk at a time
+	 *
+	 * @param vector the vector
+	 * @param out the channel (left open)
+	 * @throws IOException if the vector cannot be written
+	 */
+	public static void write(ActiveBitCollection vector, WritableByteChannel out) throws IOException {
+		DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(
+				new UnclosedChannel(out)), RunConfig.VECTOR_CHUNK_BYTES));
+		VectorStream.writerFor(vector.getSeglen()).writeColumn(vector, stream);
+		stream.close();
+	}
+
+	/**
+	 * Reads a vector from a channel, with or without a ColumnHeader
+	 *
+	 * @param in the channel, at the start of the vector (left open)
+	 * @param name name of the vector (for messages)
+	 * @return the vector
+	 * @throws IOException if the vector cannot be read or is not valid
+	 */
+	public static ActiveBitCollection read(ReadableByteChannel in, String name) throws IOException {
+		BufferedInputStream stream = new BufferedInputStream(Channels.newInputStream(in),
+				RunConfig.VECTOR_CHUNK_BYTES);
+		// peek at the header (or segment length) to pick the reader
+		byte[] head = new byte[ColumnHeader.BYTES];
+		stream.mark(head.length);
+		int n = stream.readNBytes(head, 0, head.length);
+		stream.reset();
+		if (n == 0) {
+			throw new IOException("Empty vector " + name);
+		}
+		ColumnHeader header = ColumnHeader.read(ByteBuffer.wrap(head, 0, n));
+		int seglen = (header != null) ? header.getSeglen() : head[0];
+		CompressedBitmapReader reader = (seglen == WAH64ActiveBitCol.SEGLEN)
+				? new WAH64CompressedReader() : new VLCCompressedReader();
+		ActiveBitCollection vector = reader.readColumn(new DataInputStream(stream));
+		if (vector == null) {
+			throw new IOException("Could not read vector " + name);
+		}
+		return vector;
+	}
+
+	/**
+	 * Copies the bytes of a vector between channels, a chunk at a time
+	 *
+	 * @param in the source, read to its end
+	 * @param out the destination
+	 * @return number of bytes copied
+	 * @throws IOException if either channel fails
+	 */
+	public static long copy(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(RunConfig.VECTOR_CHUNK_BYTES);
+		long copied = 0;
+		while (VectorStream.fill(in, chunk) > 0) {
+			chunk.flip();
+			while (chunk.hasRemaining()) {
+				copied += out.write(chunk);
+			}
+			chunk.clear();
+		}
+		return copied;
+	}
+
+	/**
+	 * Sends a vector to a slave node
+	 *
+	 * @param vector the vector
+	 * @param node the slave node
+	 * @param vectorType type of the vector (its directory on the node)
+	 * @param vectorId id of the vector
+	 * @throws IOException if the vector cannot be sent, or the node rejects it
+	 */
+	public static void send(ActiveBitCollection vector, ISlaveNode node, String vectorType, String vectorId)
+			throws IOException {
+		try (SlaveChannel out = new SlaveChannel(node, vectorType, vectorId)) {
+			VectorStream.write(vector, out);
+			out.commit();
+		}
+	}
+
+	/**
+	 * Sends the bytes of a vector (e.g. a column file) to a slave node,
+	 * without decoding them
+	 *
+	 * @param in the vector, read to its end
+	 * @param node the slave node
+	 * @param vectorType type of the vector (its directory on the node)
+	 * @param vectorId id of the vector
+	 * @throws IOException if the vector cannot be sent, or the node rejects it
+	 */
+	public static void send(ReadableByteChannel in, ISlaveNode node, String vectorType, String vectorId)
+			throws IOException {
+		try (SlaveChannel out = new SlaveChannel(node, vectorType, vectorId)) {
+			VectorStream.copy(in, out);
+			out.commit();
+		}
+	}
+
+	/**
+	 * Reads from a channel until the buffer is full or the channel is exhausted
+	 *
+	 * @return number of bytes read
+	 */
+	private static int fill(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+		int start = buffer.position();
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) {
+				break;
+			}
+		}
+		return buffer.position() - start;
+	}
+
+	/**
+	 * Hands the writes to a channel, without closing it when closed
+	 */
+	private static class UnclosedChannel implements WritableByteChannel {
+		private final WritableByteChannel out;
+
+		UnclosedChannel(WritableByteChannel out) {
+			this.out = out;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			return this.out.write(src);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return this.out.isOpen();
+		}
+
+		@Override
+		public void close() {
+			// the caller closes the channel
+		}
+	}
+
+	/**
+	 * Sends each write to a slave node as a chunk of a vector.  The vector
+	 * is kept by the node once commit() is called; closing the channel
+	 * before that drops it.
+	 */
+	private static class SlaveChannel implements WritableByteChannel {
+		private final ISlaveNode node;
+		private final long transfer;
+		private boolean open = true;
+
+		SlaveChannel(ISlaveNode node, String vectorType, String vectorId) throws IOException {
+			this.node = node;
+			this.transfer = node.beginVector(vectorType, vectorId);
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			if (!this.open) {
+				throw new ClosedChannelException();
+			}
+			int n = src.remaining();
+			byte[] chunk = new byte[n];
+			src.get(chunk);
+			this.node.putChunk(this.transfer, chunk);
+			return n;
+		}
+
+		/**
+		 * Has the node check and keep the vector sent
+		 */
+		void commit() throws IOException {
+			this.open = false;
+			this.node.endVector(this.transfer);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return this.open;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.open) {
+				this.open = false;
+				this.node.abortVector(this.transfer);
+			}
+		}
+	}
+}
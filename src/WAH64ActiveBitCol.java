@@ -0,0 +1,277 @@
+/**
+ * A WAH column using 64 bit words: 63 bit literal segments, and fills
+ * whose flag is the sign bit of the word.  Dense columns need half as many
+ * words as with WAH32, so the query kernels have half as many words to
+ * process.
+ *
+ * Word layout
+ *   literal: 0xxx...xxx   (63 bits of the bitmap)
+ *   fill:    1vnn...nnn   (v is the fill bit, n is the number of runs)
+ *
+ * Since the flag is the sign bit, words are never compared against the
+ * HexHolder values (which only go up to 31 bits). Masks are used instead.
+ */
+public class WAH64ActiveBitCol implements ActiveBitCollection {
+
+	/** Segment length used by WAH64 */
+	public static final int SEGLEN = 63;
+
+	/** Flag marking a fill                     1000000000...000 */
+	private static final long FILL_FLAG = 0x8000000000000000L;
+	/** Flag and fill bit of a run of ones      1100000000...000 */
+	private static final long ONE_FILL = 0xC000000000000000L;
+	/** Largest literal, all 63 bits set        0111111111...111 */
+	private static final long LITERAL_ONES = 0x7FFFFFFFFFFFFFFFL;
+	/** Largest number of runs held in a fill   0011111111...111 */
+	private static final long MAX_RUN_LEN = 0x3FFFFFFFFFFFFFFFL;
+
+	/** Buffer that holds the compressed words */
+	private WordBuffer vec;
+	/** Name of this column */
+	private String name = "";
+	private String id;
+	/** Run index of the column, if it has one (see ColumnRunIndex) */
+	private volatile ColumnRunIndex runIndex;
+	/** Number of rows held by the column, -1 if unknown */
+	private long numRows = -1;
+
+	/**
+	 * Constructor that initializes the word buffer
+	 * */
+	public WAH64ActiveBitCol() {
+		this.vec = new WordBuffer();
+	}
+
+	/**
+	 * Constructor that initializes the word buffer
+	 *
+	 * @param name The name of this column
+	 * */
+	public WAH64ActiveBitCol(String name) {
+		this.vec = new WordBuffer();
+		this.name = name;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	/**
+	 * @param word a compressed word
+	 * @return True if the word is a run of zeros
+	 */
+	private static boolean isZeroFill(long word) {
+		return (word & ONE_FILL) == FILL_FLAG;
+	}
+
+	/**
+	 * @param word a compressed word
+	 * @return True if the word is a run of ones
+	 */
+	private static boolean isOneFill(long word) {
+		return (word & ONE_FILL) == ONE_FILL;
+	}
+
+	/**
+	 * Helper method that adds new word(s) holding numRuns runs of the
+	 * given fill, starting with a full word as long as there are too many
+	 * runs to fit in one.
+	 *
+	 * @param numRuns The number of runs to be represented
+	 * @param fill FILL_FLAG for a run of zeros, ONE_FILL for a run of ones
+	 * */
+	private void addRunNewWord(long numRuns, long fill) {
+		while (numRuns > MAX_RUN_LEN) {
+			numRuns = numRuns - MAX_RUN_LEN;
+			this.vec.add(fill | MAX_RUN_LEN);
+		}
+		if (numRuns > 0) {
+			this.vec.add(fill | numRuns);
+		}
+	}
+
+	@Override
+	public void appendFill(long numRuns, byte fillBit) {
+		long fill = (fillBit == 0) ? FILL_FLAG : ONE_FILL;
+		if (numRuns > 1 && !this.isEmpty()) {
+			long lastElementValue = this.vec.getLast();
+			//Last word is a run of the same kind, so lets append to it
+			if ((fillBit == 0 && isZeroFill(lastElementValue)) || (fillBit != 0 && isOneFill(lastElementValue))) {
+				long lastRuns = lastElementValue & MAX_RUN_LEN;
+				//does adding this run over fill the last word
+				if (lastRuns + numRuns > MAX_RUN_LEN) {
+					numRuns = numRuns - (MAX_RUN_LEN - lastRuns);
+					this.vec.setLast(fill | MAX_RUN_LEN);
+					this.addRunNewWord(numRuns, fill);
+				} else {
+					this.vec.setLast(lastElementValue + numRuns);
+				}
+			}
+			//Last word wasn't the same run so we need to start a new word
+			else {
+				this.addRunNewWord(numRuns, fill);
+			}
+		}
+		//First word of the column
+		else if (this.isEmpty()) {
+			this.addRunNewWord(numRuns, fill);
+		}
+		//Trying to add a single run treat it like a literal
+		else if (numRuns == 1) {
+			this.appendLiteral((fillBit == 0) ? 0 : LITERAL_ONES);
+		}
+	}
+
+	@Override
+	public void appendLiteral(long value) {
+		//If this is the first entry add the active word
+		if (this.isEmpty()) {
+			this.vec.add(value);
+			return;
+		}
+		long lastElementValue = this.vec.getLast();
+		if (value == 0) {
+			//If the last one was also a literal of 0s, start a run of 0s with 2 runs
+			if (lastElementValue == 0) {
+				this.vec.setLast(FILL_FLAG | 2);
+			}
+			//We already have a run of 0s setup, so append to it
+			else if (isZeroFill(lastElementValue) && (lastElementValue & MAX_RUN_LEN) != MAX_RUN_LEN) {
+				this.vec.setLast(lastElementValue + 1);
+			}
+			else {
+				this.vec.add(value);
+			}
+		}
+		else if (value == LITERAL_ONES) {
+			//If the last one was also a literal of 1s, start a run of 1s with 2 runs
+			if (lastElementValue == LITERAL_ONES) {
+				this.vec.setLast(ONE_FILL | 2);
+			}
+			//We already have a run of 1s setup, so append to it
+			else if (isOneFill(lastElementValue) && (lastElementValue & MAX_RUN_LEN) != MAX_RUN_LEN) {
+				this.vec.setLast(lastElementValue + 1);
+			}
+			else {
+				this.vec.add(value);
+			}
+		}
+		else {
+			//A literal
+			this.vec.add(value);
+		}
+	}
+
+	@Override
+	public void appendWord(long word) {
+		this.vec.add(word);
+	}
+
+	/**
+	 * Appends words already in WAH64 form, as read from a column file
+	 *
+	 * @param words the words
+	 * @param offset first word to append
+	 * @param length number of words to append
+	 */
+	void appendWords(long[] words, int offset, int length) {
+		this.vec.addAll(words, offset, length);
+	}
+
+	/**
+	 * Makes room for a number of words, so that appending them does not grow the column
+	 *
+	 * @param words number of words the column will hold
+	 */
+	void ensureCapacity(int words) {
+		this.vec.ensureCapacity(words);
+	}
+
+	@Override
+	public void setSeglen(int seglen) {
+		if (seglen != SEGLEN) {
+			throw new IllegalArgumentException("WAH64 columns always use " + SEGLEN + " bit segments");
+		}
+	}
+
+	@Override
+	public int getSeglen() {
+		return SEGLEN;
+	}
+
+	@Override
+	public int getNumberOfWords() {
+		return this.vec.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.vec.isEmpty();
+	}
+
+	@Override
+	public void trimToSize() {
+		this.vec.trimToSize();
+	}
+
+	@Override
+	public WordCursor getWordCursor() {
+		return this.vec.cursor();
+	}
+
+	@Override
+	public long cardinality() {
+		return WAHActiveSegment.cardinality(this.vec.cursor(), SEGLEN);
+	}
+
+	@Override
+	public String getColName() {
+		return this.name;
+	}
+
+	@Override
+	public long getNumberOfRows() {
+		return this.numRows;
+	}
+
+	/**
+	 * @param numRows number of rows held by the column (e.g. from its file header)
+	 */
+	public void setNumberOfRows(long numRows) {
+		this.numRows = numRows;
+	}
+
+	@Override
+	public int getSize() {
+		return this.vec.size() * Long.SIZE;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return this.vec.getBackingBytes();
+	}
+
+	@Override
+	public ColumnRunIndex getRunIndex() {
+		return this.runIndex;
+	}
+
+	@Override
+	public void setRunIndex(ColumnRunIndex index) {
+		this.runIndex = index;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < this.vec.size(); i++) {
+			String t = Long.toBinaryString(this.vec.get(i));
+			for (int pad = t.length(); pad < Long.SIZE; pad++) {
+				s.append('0');
+			}
+			s.append(t);
+			s.append(',');
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,211 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+
+public class WAH64CompressedReader implements CompressedBitmapReader {
+	/** Direct buffer each loading thread reads column files through (see RunConfig.LOAD_BUFFER_BYTES) */
+	private static final ThreadLocal<ByteBuffer> loadBuffer =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(RunConfig.LOAD_BUFFER_BYTES));
+	/** The words of one buffer, before they are copied into the column */
+	private static final ThreadLocal<long[]> words =
+			ThreadLocal.withInitial(() -> new long[RunConfig.LOAD_BUFFER_BYTES / Long.BYTES]);
+	/**
+	 * Assumes that the column is prefaced with a ColumnHeader, or with a
+	 * byte that indicates the segmentation length used to encode it (63),
+	 * followed by one 64 bit word per segment.
+	 *
+	 * @return the WAH64ActiveBitCol representation of the column
+	 */
+	@Override
+	public ActiveBitCollection readColumn(DataInputStream columnIn) {
+		try{
+			//read in segment length, or the header holding it
+			int seglen = columnIn.readByte();
+			if (ColumnHeader.isHeader(seglen)) {
+				return WAH64CompressedReader.readColumn(columnIn, ColumnHeader.read(columnIn), ""+columnIn);
+			}
+			if (seglen != WAH64ActiveBitCol.SEGLEN) {
+				throw new IllegalArgumentException("Not a WAH64 column, segment length is " + seglen);
+			}
+			ActiveBitCollection column = new WAH64ActiveBitCol(""+columnIn);
+			//read in the data file until you get an EOF exception then break
+			while (true)
+			{
+				try
+				{
+					column.appendWord(columnIn.readLong());
+				}
+				//Thrown only after all the data is read from the file
+				catch (EOFException eof)
+				{
+					break;
+				}
+			}
+			//the column is sealed, so give back the spare capacity
+			column.trimToSize();
+			return column;
+		}catch(IOException ex){
+			ex.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the words of a column file with a header: exactly as many as
+	 * the header gives, in one read, checked against its checksum
+	 */
+	private static ActiveBitCollection readColumn(DataInputStream columnIn, ColumnHeader header, String name)
+			throws IOException {
+		WAH64CompressedReader.checkEncoding(header, name);
+		int words = (int) header.getNumberOfWords();
+		byte[] body = new byte[words * Long.BYTES];
+		columnIn.readFully(body);
+		if (RunConfig.VERIFY_COLUMN_CHECKSUMS) {
+			CRC32C crc = new CRC32C();
+			crc.update(body);
+			header.verify(crc, name);
+		}
+		long[] longs = new long[words];
+		ByteBuffer.wrap(body).asLongBuffer().get(longs);
+		WAH64ActiveBitCol column = new WAH64ActiveBitCol(name);
+		column.appendWords(longs, 0, words);
+		column.setNumberOfRows(header.getNumberOfRows());
+		return column;
+	}
+
+	/**
+	 * Reads a whole column file in bulk, through a FileChannel and a large
+	 * reusable buffer, sizing the column from the header (or the file length,
+	 * for files without one) up front (see VLCCompressedReader.readColumn(File))
+	 *
+	 * @param file the compressed column file
+	 * @return the WAH64ActiveBitCol representation of the column
+	 * @throws IOException if the file cannot be read, or does not match its header
+	 */
+	@Override
+	public ActiveBitCollection readColumn(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = WAH64CompressedReader.loadBuffer.get();
+			buffer.clear().limit((int) Math.min(ColumnHeader.BYTES, channel.size()));
+			VLCCompressedReader.readFully(channel, buffer);
+			if (buffer.position() < 1) {
+				throw new EOFException("Empty column file " + file);
+			}
+			ColumnHeader header = ColumnHeader.read(buffer);
+			long numWords;
+			CRC32C crc = null;
+			if (header != null) {
+				WAH64CompressedReader.checkEncoding(header, file.getName());
+				numWords = header.getNumberOfWords();
+				if (numWords * Long.BYTES > channel.size() - ColumnHeader.BYTES) {
+					throw new EOFException("Column file " + file + " is shorter than its header says: " + header);
+				}
+				crc = RunConfig.VERIFY_COLUMN_CHECKSUMS ? new CRC32C() : null;
+			} else {
+				int seglen = buffer.get(0);
+				if (seglen != WAH64ActiveBitCol.SEGLEN) {
+					throw new IllegalArgumentException("Not a WAH64 column, segment length is " + seglen);
+				}
+				// a trailing partial word is ignored, as readColumn(DataInputStream) does
+				numWords = (channel.size() - 1) / Long.BYTES;
+				channel.position(1);
+			}
+			WAH64ActiveBitCol column = new WAH64ActiveBitCol(file.getName());
+			column.ensureCapacity((int) Math.min(Integer.MAX_VALUE - 8, numWords));
+
+			long[] words = WAH64CompressedReader.words.get();
+			long wordsLeft = numWords;
+			while (wordsLeft > 0) {
+				int n = (int) Math.min(wordsLeft, words.length);
+				buffer.clear().limit(n * Long.BYTES);
+				VLCCompressedReader.readFully(channel, buffer);
+				if (buffer.hasRemaining()) {
+					// the file shrank while it was being read
+					n = buffer.position() / Long.BYTES;
+					wordsLeft = n;
+				}
+				buffer.flip();
+				if (crc != null) {
+					crc.update(buffer);
+					buffer.flip();
+				}
+				buffer.asLongBuffer().get(words, 0, n);
+				column.appendWords(words, 0, n);
+				wordsLeft -= n;
+			}
+			if (header != null) {
+				if (crc != null) {
+					header.verify(crc, file.getName());
+				}
+				column.setNumberOfRows(header.getNumberOfRows());
+			}
+			column.trimToSize();
+			return column;
+		}
+	}
+
+	/**
+	 * Decodes a column held in memory (e.g. mapped from a PackedIndex) in
+	 * bulk, the same way as readColumn(File)
+	 *
+	 * @param column the column, from position 0 to the limit of the buffer
+	 * @param name name of the column
+	 * @return the WAH64ActiveBitCol representation of the column
+	 * @throws IOException if the column does not match its header
+	 */
+	@Override
+	public ActiveBitCollection readColumn(ByteBuffer column, String name) throws IOException {
+		if (column.limit() < 1) {
+			throw new EOFException("Empty column " + name);
+		}
+		ColumnHeader header = ColumnHeader.read(column);
+		int bodyStart;
+		long numWords;
+		if (header != null) {
+			WAH64CompressedReader.checkEncoding(header, name);
+			bodyStart = ColumnHeader.BYTES;
+			numWords = header.getNumberOfWords();
+			if (numWords * Long.BYTES > column.limit() - bodyStart) {
+				throw new EOFException("Column " + name + " is shorter than its header says: " + header);
+			}
+		} else {
+			int seglen = column.get(0);
+			if (seglen != WAH64ActiveBitCol.SEGLEN) {
+				throw new IllegalArgumentException("Not a WAH64 column, segment length is " + seglen);
+			}
+			bodyStart = 1;
+			numWords = (column.limit() - 1) / Long.BYTES;
+		}
+		ByteBuffer body = column.duplicate().position(bodyStart).limit(bodyStart + (int) numWords * Long.BYTES)
+				.slice();
+		if (header != null && RunConfig.VERIFY_COLUMN_CHECKSUMS) {
+			CRC32C crc = new CRC32C();
+			crc.update(body.duplicate());
+			header.verify(crc, name);
+		}
+		long[] words = new long[(int) numWords];
+		body.asLongBuffer().get(words);
+		WAH64ActiveBitCol ret = new WAH64ActiveBitCol(name);
+		ret.appendWords(words, 0, words.length);
+		if (header != null) {
+			ret.setNumberOfRows(header.getNumberOfRows());
+		}
+		return ret;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the header is not that of a WAH64 column
+	 */
+	private static void checkEncoding(ColumnHeader header, String name) {
+		if (header.getEncoding() != RunConfig.BitmapEncoding.WAH64 || header.getSeglen() != WAH64ActiveBitCol.SEGLEN) {
+			throw new IllegalArgumentException("Column file " + name + " is not a WAH64 column: " + header);
+		}
+	}
+
+}
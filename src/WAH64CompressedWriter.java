@@ -0,0 +1,44 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+
+public class WAH64CompressedWriter implements CompressedBitmapWriter {
+	/**
+	 * Writes a ColumnHeader, followed by one 64 bit word per segment.
+	 * This is the layout read by WAH64CompressedReader.
+	 */
+	@Override
+	public void writeColumn(ActiveBitCollection column, DataOutputStream columnOut) throws IOException {
+		if (column.getSeglen() != WAH64ActiveBitCol.SEGLEN) {
+			throw new IllegalArgumentException("Not a WAH64 column, segment length is " + column.getSeglen());
+		}
+		// one pass for the header (counts and checksum), one for the words
+		long runLenMask = (1L << (WAH64ActiveBitCol.SEGLEN - 1)) - 1;
+		long numWords = 0;
+		long segments = 0;
+		CRC32C crc = new CRC32C();
+		ByteBuffer bytes = ByteBuffer.allocate(Long.BYTES);
+		WordCursor it = column.getWordCursor();
+		while (it.hasNext()) {
+			long word = it.nextWord();
+			bytes.clear();
+			bytes.putLong(word).flip();
+			crc.update(bytes);
+			numWords++;
+			// the fill flag is the sign bit
+			segments += (word < 0) ? (word & runLenMask) : 1;
+		}
+		long numRows = (column.getNumberOfRows() >= 0) ? column.getNumberOfRows() : segments * WAH64ActiveBitCol.SEGLEN;
+		new ColumnHeader(RunConfig.BitmapEncoding.WAH64, WAH64ActiveBitCol.SEGLEN, numWords, numRows,
+				column.cardinality(), (int) crc.getValue()).write(columnOut);
+
+		it.reset();
+		while (it.hasNext()) {
+			columnOut.writeLong(it.nextWord());
+		}
+		columnOut.flush();
+	}
+
+}
@@ -8,6 +8,31 @@ public class WAHActiveSegment implements ActiveSegment {
 	private long numSegments;
 	//it is an array because the literal value might need to be chunked if decodeLen < encodeLen
 	private long litValues;
+	/** Segment of the column at which the word decoded last starts, and the segments that word holds */
+	private long wordStart = 0;
+	private long wordSegments = 0;
+	/** Segments of the column holding rows, the ones past it are padding (see setLimit) */
+	private long limit = Long.MAX_VALUE;
+
+	/** Length of the segments (31 for WAH32, 63 for WAH64) */
+	private int seglen;
+	/** The flag bit marking a fill. e.g. 1000...000 */
+	private long fillFlag;
+	/** The bit giving the value of a fill. e.g. 0100...000 */
+	private long fillValueBit;
+	/** Mask for the run count of a fill. e.g. 0011...111 */
+	private long runLenMask;
+	/** Mask for the bits of a literal, also the literal of a one fill. e.g. 0111...111 */
+	private long literalMask;
+
+	/**
+	 * Creates an empty segment (no segments left in it) for 31 bit
+	 * segments.  Call reset to decode a word into it.
+	 * */
+	public WAHActiveSegment() {
+		this.setSeglen(31);
+		this.numSegments = 0;
+	}
 
 	/**
 	 *The constructor just sets up the values for this segment
@@ -16,27 +41,199 @@ public class WAHActiveSegment implements ActiveSegment {
 	 *            The long value of this segment
 	 * */
 	public WAHActiveSegment(long value) {
-		HexHolder encodeHex = HexHolder.getHexHolder(31);
+		this.setSeglen(31);
+		this.reset(value);
+	}
+
+	/**
+	 * Sets the segment length of the words decoded by this segment.
+	 * The masks are computed with shifts rather than taken from a HexHolder
+	 * so that they also work for 63 bit segments, where the flag is the
+	 * sign bit of the long.
+	 *
+	 * @param seglen The segment length (31 for WAH32, 63 for WAH64)
+	 */
+	public void setSeglen(int seglen) {
+		if (seglen < 2 || seglen > 63) {
+			throw new IllegalArgumentException("Unsupported segment length: " + seglen);
+		}
+		this.seglen = seglen;
+		this.fillFlag = 1L << seglen;
+		this.fillValueBit = 1L << (seglen - 1);
+		this.runLenMask = this.fillValueBit - 1;
+		this.literalMask = this.fillFlag - 1;
+		this.numSegments = 0;
+		this.wordStart = 0;
+		this.wordSegments = 0;
+		this.limit = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Ends the column after a number of segments: the segments past it are
+	 * padding at the end of the last word of the column file, and this
+	 * segment behaves as if the column ended there (refill returns false,
+	 * and a fill running past it is cut short).
+	 *
+	 * @param segments number of segments of the column, Long.MAX_VALUE if unknown
+	 */
+	public void setLimit(long segments) {
+		this.limit = segments;
+	}
+
+	/**
+	 * @param col a compressed column
+	 * @return number of segments holding the rows of the column, Long.MAX_VALUE if its row count is unknown
+	 */
+	public static long segmentsOf(ActiveBitCollection col) {
+		long rows = col.getNumberOfRows();
+		if (rows < 0) {
+			return Long.MAX_VALUE;
+		}
+		return (rows + col.getSeglen() - 1) / col.getSeglen();
+	}
+
+	/**
+	 * @return The segment length of the words decoded by this segment
+	 */
+	public int getSeglen() {
+		return this.seglen;
+	}
+
+	/**
+	 * Decodes a new word into this segment, replacing whatever it held.
+	 * This lets the query kernels reuse one segment per column instead of
+	 * allocating a new one for every word they consume.
+	 *
+	 *@param value
+	 *            The long value of this segment
+	 * */
+	public void reset(long value) {
 		// Determines if the value is a fill
-		this.isFill = value > encodeHex.getOnesNoFlag();
+		this.isFill = (value & this.fillFlag) != 0;
 
 		if (isFill) {
 			// Determine if it is a run of ones or zeros
-			if (value >= encodeHex.getOneRun()) {
+			if ((value & this.fillValueBit) != 0) {
 				this.fillValue = 1;
-				this.litRepOfFill = encodeHex.getOnesNoFlag();
+				this.litRepOfFill = this.literalMask;
 			} else {
 				this.fillValue = 0;
+				this.litRepOfFill = 0;
 			}
 
 			// how many words does the fill represent
-			this.numSegments = (value & encodeHex.getRunLen());
+			this.numSegments = (value & this.runLenMask);
 		} else {
-
-			this.litValues = value & encodeHex.getOnesNoFlag();
+			this.fillValue = 0;
+			this.litRepOfFill = 0;
+			this.litValues = value & this.literalMask;
 			this.numSegments = 1;
 		}
+		this.wordStart += this.wordSegments;
+		if (this.numSegments > this.limit - this.wordStart) {
+			// padding past the last row
+			this.numSegments = Math.max(0, this.limit - this.wordStart);
+		}
+		this.wordSegments = this.numSegments;
+	}
+
+	/**
+	 * Counts the set bits of a WAH column straight from its words: a run
+	 * of ones adds its length times the segment length, a literal adds its
+	 * bit count, and a run of zeros adds nothing.
+	 *
+	 * @param it cursor over the words of the column
+	 * @param seglen The segment length of the column
+	 * @return number of bits set to 1
+	 */
+	public static long cardinality(WordCursor it, int seglen) {
+		long fillFlag = 1L << seglen;
+		long fillValueBit = 1L << (seglen - 1);
+		long runLenMask = fillValueBit - 1;
+		long literalMask = fillFlag - 1;
+		long count = 0;
+		while (it.hasNext()) {
+			long word = it.nextWord();
+			if ((word & fillFlag) != 0) {
+				if ((word & fillValueBit) != 0) {
+					count += (word & runLenMask) * seglen;
+				}
+			} else {
+				count += Long.bitCount(word & literalMask);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Makes sure this segment still has something left in it, decoding
+	 * the next word of the column into it (in place) when it has been used up.
+	 *
+	 * @param it cursor over the words of the column this segment decodes
+	 * @return false if the segment is used up and the column has no more words
+	 */
+	public boolean refill(WordCursor it) {
+		while (this.numSegments == 0) {
+			if (this.wordStart + this.wordSegments >= this.limit || !it.hasNext()) {
+				return false;
+			}
+			this.reset(it.nextWord());
+		}
+		return true;
+	}
+
+	/**
+	 * Skips over numSkip segments of the column, whatever they hold,
+	 * pulling words from the cursor as needed.  Fills are skipped in one step.
+	 *
+	 * @param numSkip number of segments to skip
+	 * @param it cursor over the words of the column this segment decodes
+	 * @return the number of segments skipped, less than numSkip only if the column ran out
+	 */
+	public long skip(long numSkip, WordCursor it) {
+		long left = numSkip;
+		while (left > 0 && this.refill(it)) {
+			long used = Math.min(left, this.numSegments);
+			this.numSegments -= used;
+			left -= used;
+		}
+		return numSkip - left;
+	}
+
+	/**
+	 * Skips over numSkip segments of the column like skip(numSkip, it), but
+	 * when the column has a run index and the skip goes past the word decoded
+	 * last, the cursor jumps to the last checkpoint before the target instead
+	 * of reading every word in between.
+	 *
+	 * @param numSkip number of segments to skip
+	 * @param it cursor over the words of the column this segment decodes
+	 * @param index the run index of the column, or null
+	 * @return the number of segments skipped, less than numSkip only if the column ran out
+	 */
+	public long skip(long numSkip, WordCursor it, ColumnRunIndex index) {
+		numSkip = Math.min(numSkip, Math.max(0, this.limit - this.position()));
+		if (index != null && numSkip > this.numSegments && index.getNumberOfSegments() > 0) {
+			long from = this.position();
+			long target = from + numSkip;
+			int checkpoint = index.checkpoint(target);
+			long checkpointStart = index.getStart(checkpoint);
+			if (checkpointStart > this.wordStart + this.wordSegments) {
+				it.seek(index.getWord(checkpoint));
+				this.wordStart = checkpointStart;
+				this.wordSegments = 0;
+				this.numSegments = 0;
+				return (checkpointStart - from) + this.skip(target - checkpointStart, it);
+			}
+		}
+		return this.skip(numSkip, it);
+	}
 
+	/**
+	 * @return the number of segments of the column consumed so far
+	 */
+	public long position() {
+		return this.wordStart + this.wordSegments - this.numSegments;
 	}
 
 	@Override
@@ -1,6 +1,7 @@
-import java.util.Iterator;
-
 public class WAHPointQuery extends PointQuery {
+	/** jump over runs that decide the result instead of walking them in lockstep */
+	private boolean skipRuns = true;
+
 	/**
 	 * Creates a WAHPointQuery with a given set of bitmaps, and the columns to apply the query
 	 * @param operator the operation to perform
@@ -13,26 +14,42 @@ public class WAHPointQuery extends PointQuery {
 
 	@Override
 	public ActiveBitCollection execute() {
-		// check if columns are stored in memory
-		ActiveBitCollection A = Query.columns.get(this.colID1);
-		ActiveBitCollection B = Query.columns.get(this.colID2);
+		// get A and B from memory, or from disk and store them in 'columns' (B loads while A does)
+		try (ColumnPrefetcher.Pipeline columns = super.prefetch(new int[] {this.colID1, this.colID2})) {
+			ActiveBitCollection A = columns.get(this.colID1);
+			ActiveBitCollection B = columns.get(this.colID2);
 
-		// get A (and possibly B) from disk; store in 'columns'
-		if (A == null) {
-			A = super.loadFile(this.colID1);
-		}
-		if (B == null) {
-			B = super.loadFile(this.colID2);
+			// perform the point query
+			switch (this.operator) {
+				case OR:
+					return Query.detach(this.OrQuery(A,B));
+				case AND:
+					return Query.detach(this.AndQuery(A,B));
+				case ANDNOT:
+					return this.AndNotQuery(A,B);
+				default:
+					throw new RuntimeException("Unsupported operator: " + this.operator.toString());
+			}
 		}
+	}
 
-		// perform the point query
-		switch (this.operator) {
-			case OR:
-				return this.OrQuery(A,B);
-			case AND:
-				return this.AndQuery(A,B);
-			default:
-				throw new RuntimeException("Unsupported operator: " + this.operator.toString());
+	@Override
+	public long executeCount() {
+		try (ColumnPrefetcher.Pipeline columns = super.prefetch(new int[] {this.colID1, this.colID2})) {
+			ActiveBitCollection A = columns.get(this.colID1);
+			ActiveBitCollection B = columns.get(this.colID2);
+
+			// count the matching rows without building the result
+			switch (this.operator) {
+				case OR:
+					return this.OrCardinality(A,B);
+				case AND:
+					return this.AndCardinality(A,B);
+				case ANDNOT:
+					return this.AndNotCardinality(A,B);
+				default:
+					throw new RuntimeException("Unsupported operator: " + this.operator.toString());
+			}
 		}
 	}
 
@@ -49,60 +66,10 @@ public class WAHPointQuery extends PointQuery {
 			return vec1;
 		}
 
-		ActiveBitCollection ret;
-
-		//create the result bitcollection
-		ret = (ActiveBitCollection) new VLCActiveBitCol(RunConfig.ENCODING.WAH32.getWordLen()-1,"Res_"+
+		//create the result bitcollection, using the same word size as the operands
+		ActiveBitCollection ret = WAHPointQuery.createResult(WAHPointQuery.getSeglen(vec1, vec2), "Res_"+
 				vec1.getColName()+"_OR_"+ vec2.getColName());
-		Iterator<Long> col1It = vec1.getSegmentIterator();
-		Iterator<Long> col2It = vec2.getSegmentIterator();
-
-		//These decode the segments into the decodeLen
-		WAHActiveSegment col1Seg = new WAHActiveSegment(col1It.next());
-		WAHActiveSegment col2Seg = new WAHActiveSegment(col2It.next());
-
-		//need to do this loop at least once even if there is only one segment
-		do {
-			//See if we need to fetch a new segment from either one of the columns
-			if(col1Seg.numOfSegments() == 0){
-				col1Seg = new WAHActiveSegment(col1It.next());
-			}
-			if(col2Seg.numOfSegments() == 0){
-				col2Seg = new WAHActiveSegment(col2It.next());
-			}
-			//System.out.println("vec1 "+col1Seg.numOfSegments()+ "  vec2 "+col2Seg.numOfSegments());
-			//process the decoded segments
-			while(col1Seg.numOfSegments()!=0 && col2Seg.numOfSegments() != 0){
-
-				if(col1Seg.isFill()){
-					if(col2Seg.isFill()){//They are both fills
-						//find the shortest run
-						long minSegs = Math.min(col1Seg.numOfSegments(), col2Seg.numOfSegments());
-						//append a run of that length the return value
-						ret.appendFill(minSegs, (byte)(col1Seg.getFillValue()|col2Seg.getFillValue()));
-						//mark those words as being used
-						col1Seg.usedNumWords(minSegs);
-						col2Seg.usedNumWords(minSegs);
-					}else{//vec1 is a fill vec2 is a literal
-						ret.appendLiteral((col1Seg.getLiteralRepOfFill()|col2Seg.getLiteralValue()));
-					}
-
-				}else{//col1Seg is a literal
-					if(col2Seg.isFill()){
-						ret.appendLiteral((col2Seg.getLiteralRepOfFill()|col1Seg.getLiteralValue()));
-					}else{//both are literals
-						ret.appendLiteral((col2Seg.getLiteralValue()|col1Seg.getLiteralValue()));
-					}
-
-				}
-			}
-			//need to use || here because of the way the columns are read from disk
-			//This solves a problem when one column slops over and writes a single segment into
-			//the last word.  The remainder of that word is filled with zeros.  If the other column
-			//does not have the same slop the columns won't have the same number of bits.  Luckily all the
-			//extra bits can be disregarded (since they are just extra padding) and so we can stop the loop when
-			//one of the columns is exhausted.
-		} while(col1It.hasNext() && col2It.hasNext()); //NOTE DC LOOKING INTO THIS
+		this.merge(vec1, vec2, Operator.OR, ret);
 		return ret;
 	}
 
@@ -119,63 +86,302 @@ public class WAHPointQuery extends PointQuery {
 			return vec1;
 		}
 
-		ActiveBitCollection ret;
-
-		//create the result bitcollection
-		ret = (ActiveBitCollection) new VLCActiveBitCol(RunConfig.ENCODING.WAH32.getWordLen()-1,"Res_"+
+		//create the result bitcollection, using the same word size as the operands
+		ActiveBitCollection ret = WAHPointQuery.createResult(WAHPointQuery.getSeglen(vec1, vec2), "Res_"+
 				vec1.getColName()+"_AND_"+vec2.getColName());
-		Iterator<Long> col1It = vec1.getSegmentIterator();
-		Iterator<Long> col2It = vec2.getSegmentIterator();
-		//These decode the segments into the decodeLen
-		WAHActiveSegment col1Seg = new WAHActiveSegment(col1It.next());
-		WAHActiveSegment col2Seg = new WAHActiveSegment(col2It.next());
-		//need to do this loop at least once even if there is only one segment
-		do {
-			//See if we need to fetch a new segment from either one of the columns
-			if(col1Seg.numOfSegments() == 0){
-				col1Seg = new WAHActiveSegment(col1It.next());
-			}
-			if(col2Seg.numOfSegments() == 0){
-				col2Seg = new WAHActiveSegment(col2It.next());
-			}
-			//System.out.println("vec1 "+col1Seg.numOfSegments()+ "  vec2 "+col2Seg.numOfSegments());
+		this.merge(vec1, vec2, Operator.AND, ret);
+		return ret;
+	}
+
+	/** Takes two compressed vector and performs a logical AND NOT
+	 * operation on them (the rows of vec1 that are not in vec2).
+	 * The results are returned in a bit vector
+	 *
+	 * @param vec1 A compressed vector for querying
+	 * @param vec2 A compressed vector for querying
+	 * @return  the result of vec1 AND NOT vec2
+	 * */
+	@Override
+	public ActiveBitCollection AndNotQuery(ActiveBitCollection vec1, ActiveBitCollection vec2) {
+		//create the result bitcollection, using the same word size as the operands
+		ActiveBitCollection ret = WAHPointQuery.createResult(WAHPointQuery.getSeglen(vec1, vec2), "Res_"+
+				vec1.getColName()+"_ANDNOT_"+vec2.getColName());
+		this.merge(vec1, vec2, Operator.ANDNOT, ret);
+		return ret;
+	}
+
+	@Override
+	public long OrCardinality(ActiveBitCollection vec1, ActiveBitCollection vec2) {
+		if (vec1 == vec2) {
+			return vec1.cardinality();
+		}
+		return this.merge(vec1, vec2, Operator.OR, null);
+	}
+
+	@Override
+	public long AndCardinality(ActiveBitCollection vec1, ActiveBitCollection vec2) {
+		if (vec1 == vec2) {
+			return vec1.cardinality();
+		}
+		return this.merge(vec1, vec2, Operator.AND, null);
+	}
+
+	@Override
+	public long AndNotCardinality(ActiveBitCollection vec1, ActiveBitCollection vec2) {
+		return this.merge(vec1, vec2, Operator.ANDNOT, null);
+	}
+
+	/**
+	 * Walks two compressed columns side by side and combines them with the
+	 * given operator.  The result is appended to ret, or, when ret is null,
+	 * only the number of set bits in the result is computed (from the fill
+	 * lengths and a bit count of the literals) and nothing is allocated.
+	 *
+	 * When run skipping is on, a fill that decides the result by itself (a run
+	 * of zeros for AND, a run of ones for OR, a run of zeros in vec1 or a run of
+	 * ones in vec2 for ANDNOT) is emitted as a single fill, and the other column
+	 * is jumped forward by the whole run instead of being combined with it one
+	 * literal at a time.
+	 *
+	 * @param vec1 A compressed vector for querying
+	 * @param vec2 A compressed vector for querying
+	 * @param op the operator (AND, OR or ANDNOT)
+	 * @param ret where the result is appended, or null to only count it
+	 * @return the number of set bits in the result when counting, 0 otherwise
+	 */
+	private long merge(ActiveBitCollection vec1, ActiveBitCollection vec2, Operator op, ActiveBitCollection ret) {
+		this.addWordsScanned(vec1.getNumberOfWords() + vec2.getNumberOfWords());
+		return WAHPointQuery.merge(vec1.getWordCursor(), ColumnRunIndex.get(vec1), vec2.getWordCursor(),
+				ColumnRunIndex.get(vec2), WAHPointQuery.getSeglen(vec1, vec2), WAHPointQuery.segmentsOf(vec1, vec2),
+				op, ret, this.skipRuns);
+	}
+
+	/**
+	 * The merge kernel itself, over raw word cursors so that it can be shared
+	 * with representations that are not ActiveBitCollections (e.g. WAHVector).
+	 * Both cursors must hand out one segment of seglen bits per word.
+	 *
+	 * @param col1It cursor over the words of the first operand
+	 * @param col2It cursor over the words of the second operand
+	 * @param seglen segment length of both operands
+	 * @param op the operator (AND, OR or ANDNOT)
+	 * @param ret where the result is appended, or null to only count it
+	 * @param skipRuns True to jump over runs that decide the result
+	 * @return the number of set bits in the result when counting, 0 otherwise
+	 */
+	static long merge(WordCursor col1It, WordCursor col2It, int seglen, Operator op, ActiveBitCollection ret,
+			boolean skipRuns) {
+		return WAHPointQuery.merge(col1It, null, col2It, null, seglen, Long.MAX_VALUE, op, ret, skipRuns);
+	}
+
+	/**
+	 * The merge kernel, jumping over the runs that decide the result with the
+	 * run indexes of the operands when they have one (see ColumnRunIndex), so
+	 * the words of the other operand under such a run are not read at all.
+	 *
+	 * @param col1It cursor over the words of the first operand
+	 * @param col1Index run index of the first operand, or null
+	 * @param col2It cursor over the words of the second operand
+	 * @param col2Index run index of the second operand, or null
+	 * @param seglen segment length of both operands
+	 * @param segments segments of the operands holding rows (see segmentsOf), the rest is padding
+	 * @param op the operator (AND, OR or ANDNOT)
+	 * @param ret where the result is appended, or null to only count it
+	 * @param skipRuns True to jump over runs that decide the result
+	 * @return the number of set bits in the result when counting, 0 otherwise
+	 */
+	static long merge(WordCursor col1It, ColumnRunIndex col1Index, WordCursor col2It, ColumnRunIndex col2Index,
+			int seglen, long segments, Operator op, ActiveBitCollection ret, boolean skipRuns) {
+		long count = 0;
+
+		//the fill value of each column that decides the result on its own, and that result
+		byte dominant1, dominant2, dominantResult;
+		switch (op) {
+			case OR:
+				dominant1 = 1;
+				dominant2 = 1;
+				dominantResult = 1;
+				break;
+			case AND:
+				dominant1 = 0;
+				dominant2 = 0;
+				dominantResult = 0;
+				break;
+			case ANDNOT:
+				dominant1 = 0;
+				dominant2 = 1;
+				dominantResult = 0;
+				break;
+			default:
+				throw new RuntimeException("Unsupported operator: " + op.toString());
+		}
+
+		//These decode the segments into the decodeLen. They are reset in place
+		//as words are consumed, so the loop below does not allocate.
+		WAHActiveSegment col1Seg = new WAHActiveSegment();
+		WAHActiveSegment col2Seg = new WAHActiveSegment();
+		col1Seg.setSeglen(seglen);
+		col2Seg.setSeglen(seglen);
+		col1Seg.setLimit(segments);
+		col2Seg.setLimit(segments);
+
+		//Stop as soon as one of the columns is exhausted, or at the last row when the row
+		//count is known (from the column file headers).  The last word of a column may hold
+		//padding segments past its last row (the remainder of a packed word is filled with
+		//zeros), which are not part of the result.  Columns read from files without a
+		//header don't have a row count, and two columns with different padding end where
+		//the shorter one does.
+		while (col1Seg.refill(col1It) && col2Seg.refill(col2It)) {
 			//process the decoded segments
 			while(col1Seg.numOfSegments()!=0 && col2Seg.numOfSegments() != 0){
 
-				if(col1Seg.isFill()){
-					if(col2Seg.isFill()){//They are both fills
-						//find the shortest run
-						long minSegs = Math.min(col1Seg.numOfSegments(), col2Seg.numOfSegments());
-						//append a run of that length the return value
-						ret.appendFill(minSegs, (byte)(col1Seg.getFillValue()&col2Seg.getFillValue()));
-						//mark those words as being used
-						col1Seg.usedNumWords(minSegs);
-						col2Seg.usedNumWords(minSegs);
-					}else{//vec1 is a fill vec2 is a literal
-						ret.appendLiteral((col1Seg.getLiteralRepOfFill()&col2Seg.getLiteralValue()));
+				if (skipRuns && col1Seg.isFill() && col1Seg.getFillValue() == dominant1) {
+					//vec1 decides the result for the whole run, jump vec2 past it
+					long skipped = col2Seg.skip(col1Seg.numOfSegments(), col2It, col2Index);
+					col1Seg.usedNumWords(skipped);
+					count += WAHPointQuery.emitFill(ret, skipped, dominantResult, seglen);
+					if (col2Seg.numOfSegments() == 0) {
+						break;
 					}
-
-				}else{//col1Seg is a literal
-					if(col2Seg.isFill()){
-						ret.appendLiteral((col2Seg.getLiteralRepOfFill()&col1Seg.getLiteralValue()));
-					}else{//both are literals
-						ret.appendLiteral((col2Seg.getLiteralValue()&col1Seg.getLiteralValue()));
+				}else if (skipRuns && col2Seg.isFill() && col2Seg.getFillValue() == dominant2) {
+					//vec2 decides the result for the whole run, jump vec1 past it
+					long skipped = col1Seg.skip(col2Seg.numOfSegments(), col1It, col1Index);
+					col2Seg.usedNumWords(skipped);
+					count += WAHPointQuery.emitFill(ret, skipped, dominantResult, seglen);
+					if (col1Seg.numOfSegments() == 0) {
+						break;
+					}
+				}else if(col1Seg.isFill() && col2Seg.isFill()){//They are both fills
+					//find the shortest run
+					long minSegs = Math.min(col1Seg.numOfSegments(), col2Seg.numOfSegments());
+					byte fill = (byte) WAHPointQuery.combine(op, col1Seg.getFillValue(), col2Seg.getFillValue(), 1);
+					//append a run of that length the return value
+					count += WAHPointQuery.emitFill(ret, minSegs, fill, seglen);
+					//mark those words as being used
+					col1Seg.usedNumWords(minSegs);
+					col2Seg.usedNumWords(minSegs);
+				}else{//at least one literal
+					long lit1 = col1Seg.isFill() ? col1Seg.getLiteralRepOfFill() : col1Seg.getLiteralValue();
+					long lit2 = col2Seg.isFill() ? col2Seg.getLiteralRepOfFill() : col2Seg.getLiteralValue();
+					long lit = WAHPointQuery.combine(op, lit1, lit2, (1L << seglen) - 1);
+					if (ret != null) {
+						ret.appendLiteral(lit);
+					} else {
+						count += Long.bitCount(lit);
 					}
-
 				}
 			}
-			//need to use || here because of the way the columns are read from disk
-			//This solves a problem when one column slops over and writes a single segment into
-			//the last word.  The remainder of that word is filled with zeros.  If the other column
-			//does not have the same slop the columns won't have the same number of bits.  Luckily all the
-			//extra bits can be disregarded (since they are just extra padding) and so we can stop the loop when
-			//one of the columns is exhausted.
-		} while(col1It.hasNext() && col2It.hasNext());
-		return ret;
+		}
+		return count;
+	}
+
+	/**
+	 * Appends a fill to the result, or counts its set bits when there is no result
+	 *
+	 * @param ret where the result is appended, or null to only count it
+	 * @param numRuns length of the fill
+	 * @param fill the fill bit
+	 * @param seglen segment length of the result
+	 * @return the number of set bits in the fill when counting, 0 otherwise
+	 */
+	private static long emitFill(ActiveBitCollection ret, long numRuns, byte fill, int seglen) {
+		if (numRuns == 0) {
+			return 0;
+		}
+		if (ret != null) {
+			ret.appendFill(numRuns, fill);
+			return 0;
+		}
+		return (fill == 1) ? numRuns * seglen : 0;
+	}
+
+	/**
+	 * Combines two literals (or two fill bits) with the given operator
+	 *
+	 * @param op the operator (AND, OR or ANDNOT)
+	 * @param a left operand
+	 * @param b right operand
+	 * @param mask the bits that are part of a segment (1 for fill bits)
+	 * @return a op b
+	 */
+	private static long combine(Operator op, long a, long b, long mask) {
+		switch (op) {
+			case OR:
+				return a | b;
+			case AND:
+				return a & b;
+			case ANDNOT:
+				return a & ~b & mask;
+			default:
+				throw new RuntimeException("Unsupported operator: " + op.toString());
+		}
+	}
+
+	/**
+	 * Turns the run skipping of the kernels on or off.  It is on by default;
+	 * turning it off gives the plain lockstep kernel, e.g. for benchmarking.
+	 *
+	 * @param skipRuns True to jump over runs that decide the result
+	 */
+	public void setRunSkipping(boolean skipRuns) {
+		this.skipRuns = skipRuns;
+	}
+
+	/**
+	 * Creates an empty result column for the given segment length:
+	 * a WAH64ActiveBitCol for 63 bit segments, a VLCActiveBitCol otherwise.
+	 *
+	 * @param seglen segment length of the operands
+	 * @param name name of the result column
+	 * @return the empty result column
+	 */
+	public static ActiveBitCollection createResult(int seglen, String name) {
+		if (seglen == WAH64ActiveBitCol.SEGLEN) {
+			return new WAH64ActiveBitCol(name);
+		}
+		return new VLCActiveBitCol(seglen, name);
+	}
+
+	/**
+	 * @param vecs compressed vectors
+	 * @return the segments of the vectors that hold rows (the fewest), Long.MAX_VALUE if none knows its row count
+	 */
+	public static long segmentsOf(ActiveBitCollection... vecs) {
+		long segments = Long.MAX_VALUE;
+		for (ActiveBitCollection vec : vecs) {
+			segments = Math.min(segments, WAHActiveSegment.segmentsOf(vec));
+		}
+		return segments;
+	}
+
+	/**
+	 * @param vec1 A compressed vector for querying
+	 * @param vec2 A compressed vector for querying
+	 * @return the segment length shared by both vectors
+	 */
+	public static int getSeglen(ActiveBitCollection vec1, ActiveBitCollection vec2) {
+		if (vec1.getSeglen() != vec2.getSeglen()) {
+			throw new IllegalArgumentException("Columns " + vec1.getColName() + " and " + vec2.getColName() +
+					" use different segment lengths: " + vec1.getSeglen() + " and " + vec2.getSeglen());
+		}
+		return vec1.getSeglen();
 	}
 
 	@Override
 	public void setBitmapReader() {
-		super.cbr = new VLCCompressedReader();
+		super.cbr = WAHPointQuery.createReader();
+	}
+
+	/**
+	 * @return the reader for the encoding selected in RunConfig.ENCODING
+	 */
+	public static CompressedBitmapReader createReader() {
+		switch (RunConfig.ENCODING) {
+			case WAH64:
+				return new WAH64CompressedReader();
+			case WAH32:
+			default:
+				return new VLCCompressedReader();
+		}
 	}
 }
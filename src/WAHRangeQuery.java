@@ -1,4 +1,14 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+
 public class WAHRangeQuery extends RangeQuery {
+    /** Pool running the parallel range reductions, shared by all range queries */
+    private static final ForkJoinPool POOL = new ForkJoinPool(RunConfig.RANGE_PARALLELISM);
+
     /**
      * Creates a WAH range query
      * @param operator the operation to perform
@@ -12,32 +22,531 @@ public class WAHRangeQuery extends RangeQuery {
 
     @Override
     public void setBitmapReader() {
-        super.cbr = new VLCCompressedReader();
+        super.cbr = WAHPointQuery.createReader();
     }
 
     /**
-     * Executes the point query
+     * Executes the range query by streaming every column of the range
+     * through a single k-way merge, reusing cached range results as
+     * decided by the cache strategy (see RunConfig.CACHE_POLICY)
      * @return the result vector
      */
     @Override
     public ActiveBitCollection execute() {
-        // initialize by retrieving the first column in the range
-        ActiveBitCollection ret = Query.columns.get(this.startColID);
-        if (ret == null) {
-            ret = super.loadFile(this.startColID);
+        return RangeQuery.strategy.execute(this, RangeQuery.results);
+    }
+
+    /**
+     * Counts the rows of the result without building it, unless the cache
+     * strategy is going to cache the result of the range
+     * @return the number of set bits in the result vector
+     */
+    @Override
+    public long executeCount() {
+        return RangeQuery.strategy.executeCount(this, RangeQuery.results);
+    }
+
+    /**
+     * Counts the rows of the result from the columns alone
+     * @return the number of set bits in the result vector
+     */
+    protected long executeCountNoCache() {
+        try (ColumnPrefetcher.Pipeline columns = this.prefetchColumns()) {
+            ActiveBitCollection[] vecs = columns.getAll();
+            return this.combineCount(vecs, this.columnStats(vecs));
+        }
+    }
+
+    /**
+     * Computes the result from the columns alone
+     * @return the result vector
+     */
+    protected ActiveBitCollection executeNoCache() {
+        try (ColumnPrefetcher.Pipeline columns = this.prefetchColumns()) {
+            ActiveBitCollection[] vecs = columns.getAll();
+            return Query.detach(this.combine(vecs, this.columnStats(vecs)));
+        }
+    }
+
+    /**
+     * Combines operands the way executeNoCache() combines the columns of the
+     * range: in the order and with the kernel of a plan when QUERY_PLANNER is
+     * set (so the pairwise kernel stops at a saturated intermediate), in one
+     * k-way merge otherwise.  The range cache strategies merge cached results
+     * with the columns they leave uncovered through here.
+     * @param vecs the operands (a single one is its own result)
+     * @param stats the statistics of operand i, only asked for when planning
+     * @return the result vector
+     */
+    public ActiveBitCollection combine(ActiveBitCollection[] vecs, IntFunction<ColumnStats> stats) {
+        if (vecs.length == 1) {
+            return vecs[0];
+        }
+        if (RunConfig.QUERY_PLANNER) {
+            return this.execute(this.plan(vecs, stats), vecs);
+        }
+        return this.combine(vecs);
+    }
+
+    /**
+     * Counts the rows set in the combination of operands, planned as in
+     * combine(vecs, stats), only counting the last merge
+     * @param vecs the operands
+     * @param stats the statistics of operand i, only asked for when planning
+     * @return the number of set bits in the result
+     */
+    public long combineCount(ActiveBitCollection[] vecs, IntFunction<ColumnStats> stats) {
+        if (vecs.length == 1) {
+            return vecs[0].cardinality();
+        }
+        if (RunConfig.QUERY_PLANNER) {
+            QueryPlanner.Plan plan = this.plan(vecs, stats);
+            ActiveBitCollection[] ordered = WAHRangeQuery.inPlanOrder(vecs, plan);
+            if (plan.kernel == QueryPlanner.Kernel.PAIRWISE) {
+                return this.PairwiseCardinality(ordered);
+            }
+            return this.combineCount(ordered);
+        }
+        return this.combineCount(vecs);
+    }
+
+    /**
+     * Plans the combination of the columns of this query (see QueryPlanner)
+
+     * @param vecs the columns from start to end
+     * @return the plan
+     */
+    public QueryPlanner.Plan plan(ActiveBitCollection[] vecs) {
+        return this.plan(vecs, this.columnStats(vecs));
+    }
+
+    /**
+     * Plans the combination of operands with this query's operator (see QueryPlanner)
+     * @param vecs the operands
+     * @param stats the statistics of operand i
+     * @return the plan
+     */
+    public QueryPlanner.Plan plan(ActiveBitCollection[] vecs, IntFunction<ColumnStats> stats) {
+        ColumnStats[] operands = new ColumnStats[vecs.length];
+        for (int i = 0; i < vecs.length; i++) {
+            operands[i] = stats.apply(i);
+        }
+        return QueryPlanner.plan(this.operator, operands);
+    }
+
+    /**
+     * @param vecs the columns from start to end
+     * @return the statistics of column i of the range (see QueryPlanner.getStats)
+     */
+    private IntFunction<ColumnStats> columnStats(ActiveBitCollection[] vecs) {
+        return i -> QueryPlanner.getStats(this.startColID + i, vecs[i]);
+    }
+
+    /**
+     * Plans this query, runs it without the range result cache, and
+     * describes the plan next to what the query actually cost
+     * @return the description of the plan
+     */
+    public String explain() {
+        try (ColumnPrefetcher.Pipeline columns = this.prefetchColumns()) {
+            ActiveBitCollection[] vecs = columns.getAll();
+            if (vecs.length == 1) {
+                return this.toString() + ": a single column, nothing to merge\n";
+            }
+            QueryPlanner.Plan plan = this.plan(vecs);
+            long begin = System.nanoTime();
+            ActiveBitCollection ret = this.execute(plan, vecs);
+            long nanos = System.nanoTime() - begin;
+
+            // the actual cost, from the words of the inputs and of what the kernel produced
+            ActiveBitCollection[] ordered = WAHRangeQuery.inPlanOrder(vecs, plan);
+            double[] inputs = new double[ordered.length];
+            for (int i = 0; i < ordered.length; i++) {
+                inputs[i] = plan.stats[i].getNumberOfWords();
+            }
+            double actualCost;
+            if (plan.kernel == QueryPlanner.Kernel.PAIRWISE) {
+                double[] intermediates = new double[ordered.length - 1];
+                ActiveBitCollection intermediate = ordered[0];
+                for (int i = 1; i < ordered.length; i++) {
+                    intermediate = this.PairwiseQuery(new ActiveBitCollection[] {intermediate, ordered[i]});
+                    intermediates[i - 1] = ColumnStats.of(intermediate).getNumberOfWords();
+                }
+                actualCost = QueryPlanner.pairwiseCost(inputs, intermediates);
+            } else {
+                actualCost = QueryPlanner.kWayCost(inputs, ColumnStats.of(ret).getNumberOfWords());
+            }
+            return this.toString() + "\n" + plan.explain(this.getColumnIDs(), actualCost, ret.cardinality(), nanos);
+        }
+    }
+
+    /**
+     * Runs a plan
+     * @param plan the plan
+     * @param vecs the columns from start to end
+     * @return the result vector
+     */
+    private ActiveBitCollection execute(QueryPlanner.Plan plan, ActiveBitCollection[] vecs) {
+        ActiveBitCollection[] ordered = WAHRangeQuery.inPlanOrder(vecs, plan);
+        if (plan.kernel == QueryPlanner.Kernel.PAIRWISE) {
+            return this.PairwiseQuery(ordered);
+        }
+        return this.combine(ordered);
+    }
+
+    /**
+     * @param vecs the columns from start to end
+     * @param plan a plan of this query
+     * @return the columns, in plan order
+     */
+    private static ActiveBitCollection[] inPlanOrder(ActiveBitCollection[] vecs, QueryPlanner.Plan plan) {
+        ActiveBitCollection[] ordered = new ActiveBitCollection[vecs.length];
+        for (int i = 0; i < vecs.length; i++) {
+            ordered[i] = vecs[plan.order[i]];
+        }
+        return ordered;
+    }
+
+    /**
+     * Merges the vectors two at a time, from the first to the last
+     *
+     * @param vecs The compressed vectors to combine, in order
+     * @return the result of ((vecs[0] op vecs[1]) op ...) op vecs[n-1]
+     */
+    public ActiveBitCollection PairwiseQuery(ActiveBitCollection[] vecs) {
+        ActiveBitCollection ret = vecs[0];
+        for (int i = 1; i < vecs.length; i++) {
+            if (this.decides(ret, vecs, i)) {
+                // the rest of the chain cannot change the intermediate any more
+                return ret;
+            }
+            ActiveBitCollection next = WAHPointQuery.createResult(WAHPointQuery.getSeglen(ret, vecs[i]),
+                    "Res_" + this.operator + "_" + this.startColID + "_" + this.endColID);
+            this.pairwiseMerge(ret, vecs[i], next);
+            ret = next;
+        }
+        return ret;
+    }
+
+    /**
+     * Counts the rows set in the pairwise combination of the vectors, only
+     * counting the last merge
+     *
+     * @param vecs The compressed vectors to combine, in order
+     * @return the number of set bits in ((vecs[0] op vecs[1]) op ...) op vecs[n-1]
+     */
+    public long PairwiseCardinality(ActiveBitCollection[] vecs) {
+        int last = vecs.length - 1;
+        ActiveBitCollection head = this.PairwiseQuery(Arrays.copyOf(vecs, last));
+        return this.pairwiseMerge(head, vecs[last], null);
+    }
+
+    /**
+     * Checks whether an intermediate result is saturated with the value that
+     * decides this query's operator (all ones for OR, all zeros for AND), in
+     * which case merging it with the remaining vectors would give it back.
+     * This is only trusted when the run indexes of the remaining vectors show
+     * that none of them is shorter than the intermediate.
+     *
+     * @param intermediate the result so far
+     * @param vecs the vectors of the chain
+     * @param next the first vector still to be merged
+     * @return True if the intermediate is the result of the whole chain
+     */
+    private boolean decides(ActiveBitCollection intermediate, ActiveBitCollection[] vecs, int next) {
+        byte saturation = ColumnRunIndex.getSaturation(intermediate);
+        if (saturation == ColumnRunIndex.NOT_SATURATED
+                || saturation != ((this.operator == Operator.OR) ? 1 : 0)) {
+            return false;
+        }
+        long rows = ColumnStats.of(intermediate).getNumberOfRows();
+        for (int i = next; i < vecs.length; i++) {
+            ColumnRunIndex index = ColumnRunIndex.get(vecs[i]);
+            if (index == null || Math.min(index.getNumberOfSegments(), WAHActiveSegment.segmentsOf(vecs[i]))
+                    * intermediate.getSeglen() < rows) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One pairwise merge (see WAHPointQuery)
+     * @return the number of set bits in the result when counting, 0 otherwise
+     */
+    private long pairwiseMerge(ActiveBitCollection vec1, ActiveBitCollection vec2, ActiveBitCollection ret) {
+        this.addWordsScanned(vec1.getNumberOfWords() + vec2.getNumberOfWords());
+        return WAHPointQuery.merge(vec1.getWordCursor(), ColumnRunIndex.get(vec1), vec2.getWordCursor(),
+                ColumnRunIndex.get(vec2), WAHPointQuery.getSeglen(vec1, vec2), WAHPointQuery.segmentsOf(vec1, vec2),
+                this.operator, ret, true);
+    }
+
+    /**
+     * Combines vectors with this query's operator.  Fewer than
+     * RANGE_PARALLEL_THRESHOLD vectors (or any number of them, when the pool
+     * has a single thread) go through a single k-way merge on the calling thread.  More are reduced as a balanced tree on a fork/join pool:
+     * each leaf k-way merges up to RANGE_PARALLEL_LEAF adjacent vectors, and
+     * the results of sibling subtrees are merged pairwise on the way up.  This
+     * works because AND and OR are associative.
+     *
+     * @param vecs The compressed vectors to combine, in order
+     * @return the result of vecs[0] op vecs[1] op ... op vecs[n-1]
+     */
+    public ActiveBitCollection combine(ActiveBitCollection[] vecs) {
+        if (!WAHRangeQuery.forks(vecs)) {
+            return this.KWayQuery(vecs);
+        }
+        AtomicLong words = new AtomicLong();
+        ActiveBitCollection ret = POOL.invoke(new Reduction(this, vecs, 0, vecs.length, words));
+        this.addWordsScanned(words.get());
+        return ret;
+    }
+
+    /**
+     * Counts the rows set in the combination of the vectors, reducing the
+     * two halves of the vectors in parallel (see combine) when there are
+     * enough of them, and only counting the final merge.
+     *
+     * @param vecs The compressed vectors to combine, in order
+     * @return the number of set bits in vecs[0] op vecs[1] op ... op vecs[n-1]
+     */
+    public long combineCount(ActiveBitCollection[] vecs) {
+        if (!WAHRangeQuery.forks(vecs)) {
+            return this.KWayCardinality(vecs);
+        }
+        AtomicLong words = new AtomicLong();
+        int mid = vecs.length >>> 1;
+        Reduction left = new Reduction(this, vecs, 0, mid, words);
+        Reduction right = new Reduction(this, vecs, mid, vecs.length, words);
+        POOL.execute(left);
+        ActiveBitCollection rightResult = POOL.invoke(right);
+        ActiveBitCollection leftResult = left.join();
+        this.addWordsScanned(words.get());
+        return this.KWayCardinality(new ActiveBitCollection[] {leftResult, rightResult});
+    }
+
+    /**
+     * @param vecs The compressed vectors to combine
+     * @return True if they are worth reducing in parallel
+     */
+    private static boolean forks(ActiveBitCollection[] vecs) {
+        // the tree does more work than a single merge, it only pays off with several threads
+        return vecs.length >= RunConfig.RANGE_PARALLEL_THRESHOLD && POOL.getParallelism() > 1;
+    }
+
+    /**
+     * One subtree of a parallel range reduction: combines vecs[from, to)
+     */
+    private static class Reduction extends RecursiveTask<ActiveBitCollection> {
+        private static final long serialVersionUID = 1L;
+
+        /** the query whose operator combines the columns */
+        private final WAHRangeQuery query;
+        private final ActiveBitCollection[] vecs;
+        private final int from;
+        private final int to;
+        /** words merged by the whole reduction */
+        private final AtomicLong words;
+
+        Reduction(WAHRangeQuery query, ActiveBitCollection[] vecs, int from, int to, AtomicLong words) {
+            this.query = query;
+            this.vecs = vecs;
+            this.from = from;
+            this.to = to;
+            this.words = words;
         }
-        Query.columns.put(RangeQuery.TMP_ID, ret);
 
-        // loop through columns for repeated point-query execution
-        PointQuery pt;
-        for (int i = this.startColID + 1; i <= this.endColID; i++) {
-            pt = new WAHPointQuery(this.operator, RangeQuery.TMP_ID, i);
-            // update intermediate result
-            Query.columns.put(RangeQuery.TMP_ID, pt.execute());
+        @Override
+        protected ActiveBitCollection compute() {
+            ActiveBitCollection[] inputs;
+            if (this.to - this.from <= Math.max(2, RunConfig.RANGE_PARALLEL_LEAF)) {
+                // a leaf, merge its columns directly
+                inputs = Arrays.copyOfRange(this.vecs, this.from, this.to);
+            } else {
+                int mid = (this.from + this.to) >>> 1;
+                Reduction left = new Reduction(this.query, this.vecs, this.from, mid, this.words);
+                Reduction right = new Reduction(this.query, this.vecs, mid, this.to, this.words);
+                left.fork();
+                ActiveBitCollection rightResult = right.compute();
+                inputs = new ActiveBitCollection[] {left.join(), rightResult};
+            }
+            if (inputs.length == 1) {
+                return inputs[0];
+            }
+            WAHRangeQuery query = this.query;
+            ActiveBitCollection ret = WAHPointQuery.createResult(query.getSeglen(inputs),
+                    "Res_" + query.operator + "_" + query.startColID + "_" + query.endColID);
+            for (ActiveBitCollection vec : inputs) {
+                this.words.addAndGet(vec.getNumberOfWords());
+            }
+            query.kWayMerge(inputs, ret);
+            return ret;
         }
+    }
+
+    /**
+     * Starts gathering the columns of the range, loading the missing ones
+     * from disk (the next PREFETCH_WINDOW of them in the background while
+     * one is loaded).  The columns stay pinned until the pipeline is closed.
+     * @return the pipeline over the columns from start to end
+     */
+    protected ColumnPrefetcher.Pipeline prefetchColumns() {
+        int[] ids = new int[this.getSize()];
+        for (int i = this.startColID; i <= this.endColID; i++) {
+            ids[i - this.startColID] = i;
+        }
+        return super.prefetch(ids);
+    }
+
+    /**
+     * Streams all the columns through one decoded segment each, and emits the
+     * result in one pass.  A fill that decides the result on its own (a run of
+     * ones for OR, a run of zeros for AND) is emitted as a single fill, and
+     * every other column is fast-forwarded past it together, jumping through
+     * its run index when it has one (so a column that is saturated from end to
+     * end ends the merge at once).  When all the
+     * columns are in fills, the shortest one is emitted at once.  Otherwise
+     * one segment of every column is combined into a literal.
+     *
+     * @param vecs The compressed vectors of the range, in order
+     * @return the result of vecs[0] op vecs[1] op ... op vecs[n-1]
+     */
+    @Override
+    public ActiveBitCollection KWayQuery(ActiveBitCollection[] vecs) {
+        ActiveBitCollection ret = WAHPointQuery.createResult(this.getSeglen(vecs),
+                "Res_" + this.operator + "_" + this.startColID + "_" + this.endColID);
+        this.addWordsScanned(vecs);
+        this.kWayMerge(vecs, ret);
+        return ret;
+    }
+
+    @Override
+    public long KWayCardinality(ActiveBitCollection[] vecs) {
+        this.addWordsScanned(vecs);
+        return this.kWayMerge(vecs, null);
+    }
+
+    /**
+     * @param vecs The compressed vectors about to be merged
+     */
+    private void addWordsScanned(ActiveBitCollection[] vecs) {
+        for (ActiveBitCollection vec : vecs) {
+            this.addWordsScanned(vec.getNumberOfWords());
+        }
+    }
 
-        // remove intermediate result and return it
-        return Query.columns.remove(RangeQuery.TMP_ID);
+    /**
+     * @param vecs The compressed vectors of the range
+     * @return the segment length shared by all the vectors
+     */
+    private int getSeglen(ActiveBitCollection[] vecs) {
+        int seglen = vecs[0].getSeglen();
+        for (int i = 1; i < vecs.length; i++) {
+            seglen = WAHPointQuery.getSeglen(vecs[0], vecs[i]);
+        }
+        return seglen;
+    }
+
+    /**
+     * Runs the k-way merge described in KWayQuery.  The result is appended to
+     * ret, or, when ret is null, only the number of set bits in the result is
+     * computed and nothing is allocated.
+     *
+     * @param vecs The compressed vectors of the range, in order
+     * @param ret where the result is appended, or null to only count it
+     * @return the number of set bits in the result when counting, 0 otherwise
+     */
+    private long kWayMerge(ActiveBitCollection[] vecs, ActiveBitCollection ret) {
+        int seglen = this.getSeglen(vecs);
+        long count = 0;
+
+        // the fill value that decides the result regardless of the other columns
+        byte dominant;
+        switch (this.operator) {
+            case OR:
+                dominant = 1;
+                break;
+            case AND:
+                dominant = 0;
+                break;
+            default:
+                throw new RuntimeException("Unsupported operator: " + this.operator.toString());
+        }
+
+        // one cursor and one reusable decoded segment per column, and its run index if it has one
+        int n = vecs.length;
+        WordCursor[] its = new WordCursor[n];
+        WAHActiveSegment[] segs = new WAHActiveSegment[n];
+        ColumnRunIndex[] indexes = new ColumnRunIndex[n];
+        for (int i = 0; i < n; i++) {
+            its[i] = vecs[i].getWordCursor();
+            indexes[i] = ColumnRunIndex.get(vecs[i]);
+            segs[i] = new WAHActiveSegment();
+            segs[i].setSeglen(seglen);
+            segs[i].setLimit(WAHActiveSegment.segmentsOf(vecs[i]));
+        }
+
+        while (true) {
+            // stop as soon as one of the columns is exhausted (see WAHPointQuery)
+            for (int i = 0; i < n; i++) {
+                if (!segs[i].refill(its[i])) {
+                    return count;
+                }
+            }
+
+            // find the longest dominating fill, and check whether everything is a fill
+            long skip = 0;
+            long minRun = Long.MAX_VALUE;
+            boolean allFills = true;
+            for (int i = 0; i < n; i++) {
+                if (segs[i].isFill()) {
+                    if (segs[i].getFillValue() == dominant) {
+                        skip = Math.max(skip, segs[i].numOfSegments());
+                    }
+                    minRun = Math.min(minRun, segs[i].numOfSegments());
+                } else {
+                    allFills = false;
+                }
+            }
+
+            if (skip > 0) {
+                // fast-forward every column past the dominating fill
+                long skipped = skip;
+                for (int i = 0; i < n; i++) {
+                    skipped = Math.min(skipped, segs[i].skip(skip, its[i], indexes[i]));
+                }
+                if (ret != null) {
+                    ret.appendFill(skipped, dominant);
+                } else if (dominant == 1) {
+                    count += skipped * seglen;
+                }
+                if (skipped < skip) {
+                    return count;
+                }
+            } else if (allFills) {
+                // all fills of the same (non dominating) value, emit the shortest
+                if (ret != null) {
+                    ret.appendFill(minRun, (byte) (1 - dominant));
+                } else if (dominant == 0) {
+                    count += minRun * seglen;
+                }
+                for (int i = 0; i < n; i++) {
+                    segs[i].usedNumWords(minRun);
+                }
+            } else {
+                // combine one segment of every column
+                long value = segs[0].isFill() ? segs[0].getLiteralRepOfFill() : segs[0].getLiteralValue();
+                for (int i = 1; i < n; i++) {
+                    long next = segs[i].isFill() ? segs[i].getLiteralRepOfFill() : segs[i].getLiteralValue();
+                    value = (dominant == 1) ? (value | next) : (value & next);
+                }
+                if (ret != null) {
+                    ret.appendLiteral(value);
+                } else {
+                    count += Long.bitCount(value);
+                }
+            }
+        }
     }
 
 }
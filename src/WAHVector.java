@@ -1,22 +1,123 @@
-
+import java.util.Iterator;
 import java.util.List;
 
+/**
+ * A WAH32 bitmap vector as shipped between nodes: one 31 bit segment
+ * (literal or fill) per word.  The boolean operators run the same compressed
+ * kernel as WAHPointQuery directly over the words, so no decompression or
+ * conversion to another representation is needed.
+ */
 public class WAHVector implements BitmapVector {
+    /** Segment length of the words held by a WAHVector */
+    public static final int SEGLEN = 31;
+
     private String id;
     private List<Long> words;
+    /** Set when the words live in a WordBuffer (e.g. results), so cursors skip the boxing */
+    private WordBuffer buffer;
+
     public WAHVector(String id, List<Long> words) {
         this.id = id;
         this.words = words;
     }
+
+    /**
+     * Wraps the words of a buffer without copying them
+     *
+     * @param id the id of the vector
+     * @param buffer the WAH32 words, one segment per word
+     */
+    public WAHVector(String id, WordBuffer buffer) {
+        this.id = id;
+        this.words = buffer.asList();
+        this.buffer = buffer;
+    }
+
     public BitmapVector and(BitmapVector other) {
-        return null; // TODO -- get from David/Jason
+        return this.apply(other, Query.Operator.AND);
     }
+
     public BitmapVector or(BitmapVector other) {
-        return null; // TODO -- get from David/Jason
+        return this.apply(other, Query.Operator.OR);
+    }
+
+    /**
+     * @param other a WAH vector
+     * @return the rows set in this vector and not in other
+     */
+    public BitmapVector andNot(BitmapVector other) {
+        return this.apply(other, Query.Operator.ANDNOT);
     }
+
     public String getId() { return id; }
     public BitmapVectorType getType() { return BitmapVectorType.WAH; }
 
     @Override
     public List<Long> getWords() { return words; }
+
+    /**
+     * @return a cursor over the words of this vector
+     */
+    public WordCursor getWordCursor() {
+        if (this.buffer != null) {
+            return this.buffer.cursor();
+        }
+        return new ListCursor(this.words);
+    }
+
+    /**
+     * @return the number of set bits, computed without decompressing
+     */
+    public long cardinality() {
+        return WAHActiveSegment.cardinality(this.getWordCursor(), SEGLEN);
+    }
+
+    /**
+     * Combines this vector with another with the compressed merge kernel
+     *
+     * @param other a WAH vector
+     * @param op the operator
+     * @return a new vector holding this op other
+     */
+    private WAHVector apply(BitmapVector other, Query.Operator op) {
+        if (other == null || other.getType() != BitmapVectorType.WAH) {
+            throw new IllegalArgumentException("Can only combine WAH vectors with " + this.id);
+        }
+        WordCursor otherWords = (other instanceof WAHVector)
+                ? ((WAHVector) other).getWordCursor()
+                : new ListCursor(other.getWords());
+        String resultId = this.id + op.symbol + other.getId();
+        VLCActiveBitCol ret = new VLCActiveBitCol(SEGLEN, resultId);
+        WAHPointQuery.merge(this.getWordCursor(), otherWords, SEGLEN, op, ret, true);
+        ret.trimToSize();
+        return new WAHVector(resultId, ret.getVector());
+    }
+
+    /**
+     * Cursor over a list of words (through its iterator, so any List works)
+     */
+    private static class ListCursor implements WordCursor {
+        private final List<Long> words;
+        private Iterator<Long> it;
+
+        ListCursor(List<Long> words) {
+            this.words = words;
+            this.it = words.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.it.hasNext();
+        }
+
+        @Override
+        public long nextWord() {
+            return this.it.next();
+        }
+
+        @Override
+        public void reset() {
+            this.it = this.words.iterator();
+        }
+    }
 }
@@ -0,0 +1,351 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A growable array of primitive words.  This is the storage used behind
+ * the ActiveBitCollection implementations so that a compressed column costs
+ * 8 bytes per word instead of a boxed Long plus a reference.
+ *
+ * Columns with segments of at most 31 bits have words of at most 32 bits
+ * (the segment and its fill flag), which a buffer made by forSeglen() keeps
+ * in an int[] at 4 bytes per word.  Such a buffer hands the words out as
+ * unsigned 32 bit values, and moves to a long[] if it is ever given a wider
+ * word, so it holds the same words as a long[] buffer would.
+ *
+ * Growth is amortized (capacity grows by half each time it runs out), and
+ * trimToSize() should be called once a column is sealed so that it does not
+ * keep the spare capacity around for the rest of its life.
+ */
+public class WordBuffer {
+	/** Capacity used when none is given */
+	private static final int DEFAULT_CAPACITY = 16;
+	/** Largest array we will try to allocate */
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+	/** Largest word an int[] backing can hold */
+	private static final long NARROW_MASK = 0xFFFFFFFFL;
+
+	/** The words themselves, only the first 'size' are valid (null if narrow) */
+	private long[] words;
+	/** The words of a buffer of 32 bit words, null if words is used */
+	private int[] narrow;
+	/** Number of words currently held */
+	private int size;
+
+	/**
+	 * Creates an empty buffer with the default capacity
+	 */
+	public WordBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty buffer that can hold initialCapacity words
+	 * before having to grow.
+	 *
+	 * @param initialCapacity number of words to reserve
+	 */
+	public WordBuffer(int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+		}
+		this.words = new long[initialCapacity];
+		this.size = 0;
+	}
+
+	/**
+	 * Creates an empty buffer for the words of a column, backed by an int[]
+	 * if the words of that segment length fit in 32 bits
+	 *
+	 * @param seglen segment length of the column
+	 * @return the buffer
+	 */
+	public static WordBuffer forSeglen(int seglen) {
+		WordBuffer buffer = new WordBuffer(0);
+		if (seglen < Integer.SIZE) {
+			buffer.words = null;
+			buffer.narrow = new int[DEFAULT_CAPACITY];
+		} else {
+			buffer.words = new long[DEFAULT_CAPACITY];
+		}
+		return buffer;
+	}
+
+	/**
+	 * Adds a word to the end of the buffer
+	 *
+	 * @param word the word to add
+	 */
+	public void add(long word) {
+		if (this.size == this.capacity()) {
+			this.grow(this.size + 1);
+		}
+		if (this.narrow != null) {
+			if ((word & ~NARROW_MASK) == 0) {
+				this.narrow[this.size++] = (int) word;
+				return;
+			}
+			this.widen();
+		}
+		this.words[this.size++] = word;
+	}
+
+	/**
+	 * Adds words to the end of the buffer
+	 *
+	 * @param src holds the words to add
+	 * @param offset index of the first word to add in src
+	 * @param length number of words to add
+	 */
+	public void addAll(long[] src, int offset, int length) {
+		if (this.size + length > this.capacity()) {
+			this.grow(this.size + length);
+		}
+		if (this.narrow != null) {
+			for (int i = 0; i < length; i++) {
+				this.add(src[offset + i]);
+			}
+			return;
+		}
+		System.arraycopy(src, offset, this.words, this.size, length);
+		this.size += length;
+	}
+
+	/**
+	 * @param index position of the word
+	 * @return the word stored at index
+	 */
+	public long get(int index) {
+		this.checkIndex(index);
+		return (this.narrow != null) ? this.narrow[index] & NARROW_MASK : this.words[index];
+	}
+
+	/**
+	 * Replaces the word stored at index
+	 *
+	 * @param index position of the word
+	 * @param word the new value
+	 */
+	public void set(int index, long word) {
+		this.checkIndex(index);
+		if (this.narrow != null) {
+			if ((word & ~NARROW_MASK) == 0) {
+				this.narrow[index] = (int) word;
+				return;
+			}
+			this.widen();
+		}
+		this.words[index] = word;
+	}
+
+	/**
+	 * @return the last word in the buffer
+	 */
+	public long getLast() {
+		return this.get(this.size - 1);
+	}
+
+	/**
+	 * Replaces the last word in the buffer.  This is what the encoders
+	 * do when they merge a new run into the previous fill.
+	 *
+	 * @param word the new value of the last word
+	 */
+	public void setLast(long word) {
+		this.set(this.size - 1, word);
+	}
+
+	/**
+	 * @return number of words held
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return true if no words are held
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Removes every word but keeps the current capacity
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * Makes sure the buffer can hold at least minCapacity words
+	 * without growing again.
+	 *
+	 * @param minCapacity number of words needed
+	 */
+	public void ensureCapacity(int minCapacity) {
+		if (minCapacity > this.capacity()) {
+			this.grow(minCapacity);
+		}
+	}
+
+	/**
+	 * Shrinks the backing array down to the number of words held.
+	 * Call this when a column is sealed (fully read or fully computed).
+	 */
+	public void trimToSize() {
+		if (this.size < this.capacity()) {
+			this.resize(this.size);
+		}
+	}
+
+	/**
+	 * @return a copy of the words held
+	 */
+	public long[] toArray() {
+		if (this.narrow != null) {
+			long[] copy = new long[this.size];
+			for (int i = 0; i < this.size; i++) {
+				copy[i] = this.narrow[i] & NARROW_MASK;
+			}
+			return copy;
+		}
+		return Arrays.copyOf(this.words, this.size);
+	}
+
+	/**
+	 * @return bytes taken by the backing array (its capacity, not just the words held)
+	 */
+	public long getBackingBytes() {
+		return (this.narrow != null) ? (long) this.narrow.length * Integer.BYTES
+				: (long) this.words.length * Long.BYTES;
+	}
+
+	/**
+	 * @return a new cursor positioned at the first word
+	 */
+	public WordCursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * @return a read-only List view of the words held (nothing is copied,
+	 * words are boxed one at a time as they are read)
+	 */
+	public List<Long> asList() {
+		return new ListView();
+	}
+
+	/**
+	 * Read-only list view over the buffer
+	 */
+	private class ListView extends AbstractList<Long> implements RandomAccess {
+		@Override
+		public Long get(int index) {
+			return WordBuffer.this.get(index);
+		}
+
+		@Override
+		public int size() {
+			return WordBuffer.this.size;
+		}
+	}
+
+	/**
+	 * Cursor over the words held.  Words added after the cursor
+	 * was created are visible to it.
+	 */
+	private class Cursor implements WordCursor {
+		/** Index of the next word to hand out */
+		private int pos = 0;
+
+		@Override
+		public boolean hasNext() {
+			return this.pos < WordBuffer.this.size;
+		}
+
+		@Override
+		public long nextWord() {
+			if (this.pos >= WordBuffer.this.size) {
+				throw new NoSuchElementException();
+			}
+			int[] narrow = WordBuffer.this.narrow;
+			return (narrow != null) ? narrow[this.pos++] & NARROW_MASK : WordBuffer.this.words[this.pos++];
+		}
+
+		@Override
+		public void reset() {
+			this.pos = 0;
+		}
+
+		@Override
+		public void seek(int index) {
+			this.pos = index;
+		}
+	}
+
+	/**
+	 * Grows the backing array by half (or to minCapacity if that is larger)
+	 *
+	 * @param minCapacity number of words needed
+	 */
+	private void grow(int minCapacity) {
+		if (minCapacity < 0 || minCapacity > MAX_CAPACITY) {
+			throw new OutOfMemoryError("Word buffer too large: " + minCapacity);
+		}
+		int capacity = this.capacity();
+		long newCapacity = capacity + (capacity >> 1);
+		if (newCapacity < minCapacity) {
+			newCapacity = minCapacity;
+		}
+		if (newCapacity < DEFAULT_CAPACITY) {
+			newCapacity = DEFAULT_CAPACITY;
+		}
+		if (newCapacity > MAX_CAPACITY) {
+			newCapacity = MAX_CAPACITY;
+		}
+		this.resize((int) newCapacity);
+	}
+
+	/**
+	 * @return number of words the backing array can hold
+	 */
+	private int capacity() {
+		return (this.narrow != null) ? this.narrow.length : this.words.length;
+	}
+
+	/**
+	 * Copies the words to a backing array of the given capacity
+	 */
+	private void resize(int capacity) {
+		if (this.narrow != null) {
+			this.narrow = Arrays.copyOf(this.narrow, capacity);
+		} else {
+			this.words = Arrays.copyOf(this.words, capacity);
+		}
+	}
+
+	/**
+	 * Moves the words from the int[] backing to a long[] one, for a word
+	 * wider than 32 bits
+	 */
+	private void widen() {
+		long[] wide = new long[this.narrow.length];
+		for (int i = 0; i < this.size; i++) {
+			wide[i] = this.narrow[i] & NARROW_MASK;
+		}
+		this.words = wide;
+		this.narrow = null;
+	}
+
+	/**
+	 * @param index index to check against the number of words held
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+		}
+	}
+}
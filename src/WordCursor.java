@@ -0,0 +1,39 @@
+/**
+ * A primitive cursor over the words of an ActiveBitCollection.  Unlike an
+ * Iterator&lt;Long&gt; it hands out raw longs, so walking a column does not
+ * allocate anything, and it can be rewound and reused.
+ */
+public interface WordCursor {
+
+	/**
+	 * @return True if there are more words to read, false otherwise
+	 */
+	public boolean hasNext();
+
+	/**
+	 * Returns the next word and advances the cursor.
+	 *
+	 * @return the next word of the column
+	 */
+	public long nextWord();
+
+	/**
+	 * Rewinds the cursor back to the first word of the column
+	 */
+	public void reset();
+
+	/**
+	 * Moves the cursor so that the next word handed out is the one at the
+	 * given index (counted from the first word, like the calls to nextWord()).
+	 * This walks from the first word; cursors over storage that can be read
+	 * at any index jump there directly.
+	 *
+	 * @param index index of the word to hand out next
+	 */
+	public default void seek(int index) {
+		this.reset();
+		for (int i = 0; i < index && this.hasNext(); i++) {
+			this.nextWord();
+		}
+	}
+}